@@ -13,6 +13,7 @@ echo "📦 Compiling Java files..."
 javac -d build/classes \
     src/main/java/com/subway/core/*.java \
     src/main/java/com/subway/gui/*.java \
+    src/main/java/com/subway/server/*.java \
     src/main/java/com/subway/util/*.java
 
 if [ $? -eq 0 ]; then
@@ -53,4 +54,8 @@ echo "   java -cp build/classes com.subway.gui.ModernSubwayGUI"
 echo "   java -cp build/classes com.subway.gui.SubwayGUI"
 echo "   java -cp build/classes com.subway.util.SubwayTester \"Start Station\" \"End Station\""
 echo "   java -cp build/classes com.subway.util.Demo"
-echo "   java -cp build/classes com.subway.util.LoadTester" 
\ No newline at end of file
+echo "   java -cp build/classes com.subway.util.LoadTester"
+echo "   java -cp build/classes com.subway.util.RoutingTester" 
+echo "   java -Xmx2g -cp build/classes com.subway.util.SubwayBenchmarks [maxStations]"
+echo "   java -cp build/classes com.subway.server.RouteServer [networkFile] [port] [timeoutMillis]"
+echo "   java -cp build/classes com.subway.util.ServerBenchmark [networkFile] [clients] [seconds]"
\ No newline at end of file
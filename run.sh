@@ -52,6 +52,7 @@ while true; do
         4)
             echo "🧪 Running tests..."
             java -cp build/classes com.subway.util.LoadTester
+            java -cp build/classes com.subway.util.RoutingTester
             ;;
         5)
             echo "🎬 Running demo..."
@@ -0,0 +1,239 @@
+package com.subway.core;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+// Fewest-hops routes for large sets of origin-destination pairs, each one the
+// route getDirections returns for it.
+//
+// Pairs are read a window at a time and sorted by origin, so every distinct
+// origin in a window costs one BFS tree and each of its destinations is a walk
+// back up that tree. Origins are spread over a fork-join pool. Routes go to a
+// Sink as soon as an origin is done rather than being collected, so memory
+// stays bounded by the window however many pairs are streamed through.
+public final class BatchRouter
+{
+    public static final int DEFAULT_WINDOW_SIZE = 1 << 16;
+    private static final int PAIRS_PER_TASK = 512;
+    private static final int[] EMPTY_PATH = new int[0];
+
+    // Receives each route together with the names it was asked for. Calls are
+    // made one origin at a time while holding the sink's monitor, so a sink
+    // needs no locking of its own and an origin's routes arrive together. The
+    // route is null when either station is unknown.
+    public interface Sink
+    {
+        void accept(String startStationName, String endStationName, List<Connection> route);
+    }
+
+    private final SubwayGraph graph;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    public BatchRouter(SubwaySnapshot snapshot) {
+        this(snapshot.getGraph());
+    }
+
+    public BatchRouter(SubwayGraph graph) {
+        this.graph = graph;
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    public void setParallel(boolean parallel) {
+        setParallel(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    // Routes origins on the given pool; null routes them on the calling thread.
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    // Pairs read before routing starts. Larger windows share more trees when
+    // origins repeat far apart in the input, at about 40 bytes per pair.
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    public BatchStats route(String[][] pairs, Sink sink) {
+        return route(Arrays.asList(pairs).iterator(), Math.min(pairs.length, windowSize), sink);
+    }
+
+    // Consumes the stream a window at a time. Routes reach the sink grouped by
+    // origin, not in the order the pairs were streamed in; keep the names
+    // passed to the sink to match them up.
+    public BatchStats route(Stream<String[]> pairs, Sink sink) {
+        return route(pairs.iterator(), windowSize, sink);
+    }
+
+    // Each pair is a start and an end station name. Returns once every route
+    // has been handed to the sink; anything the sink throws ends the run.
+    public BatchStats route(Iterator<String[]> pairs, Sink sink) {
+        return route(pairs, windowSize, sink);
+    }
+
+    private BatchStats route(Iterator<String[]> pairs, int capacity, Sink sink) {
+        long start = System.nanoTime();
+        Window window = new Window(Math.max(capacity, 1));
+        long routes = 0;
+        long trees = 0;
+        long unknown = 0;
+        while (pairs.hasNext()) {
+            window.clear();
+            while (window.size < window.keys.length && pairs.hasNext()) {
+                String[] pair = pairs.next();
+                if (pair == null || pair.length != 2) {
+                    throw new IllegalArgumentException("Expected a start and an end station, got " + Arrays.toString(pair));
+                }
+                int origin = graph.getStationId(pair[0]);
+                int end = graph.getStationId(pair[1]);
+                routes++;
+                if (origin < 0 || end < 0) {
+                    unknown++;
+                    synchronized (sink) {
+                        sink.accept(pair[0], pair[1], null);
+                    }
+                } else {
+                    window.add(pair[0], pair[1], origin, end);
+                }
+            }
+            window.group();
+            trees += window.groupCount;
+            if (pool == null) {
+                SearchWorkspace workspace = SearchWorkspace.forStations(graph.getStationCount());
+                for (int group = 0; group < window.groupCount; group++) {
+                    routeGroup(window, group, sink, workspace);
+                }
+            } else if (window.groupCount > 0) {
+                pool.invoke(new RouteTask(window, sink, 0, window.groupCount));
+            }
+        }
+        return new BatchStats(routes, trees, unknown, System.nanoTime() - start);
+    }
+
+    private void routeGroup(Window window, int group, Sink sink, SearchWorkspace workspace) {
+        int from = window.groupOffsets[group];
+        int to = window.groupOffsets[group + 1];
+        int origin = (int) (window.keys[from] >>> 32);
+        BreadthFirstSearch.search(graph, origin, -1, workspace);
+        List<List<Connection>> routes = new ArrayList<>(to - from);
+        boolean roundTrips = false;
+        for (int k = from; k < to; k++) {
+            int end = window.ends[(int) window.keys[k]];
+            if (end == origin) {
+                routes.add(null);
+                roundTrips = true;
+            } else {
+                routes.add(graph.toConnections(workspace.isVisited(end)
+                    ? BreadthFirstSearch.extractPath(graph, origin, end, workspace.parentEdge) : EMPTY_PATH));
+            }
+        }
+        // A round trip is searched for, which reuses the tree's workspace.
+        if (roundTrips) {
+            for (int k = from; k < to; k++) {
+                if (routes.get(k - from) == null) {
+                    routes.set(k - from, graph.toConnections(graph.findPath(origin, origin)));
+                }
+            }
+        }
+        synchronized (sink) {
+            for (int k = from; k < to; k++) {
+                int pair = (int) window.keys[k];
+                sink.accept(window.startNames[pair], window.endNames[pair], routes.get(k - from));
+            }
+        }
+    }
+
+    // One window of known pairs. keys pack origin id and pair index, so
+    // sorting them groups pairs by origin and keeps input order within each.
+    private static final class Window
+    {
+        private final String[] startNames;
+        private final String[] endNames;
+        private final int[] ends;
+        private final long[] keys;
+        private final int[] groupOffsets;
+        private int size;
+        private int groupCount;
+
+        Window(int capacity) {
+            startNames = new String[capacity];
+            endNames = new String[capacity];
+            ends = new int[capacity];
+            keys = new long[capacity];
+            groupOffsets = new int[capacity + 1];
+        }
+
+        void clear() {
+            Arrays.fill(startNames, 0, size, null);
+            Arrays.fill(endNames, 0, size, null);
+            size = 0;
+            groupCount = 0;
+        }
+
+        void add(String startName, String endName, int start, int end) {
+            startNames[size] = startName;
+            endNames[size] = endName;
+            ends[size] = end;
+            keys[size] = ((long) start << 32) | size;
+            size++;
+        }
+
+        void group() {
+            Arrays.sort(keys, 0, size);
+            for (int k = 0; k < size; k++) {
+                if (k == 0 || keys[k] >>> 32 != keys[k - 1] >>> 32) {
+                    groupOffsets[groupCount++] = k;
+                }
+            }
+            groupOffsets[groupCount] = size;
+        }
+    }
+
+    private final class RouteTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Window window;
+        private final Sink sink;
+        private final int first;
+        private final int last;
+
+        RouteTask(Window window, Sink sink, int first, int last) {
+            this.window = window;
+            this.sink = sink;
+            this.first = first;
+            this.last = last;
+        }
+
+        protected void compute() {
+            int[] offsets = window.groupOffsets;
+            if (last - first == 1 || offsets[last] - offsets[first] <= PAIRS_PER_TASK) {
+                SearchWorkspace workspace = SearchWorkspace.forStations(graph.getStationCount());
+                for (int group = first; group < last; group++) {
+                    routeGroup(window, group, sink, workspace);
+                }
+            }
+            else
+            {
+                int middle = (first + last) >>> 1;
+                invokeAll(new RouteTask(window, sink, first, middle), new RouteTask(window, sink, middle, last));
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.subway.core;
+
+// What one BatchRouter run answered and how long it took.
+public final class BatchStats
+{
+    private final long routeCount;
+    private final long treeCount;
+    private final long unknownCount;
+    private final long nanos;
+
+    BatchStats(long routeCount, long treeCount, long unknownCount, long nanos) {
+        this.routeCount = routeCount;
+        this.treeCount = treeCount;
+        this.unknownCount = unknownCount;
+        this.nanos = nanos;
+    }
+
+    // Pairs handed to the sink, including those naming an unknown station.
+    public long getRouteCount() {
+        return routeCount;
+    }
+
+    // Shortest-path trees searched; one per distinct origin in each window.
+    public long getTreeCount() {
+        return treeCount;
+    }
+
+    public long getUnknownCount() {
+        return unknownCount;
+    }
+
+    // Wall-clock time from the first pair read to the last route emitted.
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getMillis() {
+        return nanos / 1e6;
+    }
+
+    public double getRoutesPerSecond() {
+        return nanos == 0 ? 0 : routeCount * 1e9 / nanos;
+    }
+
+    public String toString() {
+        return String.format("%d routes (%d unknown stations) from %d trees in %.1f ms: %.0f routes/s",
+            routeCount, unknownCount, treeCount, getMillis(), getRoutesPerSecond());
+    }
+}
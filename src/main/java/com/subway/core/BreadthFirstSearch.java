@@ -0,0 +1,69 @@
+package com.subway.core;
+
+// Fewest-hops search over any CsrView, in the thread's SearchWorkspace.
+final class BreadthFirstSearch
+{
+    private static final int[] EMPTY_PATH = new int[0];
+
+    private BreadthFirstSearch() {
+    }
+
+    // Fewest-hops path from start to end as a sequence of edge ids; empty when
+    // end cannot be reached. As before, asking for start == end yields the
+    // shortest round trip rather than an empty route.
+    static int[] findPath(CsrView graph, int start, int end) {
+        SearchWorkspace workspace = SearchWorkspace.forStations(graph.getStationCount());
+        if (!search(graph, start, end, workspace)) {
+            return EMPTY_PATH;
+        }
+        return extractPath(graph, start, end, workspace.parentEdge);
+    }
+
+    // Linear-time BFS over the CSR arrays. Fills workspace.parentEdge for every
+    // station it reaches and stops as soon as end is seen; pass end = -1 to
+    // build the whole shortest-path tree.
+    static boolean search(CsrView graph, int start, int end, SearchWorkspace workspace) {
+        int[] queue = workspace.queue;
+        int[] parentEdge = workspace.parentEdge;
+        int head = 0;
+        int tail = 0;
+
+        workspace.clearVisited(graph.getStationCount());
+        workspace.markVisited(start);
+        queue[tail++] = start;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int e = graph.getFirstEdge(u), last = graph.getEndEdge(u); e < last; e++) {
+                int v = graph.getTarget(e);
+                if (v == end) {
+                    parentEdge[v] = e;
+                    workspace.expanded = head;
+                    return true;
+                } else if (!workspace.isVisited(v)) {
+                    workspace.markVisited(v);
+                    parentEdge[v] = e;
+                    queue[tail++] = v;
+                }
+            }
+        }
+        workspace.expanded = head;
+        return false;
+    }
+
+    static int[] extractPath(CsrView graph, int start, int end, int[] parentEdge) {
+        int length = 0;
+        int station = end;
+        do {
+            station = graph.getSource(parentEdge[station]);
+            length++;
+        } while (station != start);
+
+        int[] path = new int[length];
+        station = end;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = parentEdge[station];
+            station = graph.getSource(path[i]);
+        }
+        return path;
+    }
+}
@@ -2,14 +2,27 @@ package com.subway.core;
 
 public class Connection
 {
+    public static final double DEFAULT_TRAVEL_TIME = 1.0;
+
     private Station station1, station2;
     private String lineName;
+    private double travelTime;
+    Connection reverse;
+    // Position in its first station's adjacency list, so that a frozen graph
+    // can find an edge's reverse without a lookup table.
+    int slot;
     
     public Connection(Station station1, Station station2, String lineName)
+    {
+        this(station1, station2, lineName, DEFAULT_TRAVEL_TIME);
+    }
+
+    public Connection(Station station1, Station station2, String lineName, double travelTime)
     {
         this.station1 = station1;
         this.station2 = station2;
         this.lineName = lineName;
+        this.travelTime = travelTime;
     }
 
     public Station getStation1()
@@ -26,6 +39,11 @@ public class Connection
     {
         return lineName;
     }
+
+    public double getTravelTime()
+    {
+        return travelTime;
+    }
     
     public String toString()
     {
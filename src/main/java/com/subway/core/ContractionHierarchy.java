@@ -0,0 +1,294 @@
+package com.subway.core;
+
+import java.io.*;
+import java.util.*;
+
+// Preprocessed shortest-path index over the station/line states of one
+// SubwayGraph and one transfer penalty. Queries run two upward Dijkstra
+// searches that meet at the highest-ranked state of the shortest route, and
+// shortcuts are unpacked back into the graph's Connections.
+public final class ContractionHierarchy
+{
+    private static final int MAGIC = 0x53574348;
+    private static final int VERSION = 1;
+
+    private final SubwayGraph graph;
+    private final double transferPenalty;
+    private final int[] rank;
+    private final int edgeCount;
+    private final int[] edgeA;
+    private final int[] edgeB;
+    private final double[] weights;
+    private final int[] middles;
+    private final int[] childrenA;
+    private final int[] childrenB;
+    private final int[] originals;
+
+    private final int[] upOffsets;
+    private final int[] upTargets;
+    private final double[] upWeights;
+    private final int[] upEdges;
+
+    ContractionHierarchy(SubwayGraph graph, double transferPenalty, int[] rank, int edgeCount,
+                         int[] edgeA, int[] edgeB, double[] weights, int[] middles,
+                         int[] childrenA, int[] childrenB, int[] originals) {
+        this.graph = graph;
+        this.transferPenalty = transferPenalty;
+        this.rank = rank;
+        this.edgeCount = edgeCount;
+        this.edgeA = edgeA;
+        this.edgeB = edgeB;
+        this.weights = weights;
+        this.middles = middles;
+        this.childrenA = childrenA;
+        this.childrenB = childrenB;
+        this.originals = originals;
+
+        int nodeCount = rank.length;
+        this.upOffsets = new int[nodeCount + 1];
+        this.upTargets = new int[edgeCount];
+        this.upWeights = new double[edgeCount];
+        this.upEdges = new int[edgeCount];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            upOffsets[lower(edge) + 1]++;
+        }
+        for (int node = 0; node < nodeCount; node++) {
+            upOffsets[node + 1] += upOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(upOffsets, nodeCount);
+        for (int edge = 0; edge < edgeCount; edge++) {
+            int slot = fill[lower(edge)]++;
+            upTargets[slot] = rank[edgeA[edge]] < rank[edgeB[edge]] ? edgeB[edge] : edgeA[edge];
+            upWeights[slot] = weights[edge];
+            upEdges[slot] = edge;
+        }
+    }
+
+    private ContractionHierarchy(ContractionHierarchy hierarchy, SubwayGraph graph) {
+        this.graph = graph;
+        this.transferPenalty = hierarchy.transferPenalty;
+        this.rank = hierarchy.rank;
+        this.edgeCount = hierarchy.edgeCount;
+        this.edgeA = hierarchy.edgeA;
+        this.edgeB = hierarchy.edgeB;
+        this.weights = hierarchy.weights;
+        this.middles = hierarchy.middles;
+        this.childrenA = hierarchy.childrenA;
+        this.childrenB = hierarchy.childrenB;
+        this.originals = hierarchy.originals;
+        this.upOffsets = hierarchy.upOffsets;
+        this.upTargets = hierarchy.upTargets;
+        this.upWeights = hierarchy.upWeights;
+        this.upEdges = hierarchy.upEdges;
+    }
+
+    // The same hierarchy on a later graph with exactly the same edges and
+    // states, which is the case when only stations without connections were
+    // added or removed since.
+    ContractionHierarchy withGraph(SubwayGraph graph) {
+        return new ContractionHierarchy(this, graph);
+    }
+
+    private int lower(int edge) {
+        return rank[edgeA[edge]] < rank[edgeB[edge]] ? edgeA[edge] : edgeB[edge];
+    }
+
+    public static ContractionHierarchy build(SubwayGraph graph, double transferPenalty) {
+        if (!(transferPenalty >= 0)) {
+            throw new IllegalArgumentException("Invalid transfer penalty " + transferPenalty);
+        }
+        return new ContractionHierarchyBuilder(graph, transferPenalty).build();
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public double getTransferPenalty() {
+        return transferPenalty;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getShortcutCount() {
+        int shortcuts = 0;
+        for (int edge = 0; edge < edgeCount; edge++) {
+            if (middles[edge] >= 0) {
+                shortcuts++;
+            }
+        }
+        return shortcuts;
+    }
+
+    public Route getRoute(String startStationName, String endStationName) {
+        int start = graph.getStationId(startStationName);
+        int end = graph.getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return query(start, end);
+    }
+
+    public Route query(int start, int end) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        DijkstraLabels forward = workspace.forward;
+        DijkstraLabels backward = workspace.backward;
+        forward.reset();
+        backward.reset();
+        if (start == end) {
+            return new Route(new LinkedList<Connection>(), 0);
+        }
+        for (int state = graph.stateOffsets[start]; state < graph.stateOffsets[start + 1]; state++) {
+            forward.offer(state, 0, -1, -1);
+        }
+        for (int state = graph.stateOffsets[end]; state < graph.stateOffsets[end + 1]; state++) {
+            backward.offer(state, 0, -1, -1);
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (true) {
+            boolean forwardOpen = !forward.isEmpty() && forward.peekKey() < best;
+            boolean backwardOpen = !backward.isEmpty() && backward.peekKey() < best;
+            if (!forwardOpen && !backwardOpen) {
+                break;
+            }
+            boolean forwardStep = forwardOpen && (!backwardOpen || forward.peekKey() <= backward.peekKey());
+            DijkstraLabels side = forwardStep ? forward : backward;
+            DijkstraLabels other = forwardStep ? backward : forward;
+            int node = side.poll();
+            double cost = side.distance[node];
+            if (other.isReached(node) && cost + other.distance[node] < best) {
+                best = cost + other.distance[node];
+                meeting = node;
+            }
+            for (int i = upOffsets[node]; i < upOffsets[node + 1]; i++) {
+                side.offer(upTargets[i], cost + upWeights[i], node, upEdges[i]);
+            }
+        }
+
+        int settled = forward.settledCount + backward.settledCount;
+        if (meeting < 0) {
+            return new Route(new LinkedList<Connection>(), 0, settled);
+        }
+        int hops = 0;
+        for (int node = meeting; forward.parentState[node] >= 0; node = forward.parentState[node]) {
+            hops++;
+        }
+        int[] chain = new int[hops];
+        for (int node = meeting, i = hops - 1; i >= 0; node = forward.parentState[node], i--) {
+            chain[i] = node;
+        }
+        LinkedList<Connection> route = new LinkedList<>();
+        for (int i = 0; i < hops; i++) {
+            unpack(forward.parentEdge[chain[i]], forward.parentState[chain[i]], route);
+        }
+        for (int node = meeting; backward.parentState[node] >= 0; node = backward.parentState[node]) {
+            unpack(backward.parentEdge[node], node, route);
+        }
+        return new Route(route, best, settled);
+    }
+
+    // Appends the Connections of hierarchy edge traversed away from node from.
+    // Shortcuts are expanded with an explicit stack so deep hierarchies cannot
+    // overflow the call stack.
+    private void unpack(int edge, int from, List<Connection> route) {
+        int[] edges = new int[16];
+        int[] starts = new int[16];
+        int top = 0;
+        edges[top] = edge;
+        starts[top] = from;
+        top++;
+        while (top > 0) {
+            top--;
+            int current = edges[top];
+            int start = starts[top];
+            int middle = middles[current];
+            if (middle < 0) {
+                int original = originals[current];
+                if (original >= 0) {
+                    route.add(graph.getConnection(start == edgeA[current] ? original : graph.getReverseEdge(original)));
+                }
+                continue;
+            }
+            if (top + 2 > edges.length) {
+                edges = Arrays.copyOf(edges, edges.length * 2);
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            boolean fromA = start == edgeA[current];
+            int first = fromA ? childrenA[current] : childrenB[current];
+            int second = fromA ? childrenB[current] : childrenA[current];
+            edges[top] = second;
+            starts[top] = middle;
+            top++;
+            edges[top] = first;
+            starts[top] = start;
+            top++;
+        }
+    }
+
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(graph.getFingerprint());
+            out.writeDouble(transferPenalty);
+            out.writeInt(rank.length);
+            for (int node = 0; node < rank.length; node++) {
+                out.writeInt(rank[node]);
+            }
+            out.writeInt(edgeCount);
+            for (int edge = 0; edge < edgeCount; edge++) {
+                out.writeInt(edgeA[edge]);
+                out.writeInt(edgeB[edge]);
+                out.writeDouble(weights[edge]);
+                out.writeInt(middles[edge]);
+                out.writeInt(childrenA[edge]);
+                out.writeInt(childrenB[edge]);
+                out.writeInt(originals[edge]);
+            }
+        }
+    }
+
+    public static ContractionHierarchy load(File file, SubwayGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a contraction hierarchy file: " + file);
+            }
+            if (in.readLong() != graph.getFingerprint()) {
+                throw new IOException("Contraction hierarchy " + file + " was built for a different network");
+            }
+            double transferPenalty = in.readDouble();
+            int nodeCount = in.readInt();
+            if (nodeCount != graph.getStateCount()) {
+                throw new IOException("Contraction hierarchy " + file + " was built for a different network");
+            }
+            int[] rank = new int[nodeCount];
+            for (int node = 0; node < nodeCount; node++) {
+                rank[node] = in.readInt();
+            }
+            int edgeCount = in.readInt();
+            int[] edgeA = new int[edgeCount];
+            int[] edgeB = new int[edgeCount];
+            double[] weights = new double[edgeCount];
+            int[] middles = new int[edgeCount];
+            int[] childrenA = new int[edgeCount];
+            int[] childrenB = new int[edgeCount];
+            int[] originals = new int[edgeCount];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                edgeA[edge] = in.readInt();
+                edgeB[edge] = in.readInt();
+                weights[edge] = in.readDouble();
+                middles[edge] = in.readInt();
+                childrenA[edge] = in.readInt();
+                childrenB[edge] = in.readInt();
+                originals[edge] = in.readInt();
+            }
+            return new ContractionHierarchy(graph, transferPenalty, rank, edgeCount,
+                edgeA, edgeB, weights, middles, childrenA, childrenB, originals);
+        }
+    }
+}
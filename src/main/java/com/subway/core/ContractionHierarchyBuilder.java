@@ -0,0 +1,248 @@
+package com.subway.core;
+
+import java.util.Arrays;
+
+// Contracts the station/line states of a SubwayGraph one at a time, cheapest
+// first by edge difference, contracted neighbours and depth, adding a shortcut
+// between two neighbours whenever the path through the contracted state is
+// the only shortest one. The state graph is symmetric, so edges are stored
+// once, undirected, and a shortcut replaces a longer edge between the same
+// pair instead of running parallel to it.
+final class ContractionHierarchyBuilder
+{
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+
+    private final SubwayGraph graph;
+    private final double transferPenalty;
+    private final int nodeCount;
+
+    private int edgeCount;
+    private int[] edgeA = new int[16];
+    private int[] edgeB = new int[16];
+    private double[] weights = new double[16];
+    private int[] middles = new int[16];
+    private int[] childrenA = new int[16];
+    private int[] childrenB = new int[16];
+    private int[] originals = new int[16];
+
+    private final int[][] incident;
+    private final int[] degree;
+    private final boolean[] contracted;
+    private final int[] contractedNeighbours;
+    private final int[] levels;
+    private final DijkstraLabels witness = new DijkstraLabels();
+
+    private int[] neighbours = new int[16];
+    private int[] neighbourEdges = new int[16];
+    private double[] neighbourWeights = new double[16];
+    private int neighbourCount;
+
+    ContractionHierarchyBuilder(SubwayGraph graph, double transferPenalty) {
+        this.graph = graph;
+        this.transferPenalty = transferPenalty;
+        this.nodeCount = graph.getStateCount();
+        this.incident = new int[nodeCount][];
+        this.degree = new int[nodeCount];
+        this.contracted = new boolean[nodeCount];
+        this.contractedNeighbours = new int[nodeCount];
+        this.levels = new int[nodeCount];
+        witness.ensureCapacity(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            incident[node] = new int[4];
+        }
+
+        for (int state = 0; state < nodeCount; state++) {
+            for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                int e = graph.stateEdges[i];
+                int target = graph.edgeTargetStates[e];
+                if (target > state) {
+                    addEdge(state, target, graph.getTravelTime(e), -1, -1, -1, e);
+                }
+            }
+        }
+        for (int station = 0; station < graph.getStationCount(); station++) {
+            for (int a = graph.stateOffsets[station]; a < graph.stateOffsets[station + 1]; a++) {
+                for (int b = a + 1; b < graph.stateOffsets[station + 1]; b++) {
+                    addEdge(a, b, transferPenalty, -1, -1, -1, -1);
+                }
+            }
+        }
+    }
+
+    ContractionHierarchy build() {
+        int[] rank = new int[nodeCount];
+        IntMinHeap queue = new IntMinHeap();
+        queue.ensureCapacity(nodeCount);
+        for (int node = 0; node < nodeCount; node++) {
+            queue.offer(node, priority(node));
+        }
+
+        int next = 0;
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            double current = priority(node);
+            if (!queue.isEmpty() && current > queue.peekKey()) {
+                queue.offer(node, current);
+                continue;
+            }
+            contract(node, false);
+            contracted[node] = true;
+            rank[node] = next++;
+            for (int i = 0; i < neighbourCount; i++) {
+                int neighbour = neighbours[i];
+                contractedNeighbours[neighbour]++;
+                levels[neighbour] = Math.max(levels[neighbour], levels[node] + 1);
+                dropContractedEdges(neighbour);
+            }
+        }
+
+        return new ContractionHierarchy(graph, transferPenalty, rank, edgeCount,
+            Arrays.copyOf(edgeA, edgeCount), Arrays.copyOf(edgeB, edgeCount), Arrays.copyOf(weights, edgeCount),
+            Arrays.copyOf(middles, edgeCount), Arrays.copyOf(childrenA, edgeCount),
+            Arrays.copyOf(childrenB, edgeCount), Arrays.copyOf(originals, edgeCount));
+    }
+
+    private double priority(int node) {
+        int shortcuts = contract(node, true);
+        return 2 * (shortcuts - neighbourCount) + contractedNeighbours[node] + levels[node];
+    }
+
+    // Adds (or, when simulating, just counts) the shortcuts needed to remove
+    // node from the remaining graph. Leaves node's live neighbours collected.
+    private int contract(int node, boolean simulate) {
+        collectNeighbours(node);
+        int count = neighbourCount;
+        int[] nodes = Arrays.copyOf(neighbours, count);
+        int[] edges = Arrays.copyOf(neighbourEdges, count);
+        double[] lengths = Arrays.copyOf(neighbourWeights, count);
+        double longest = 0;
+        for (int i = 0; i < count; i++) {
+            longest = Math.max(longest, lengths[i]);
+        }
+
+        int shortcuts = 0;
+        for (int i = 0; i < count - 1; i++) {
+            witnessSearch(nodes[i], node, lengths[i] + longest);
+            for (int j = i + 1; j < count; j++) {
+                double viaNode = lengths[i] + lengths[j];
+                if (!witness.isReached(nodes[j]) || witness.distance[nodes[j]] > viaNode) {
+                    shortcuts++;
+                    if (!simulate) {
+                        addShortcut(nodes[i], nodes[j], viaNode, node, edges[i], edges[j]);
+                    }
+                }
+            }
+        }
+        return shortcuts;
+    }
+
+    private void collectNeighbours(int node) {
+        neighbourCount = 0;
+        for (int i = 0; i < degree[node]; i++) {
+            int edge = incident[node][i];
+            int other = edgeA[edge] == node ? edgeB[edge] : edgeA[edge];
+            if (contracted[other] || other == node) {
+                continue;
+            }
+            int slot = 0;
+            while (slot < neighbourCount && neighbours[slot] != other) {
+                slot++;
+            }
+            if (slot == neighbourCount) {
+                if (neighbourCount == neighbours.length) {
+                    neighbours = Arrays.copyOf(neighbours, neighbourCount * 2);
+                    neighbourEdges = Arrays.copyOf(neighbourEdges, neighbourCount * 2);
+                    neighbourWeights = Arrays.copyOf(neighbourWeights, neighbourCount * 2);
+                }
+                neighbours[slot] = other;
+                neighbourWeights[slot] = Double.POSITIVE_INFINITY;
+                neighbourCount++;
+            }
+            if (weights[edge] < neighbourWeights[slot]) {
+                neighbourWeights[slot] = weights[edge];
+                neighbourEdges[slot] = edge;
+            }
+        }
+    }
+
+    private void witnessSearch(int source, int excluded, double limit) {
+        witness.reset();
+        witness.offer(source, 0, -1, -1);
+        while (!witness.isEmpty() && witness.settledCount < WITNESS_SETTLE_LIMIT) {
+            if (witness.peekKey() > limit) {
+                break;
+            }
+            int node = witness.poll();
+            double cost = witness.distance[node];
+            for (int i = 0; i < degree[node]; i++) {
+                int edge = incident[node][i];
+                int other = edgeA[edge] == node ? edgeB[edge] : edgeA[edge];
+                if (other != excluded && !contracted[other]) {
+                    witness.offer(other, cost + weights[edge], node, edge);
+                }
+            }
+        }
+    }
+
+    private void addShortcut(int a, int b, double weight, int middle, int childA, int childB) {
+        for (int i = 0; i < degree[a]; i++) {
+            int edge = incident[a][i];
+            if (edgeA[edge] == b || edgeB[edge] == b) {
+                if (weight < weights[edge]) {
+                    edgeA[edge] = a;
+                    edgeB[edge] = b;
+                    weights[edge] = weight;
+                    middles[edge] = middle;
+                    childrenA[edge] = childA;
+                    childrenB[edge] = childB;
+                    originals[edge] = -1;
+                }
+                return;
+            }
+        }
+        addEdge(a, b, weight, middle, childA, childB, -1);
+    }
+
+    private void dropContractedEdges(int node) {
+        int[] edges = incident[node];
+        int kept = 0;
+        for (int i = 0; i < degree[node]; i++) {
+            int edge = edges[i];
+            int other = edgeA[edge] == node ? edgeB[edge] : edgeA[edge];
+            if (!contracted[other]) {
+                edges[kept++] = edge;
+            }
+        }
+        degree[node] = kept;
+    }
+
+    private void addEdge(int a, int b, double weight, int middle, int childA, int childB, int original) {
+        if (edgeCount == edgeA.length) {
+            int capacity = edgeCount * 2;
+            edgeA = Arrays.copyOf(edgeA, capacity);
+            edgeB = Arrays.copyOf(edgeB, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+            middles = Arrays.copyOf(middles, capacity);
+            childrenA = Arrays.copyOf(childrenA, capacity);
+            childrenB = Arrays.copyOf(childrenB, capacity);
+            originals = Arrays.copyOf(originals, capacity);
+        }
+        int edge = edgeCount++;
+        edgeA[edge] = a;
+        edgeB[edge] = b;
+        weights[edge] = weight;
+        middles[edge] = middle;
+        childrenA[edge] = childA;
+        childrenB[edge] = childB;
+        originals[edge] = original;
+        attach(a, edge);
+        attach(b, edge);
+    }
+
+    private void attach(int node, int edge) {
+        if (degree[node] == incident[node].length) {
+            incident[node] = Arrays.copyOf(incident[node], degree[node] * 2);
+        }
+        incident[node][degree[node]++] = edge;
+    }
+}
@@ -0,0 +1,18 @@
+package com.subway.core;
+
+// Read access to a network in compressed-sparse-row form: stations are
+// numbered 0..n-1 and the outgoing edges of station u are
+// getFirstEdge(u)..getEndEdge(u)-1. Implemented by the heap graph and by
+// the memory-mapped one, so both run the very same searches.
+interface CsrView
+{
+    int getStationCount();
+
+    int getFirstEdge(int station);
+
+    int getEndEdge(int station);
+
+    int getSource(int edge);
+
+    int getTarget(int edge);
+}
@@ -0,0 +1,249 @@
+package com.subway.core;
+
+import java.io.*;
+import java.util.Arrays;
+
+// A forward-only RFC 4180 reader for large CSV files such as GTFS
+// stop_times.txt. Records are decoded into one reusable char array and
+// fields are read by column index, so skipping a row or comparing, hashing
+// and parsing numbers in a field allocates nothing; only get() creates a
+// String. The first record is the header.
+final class CsvReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private char[] record = new char[256];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fieldCount;
+    private long recordNumber;
+    private final String[] header;
+
+    CsvReader(Reader in) throws IOException {
+        this.in = in;
+        if (!next()) {
+            throw new IOException("Missing CSV header");
+        }
+        if (ends[0] > starts[0] && record[starts[0]] == '\uFEFF') {
+            starts[0]++;
+        }
+        header = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            header[i] = get(i).trim();
+        }
+    }
+
+    // Index of the named header column, or -1 if the file has none.
+    int column(String name) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int requireColumn(String name) throws IOException {
+        int column = column(name);
+        if (column < 0) {
+            throw new IOException("Missing CSV column " + name);
+        }
+        return column;
+    }
+
+    // Record number of the current record, counting the header as 1.
+    long getRecordNumber() {
+        return recordNumber;
+    }
+
+    // Reads the next non-blank record; false at the end of the input.
+    boolean next() throws IOException {
+        do {
+            if (!readRecord()) {
+                return false;
+            }
+        } while (fieldCount == 1 && ends[0] == starts[0]);
+        return true;
+    }
+
+    private boolean readRecord() throws IOException {
+        int length = 0;
+        fieldCount = 0;
+        int c = read();
+        if (c < 0) {
+            return false;
+        }
+        recordNumber++;
+        while (true) {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+            }
+            starts[fieldCount] = length;
+            if (c == '"') {
+                while (true) {
+                    c = read();
+                    if (c < 0) {
+                        throw new IOException("Unterminated quoted field in CSV record " + recordNumber);
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    if (length == record.length) {
+                        record = Arrays.copyOf(record, length * 2);
+                    }
+                    record[length++] = (char) c;
+                }
+            }
+            while (c >= 0 && c != ',' && c != '\n') {
+                if (c != '\r') {
+                    if (length == record.length) {
+                        record = Arrays.copyOf(record, length * 2);
+                    }
+                    record[length++] = (char) c;
+                }
+                c = read();
+            }
+            ends[fieldCount++] = length;
+            if (c != ',') {
+                return true;
+            }
+            c = read();
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    boolean isEmpty(int column) {
+        return column < 0 || column >= fieldCount || ends[column] == starts[column];
+    }
+
+    String get(int column) {
+        if (isEmpty(column)) {
+            return "";
+        }
+        return new String(record, starts[column], ends[column] - starts[column]);
+    }
+
+    boolean equals(int column, String value) {
+        if (column < 0 || column >= fieldCount) {
+            return value.isEmpty();
+        }
+        int start = starts[column];
+        int length = ends[column] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (record[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Same value as get(column).hashCode().
+    int hash(int column) {
+        int hash = 0;
+        if (!isEmpty(column)) {
+            for (int i = starts[column]; i < ends[column]; i++) {
+                hash = 31 * hash + record[i];
+            }
+        }
+        return hash;
+    }
+
+    int getInt(int column) throws IOException {
+        if (isEmpty(column)) {
+            throw new IOException("Missing number in CSV record " + recordNumber);
+        }
+        int i = starts[column];
+        int end = ends[column];
+        boolean negative = record[i] == '-';
+        if (negative || record[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            throw new IOException("Invalid number in CSV record " + recordNumber + ": " + get(column));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            char c = record[i];
+            if (c < '0' || c > '9' || (value = value * 10 + (c - '0')) > Integer.MAX_VALUE) {
+                throw new IOException("Invalid number in CSV record " + recordNumber + ": " + get(column));
+            }
+        }
+        return (int) (negative ? -value : value);
+    }
+
+    double getDouble(int column) throws IOException {
+        try {
+            return Double.parseDouble(get(column).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number in CSV record " + recordNumber + ": " + get(column));
+        }
+    }
+
+    // A GTFS time of day, "H:MM:SS" or "HH:MM:SS" (hours may pass 24), in
+    // seconds after midnight; -1 if the field is empty.
+    int getSeconds(int column) throws IOException {
+        if (isEmpty(column)) {
+            return -1;
+        }
+        int seconds = 0;
+        int part = 0;
+        int parts = 1;
+        int digits = 0;
+        int start = starts[column];
+        int end = ends[column];
+        while (start < end && record[start] == ' ') {
+            start++;
+        }
+        while (end > start && record[end - 1] == ' ') {
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            char c = record[i];
+            if (c == ':' && parts < 3 && digits > 0 && (parts == 1 || part < 60)) {
+                seconds = seconds * 60 + part;
+                part = 0;
+                digits = 0;
+                parts++;
+            } else if (c >= '0' && c <= '9' && digits < (parts == 1 ? 3 : 2)) {
+                part = part * 10 + (c - '0');
+                digits++;
+            } else {
+                throw new IOException("Invalid time in CSV record " + recordNumber + ": " + get(column));
+            }
+        }
+        if (parts != 3 || digits != 2 || part >= 60) {
+            throw new IOException("Invalid time in CSV record " + recordNumber + ": " + get(column));
+        }
+        return seconds * 60 + part;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,84 @@
+package com.subway.core;
+
+import java.util.Arrays;
+
+// Tentative distances and parent pointers for one direction of a weighted
+// search over SubwayGraph states. Labels are invalidated by bumping a
+// generation counter instead of clearing the arrays between queries.
+final class DijkstraLabels
+{
+    final IntMinHeap heap = new IntMinHeap();
+    double[] distance = new double[0];
+    int[] parentState = new int[0];
+    int[] parentEdge = new int[0];
+    private int[] reached = new int[0];
+    private int[] settled = new int[0];
+    private int generation;
+    int settledCount;
+
+    void ensureCapacity(int stateCount) {
+        if (distance.length < stateCount) {
+            distance = new double[stateCount];
+            parentState = new int[stateCount];
+            parentEdge = new int[stateCount];
+            reached = new int[stateCount];
+            settled = new int[stateCount];
+            generation = 0;
+        }
+        heap.ensureCapacity(stateCount);
+    }
+
+    void reset() {
+        heap.clear();
+        settledCount = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+
+    boolean isReached(int state) {
+        return reached[state] == generation;
+    }
+
+    boolean isSettled(int state) {
+        return settled[state] == generation;
+    }
+
+    boolean offer(int state, double cost, int fromState, int viaEdge) {
+        return offer(state, cost, cost, fromState, viaEdge);
+    }
+
+    // Records cost as the state's tentative distance and queues it by priority,
+    // which differs from cost only for goal-directed searches.
+    boolean offer(int state, double cost, double priority, int fromState, int viaEdge) {
+        if (settled[state] == generation) {
+            return false;
+        }
+        if (reached[state] != generation || cost < distance[state]) {
+            reached[state] = generation;
+            distance[state] = cost;
+            parentState[state] = fromState;
+            parentEdge[state] = viaEdge;
+            heap.offer(state, priority);
+            return true;
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    double peekKey() {
+        return heap.peekKey();
+    }
+
+    int poll() {
+        int state = heap.poll();
+        settled[state] = generation;
+        settledCount++;
+        return state;
+    }
+}
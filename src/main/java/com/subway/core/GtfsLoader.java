@@ -0,0 +1,604 @@
+package com.subway.core;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+// Builds a Subway from a GTFS feed, either a directory or a .zip, reading
+// stops.txt, routes.txt, trips.txt and stop_times.txt.
+//
+// Stops become stations named by stop_name at (stop_lon, stop_lat); a stop
+// with a parent_station is folded into its parent, and stops sharing a name
+// share a station. Each route is a line named by route_short_name (or
+// route_long_name, or route_id). Every pair of consecutive stops on a trip
+// becomes one connection on the trip's line, added once however many trips
+// run it, with the shortest scheduled time between the two stops in
+// minutes.
+//
+// stop_times.txt is streamed: only the stops of the current trip are kept,
+// so peak heap depends on the number of stops, trips and distinct segments,
+// not on the size of the file. The rows of a trip must be listed together,
+// as they are in practically every published feed. With the timetable
+// enabled, every run of every trip is also kept for timetable routing (see
+// Subway.getTimetable()), which does grow with the file. In parallel mode
+// stops.txt is read on the pool while routes.txt and trips.txt are read on
+// the calling thread.
+public class GtfsLoader
+{
+    // Segment keys pack two station ids and a line into a long.
+    private static final int MAX_STATIONS = 1 << 22;
+    private static final int MAX_LINES = 1 << 20;
+
+    private Charset charset;
+    private LoadStats lastLoadStats;
+    private ForkJoinPool pool;
+    private boolean timetableEnabled;
+
+    public GtfsLoader() {
+        this(StandardCharsets.UTF_8);
+    }
+
+    public GtfsLoader(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Subway loadFromFeed(File feed) throws IOException {
+        Subway subway = new Subway();
+        load(subway, feed);
+        return subway;
+    }
+
+    public SubwaySnapshot loadSnapshot(File feed) throws IOException {
+        return loadFromFeed(feed).snapshot();
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    public void setParallel(boolean parallel) {
+        setParallel(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    // Reads stops.txt on the given pool; null reads every file in turn.
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public boolean isTimetableEnabled() {
+        return timetableEnabled;
+    }
+
+    public void setTimetableEnabled(boolean enabled) {
+        this.timetableEnabled = enabled;
+    }
+
+    // Time and size of the most recent load, or null before the first one.
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    private void load(Subway subway, File file) throws IOException {
+        long start = System.nanoTime();
+        try (Feed feed = new Feed(file, charset)) {
+            Stops stops;
+            List<String> lineNames = new ArrayList<>();
+            IdTable trips;
+            int[] tripLines;
+            if (pool != null) {
+                Future<Stops> pending = pool.submit(() -> readStops(feed));
+                try {
+                    IdTable routeLines = readRoutes(feed, lineNames);
+                    trips = new IdTable();
+                    tripLines = readTrips(feed, routeLines, trips);
+                } finally {
+                    stops = await(pending);
+                }
+            }
+            else
+            {
+                stops = readStops(feed);
+                IdTable routeLines = readRoutes(feed, lineNames);
+                trips = new IdTable();
+                tripLines = readTrips(feed, routeLines, trips);
+            }
+            Timetable.Builder timetable = timetableEnabled ? new Timetable.Builder() : null;
+            int[] stationOf = stops.addTo(subway, timetable);
+            Segments segments = readStopTimes(feed, stops.ids, stationOf, trips, tripLines, lineNames, timetable);
+            segments.addTo(subway, lineNames);
+            if (timetable != null) {
+                subway.setTimetable(timetable.build());
+            }
+            lastLoadStats = new LoadStats(subway.getGraph().getStationCount(), lineNames.size(), segments.size,
+                feed.byteCount, System.nanoTime() - start);
+        }
+    }
+
+    private static Stops await(Future<Stops> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading stops.txt");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Stops readStops(Feed feed) throws IOException {
+        Stops stops = new Stops();
+        try (CsvReader csv = feed.open("stops.txt")) {
+            int idColumn = csv.requireColumn("stop_id");
+            int nameColumn = csv.requireColumn("stop_name");
+            int latColumn = csv.column("stop_lat");
+            int lonColumn = csv.column("stop_lon");
+            int parentColumn = csv.column("parent_station");
+            while (csv.next()) {
+                String id = csv.get(idColumn);
+                if (id.isEmpty() || stops.ids.put(id, stops.names.size()) >= 0) {
+                    throw new IOException("Invalid or duplicate stop_id in stops.txt record " + csv.getRecordNumber());
+                }
+                String name = csv.get(nameColumn).trim();
+                stops.names.add(name.isEmpty() ? id : name);
+                stops.parents.add(csv.isEmpty(parentColumn) ? null : csv.get(parentColumn));
+                boolean located = !csv.isEmpty(latColumn) && !csv.isEmpty(lonColumn);
+                stops.add(located ? csv.getDouble(lonColumn) : Double.NaN, located ? csv.getDouble(latColumn) : Double.NaN);
+            }
+        }
+        return stops;
+    }
+
+    private static IdTable readRoutes(Feed feed, List<String> lineNames) throws IOException {
+        IdTable routeLines = new IdTable();
+        Map<String, Integer> lines = new HashMap<>();
+        try (CsvReader csv = feed.open("routes.txt")) {
+            int idColumn = csv.requireColumn("route_id");
+            int shortNameColumn = csv.column("route_short_name");
+            int longNameColumn = csv.column("route_long_name");
+            while (csv.next()) {
+                String id = csv.get(idColumn);
+                String name = csv.get(shortNameColumn).trim();
+                if (name.isEmpty()) {
+                    name = csv.get(longNameColumn).trim();
+                }
+                if (name.isEmpty()) {
+                    name = id;
+                }
+                Integer line = lines.get(name);
+                if (line == null) {
+                    if (lineNames.size() == MAX_LINES) {
+                        throw new IOException("Too many lines in GTFS feed");
+                    }
+                    line = lineNames.size();
+                    lines.put(name, line);
+                    lineNames.add(name);
+                }
+                if (id.isEmpty() || routeLines.put(id, line) >= 0) {
+                    throw new IOException("Invalid or duplicate route_id in routes.txt record " + csv.getRecordNumber());
+                }
+            }
+        }
+        return routeLines;
+    }
+
+    // Fills trips with trip_id to trip number and returns each trip's line.
+    private static int[] readTrips(Feed feed, IdTable routeLines, IdTable trips) throws IOException {
+        int[] tripLines = new int[64];
+        try (CsvReader csv = feed.open("trips.txt")) {
+            int idColumn = csv.requireColumn("trip_id");
+            int routeColumn = csv.requireColumn("route_id");
+            while (csv.next()) {
+                int line = routeLines.get(csv, routeColumn);
+                if (line < 0) {
+                    throw new IOException("Unknown route_id in trips.txt record " + csv.getRecordNumber() + ": " + csv.get(routeColumn));
+                }
+                int trip = trips.size;
+                if (csv.isEmpty(idColumn) || trips.put(csv.get(idColumn), trip) >= 0) {
+                    throw new IOException("Invalid or duplicate trip_id in trips.txt record " + csv.getRecordNumber());
+                }
+                if (trip == tripLines.length) {
+                    tripLines = Arrays.copyOf(tripLines, trip * 2);
+                }
+                tripLines[trip] = line;
+            }
+        }
+        return tripLines;
+    }
+
+    private static Segments readStopTimes(Feed feed, IdTable stops, int[] stationOf, IdTable trips, int[] tripLines,
+            List<String> lineNames, Timetable.Builder timetable) throws IOException {
+        Segments segments = new Segments();
+        Trip trip = new Trip(lineNames, timetable);
+        BitSet seen = new BitSet(trips.size);
+        String tripId = null;
+        try (CsvReader csv = feed.open("stop_times.txt")) {
+            int tripColumn = csv.requireColumn("trip_id");
+            int stopColumn = csv.requireColumn("stop_id");
+            int sequenceColumn = csv.requireColumn("stop_sequence");
+            int arrivalColumn = csv.column("arrival_time");
+            int departureColumn = csv.column("departure_time");
+            while (csv.next()) {
+                if (tripId == null || !csv.equals(tripColumn, tripId)) {
+                    trip.addTo(segments);
+                    tripId = csv.get(tripColumn);
+                    int number = trips.get(csv, tripColumn);
+                    if (number < 0) {
+                        throw new IOException("Unknown trip_id in stop_times.txt record " + csv.getRecordNumber() + ": " + tripId);
+                    }
+                    if (seen.get(number)) {
+                        throw new IOException("Stops of trip " + tripId + " are not listed together in stop_times.txt (record "
+                            + csv.getRecordNumber() + ")");
+                    }
+                    seen.set(number);
+                    trip.start(tripId, tripLines[number]);
+                }
+                int stop = stops.get(csv, stopColumn);
+                if (stop < 0) {
+                    throw new IOException("Unknown stop_id in stop_times.txt record " + csv.getRecordNumber() + ": " + csv.get(stopColumn));
+                }
+                trip.add(csv.getInt(sequenceColumn), stationOf[stop], csv.getSeconds(arrivalColumn), csv.getSeconds(departureColumn));
+            }
+            trip.addTo(segments);
+        }
+        return segments;
+    }
+
+    // The files of a feed directory or zip archive.
+    private static final class Feed implements Closeable
+    {
+        private final File file;
+        private final Charset charset;
+        private final ZipFile zip;
+        private long byteCount;
+
+        Feed(File file, Charset charset) throws IOException {
+            this.file = file;
+            this.charset = charset;
+            this.zip = file.isDirectory() ? null : new ZipFile(file);
+        }
+
+        CsvReader open(String name) throws IOException {
+            Reader reader;
+            if (zip == null) {
+                File entry = new File(file, name);
+                if (!entry.isFile()) {
+                    throw new FileNotFoundException("Missing " + name + " in GTFS feed " + file);
+                }
+                reader = Files.newBufferedReader(entry.toPath(), charset);
+                addBytes(entry.length());
+            }
+            else
+            {
+                ZipEntry entry = zip.getEntry(name);
+                if (entry == null) {
+                    throw new FileNotFoundException("Missing " + name + " in GTFS feed " + file);
+                }
+                reader = new InputStreamReader(zip.getInputStream(entry), charset);
+                addBytes(Math.max(0, entry.getSize()));
+            }
+            try {
+                return new CsvReader(reader);
+            } catch (IOException e) {
+                reader.close();
+                throw new IOException(e.getMessage() + " in " + name, e);
+            }
+        }
+
+        private synchronized void addBytes(long bytes) {
+            byteCount += bytes;
+        }
+
+        public void close() throws IOException {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+    }
+
+    // String ids to ints in an open-addressing table that can be probed with
+    // a CSV field directly, so looking up a stop or trip per stop_times row
+    // creates no String.
+    private static final class IdTable
+    {
+        private String[] keys = new String[64];
+        private int[] values = new int[64];
+        private int size;
+
+        // Returns the previous value, or -1 if the id is new.
+        int put(String key, int value) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            int slot = slotOf(key.hashCode(), keys.length);
+            while (keys[slot] != null) {
+                if (keys[slot].equals(key)) {
+                    int previous = values[slot];
+                    values[slot] = value;
+                    return previous;
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+            return -1;
+        }
+
+        int get(CsvReader csv, int column) {
+            int slot = slotOf(csv.hash(column), keys.length);
+            while (keys[slot] != null) {
+                if (csv.equals(column, keys[slot])) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        int get(String key) {
+            int slot = slotOf(key.hashCode(), keys.length);
+            while (keys[slot] != null) {
+                if (keys[slot].equals(key)) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & (keys.length - 1);
+            }
+            return -1;
+        }
+
+        private void grow() {
+            String[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new String[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int slotOf(int hash, int slotCount) {
+            return (hash ^ (hash >>> 16)) & (slotCount - 1);
+        }
+    }
+
+    private static final class Stops
+    {
+        private final IdTable ids = new IdTable();
+        private final List<String> names = new ArrayList<>();
+        private final List<String> parents = new ArrayList<>();
+        private double[] coordinates = new double[128];
+
+        void add(double x, double y) {
+            int stop = names.size() - 1;
+            if (2 * stop + 1 >= coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            }
+            coordinates[2 * stop] = x;
+            coordinates[2 * stop + 1] = y;
+        }
+
+        // Adds a station for every stop without a parent, in file order, and
+        // returns the station of each stop.
+        int[] addTo(Subway subway, Timetable.Builder timetable) throws IOException {
+            int count = names.size();
+            if (count > MAX_STATIONS) {
+                throw new IOException("Too many stops in GTFS feed");
+            }
+            int[] stationOf = new int[count];
+            for (int stop = 0; stop < count; stop++) {
+                if (parents.get(stop) == null) {
+                    Station station = new Station(names.get(stop), coordinates[2 * stop], coordinates[2 * stop + 1]);
+                    stationOf[stop] = subway.addStation(station);
+                    // Both merge stations by name, so ids stay in step.
+                    if (timetable != null) {
+                        timetable.addStation(station);
+                    }
+                } else {
+                    stationOf[stop] = -1;
+                }
+            }
+            for (int stop = 0; stop < count; stop++) {
+                // Boarding areas sit under platforms, which sit under
+                // stations, so follow the chain to its root.
+                int root = stop;
+                for (int depth = 0; stationOf[root] < 0; depth++) {
+                    root = ids.get(parents.get(root));
+                    if (root < 0 || depth == count) {
+                        throw new IOException("Unknown or circular parent_station for stop " + names.get(stop));
+                    }
+                }
+                stationOf[stop] = stationOf[root];
+            }
+            return stationOf;
+        }
+    }
+
+    // The stops of the trip being read, put in stop_sequence order when the
+    // trip ends.
+    private static final class Trip
+    {
+        private final List<String> lineNames;
+        private final Timetable.Builder timetable;
+        private String id;
+        private int line;
+        private int size;
+        private int[] sequences = new int[64];
+        private int[] stations = new int[64];
+        private int[] arrivals = new int[64];
+        private int[] departures = new int[64];
+        private int[] arriveAt = new int[64];
+        private int[] leaveAt = new int[64];
+
+        Trip(List<String> lineNames, Timetable.Builder timetable) {
+            this.lineNames = lineNames;
+            this.timetable = timetable;
+        }
+
+        void start(String id, int line) {
+            this.id = id;
+            this.line = line;
+            this.size = 0;
+        }
+
+        void add(int sequence, int station, int arrival, int departure) {
+            if (size == sequences.length) {
+                sequences = Arrays.copyOf(sequences, size * 2);
+                stations = Arrays.copyOf(stations, size * 2);
+                arrivals = Arrays.copyOf(arrivals, size * 2);
+                departures = Arrays.copyOf(departures, size * 2);
+                arriveAt = Arrays.copyOf(arriveAt, size * 2);
+                leaveAt = Arrays.copyOf(leaveAt, size * 2);
+            }
+            int i = size++;
+            // Rows are nearly always in order already, so this rarely moves.
+            while (i > 0 && sequences[i - 1] > sequence) {
+                sequences[i] = sequences[i - 1];
+                stations[i] = stations[i - 1];
+                arrivals[i] = arrivals[i - 1];
+                departures[i] = departures[i - 1];
+                i--;
+            }
+            sequences[i] = sequence;
+            stations[i] = station;
+            arrivals[i] = arrival;
+            departures[i] = departure;
+        }
+
+        void addTo(Segments segments) throws IOException {
+            for (int i = 1; i < size; i++) {
+                if (stations[i - 1] == stations[i]) {
+                    continue;
+                }
+                int leave = departures[i - 1] >= 0 ? departures[i - 1] : arrivals[i - 1];
+                int arrive = arrivals[i] >= 0 ? arrivals[i] : departures[i];
+                double minutes = Double.NaN;
+                if (leave >= 0 && arrive >= 0) {
+                    if (arrive < leave) {
+                        throw new IOException("Trip " + id + " arrives at stop_sequence " + sequences[i] + " before it leaves the previous stop");
+                    }
+                    minutes = (arrive - leave) / 60.0;
+                }
+                segments.add(stations[i - 1], stations[i], line, minutes);
+            }
+            if (timetable != null && size > 0) {
+                addTo(timetable);
+            }
+            size = 0;
+        }
+
+        // Timetable runs need a time at every stop, so stops without one get
+        // times interpolated between the timed stops around them; runs before
+        // the first or after the last timed stop are left out. Connection
+        // times above only use the times given in the feed.
+        private void addTo(Timetable.Builder timetable) throws IOException {
+            int previous = -1;
+            for (int i = 0; i < size; i++) {
+                arriveAt[i] = arrivals[i] >= 0 ? arrivals[i] : departures[i];
+                leaveAt[i] = departures[i] >= 0 ? departures[i] : arrivals[i];
+                if (arriveAt[i] >= 0) {
+                    for (int j = previous + 1; previous >= 0 && j < i; j++) {
+                        arriveAt[j] = leaveAt[j] = leaveAt[previous] + (int) ((long) (arriveAt[i] - leaveAt[previous]) * (j - previous) / (i - previous));
+                    }
+                    previous = i;
+                }
+            }
+            int trip = timetable.addTrip(id, lineNames.get(line));
+            try {
+                for (int i = 1; i < size; i++) {
+                    if (stations[i - 1] != stations[i] && leaveAt[i - 1] >= 0 && arriveAt[i] >= 0) {
+                        timetable.addConnection(trip, stations[i - 1], stations[i], leaveAt[i - 1], arriveAt[i]);
+                    }
+                }
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    // Distinct (station, station, line) segments in the order first seen,
+    // keyed without regard to direction, with their shortest known time.
+    private static final class Segments
+    {
+        private long[] keys = new long[1024];
+        private int[] slots = new int[1024];
+        private int[] from = new int[512];
+        private int[] to = new int[512];
+        private int[] lines = new int[512];
+        private double[] minutes = new double[512];
+        private int size;
+
+        void add(int station1, int station2, int line, double time) {
+            long key = ((long) Math.min(station1, station2) << 42) | ((long) Math.max(station1, station2) << 20) | line;
+            int slot = slotOf(key, slots.length);
+            while (slots[slot] != 0) {
+                if (keys[slot] == key) {
+                    int segment = slots[slot] - 1;
+                    if (!Double.isNaN(time) && !(minutes[segment] <= time)) {
+                        minutes[segment] = time;
+                    }
+                    return;
+                }
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                lines = Arrays.copyOf(lines, size * 2);
+                minutes = Arrays.copyOf(minutes, size * 2);
+            }
+            from[size] = station1;
+            to[size] = station2;
+            lines[size] = line;
+            minutes[size] = time;
+            keys[slot] = key;
+            slots[slot] = ++size;
+            if (2 * size > slots.length) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldSlots = slots;
+            keys = new long[oldKeys.length * 2];
+            slots = new int[oldSlots.length * 2];
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != 0) {
+                    int slot = slotOf(oldKeys[i], slots.length);
+                    while (slots[slot] != 0) {
+                        slot = (slot + 1) & (slots.length - 1);
+                    }
+                    keys[slot] = oldKeys[i];
+                    slots[slot] = oldSlots[i];
+                }
+            }
+        }
+
+        private static int slotOf(long key, int slotCount) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 40) & (slotCount - 1);
+        }
+
+        // Segments no trip gave a time for get the default travel time.
+        void addTo(Subway subway, List<String> lineNames) {
+            for (int i = 0; i < size; i++) {
+                subway.loadConnection(from[i], to[i], lineNames.get(lines[i]),
+                    Double.isNaN(minutes[i]) ? Connection.DEFAULT_TRAVEL_TIME : minutes[i]);
+            }
+            subway.connectionsLoaded();
+        }
+    }
+}
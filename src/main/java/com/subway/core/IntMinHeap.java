@@ -0,0 +1,102 @@
+package com.subway.core;
+
+// Indexed binary min-heap over int ids with double keys. offer() inserts an id
+// or lowers its key in place, so a search never holds stale duplicates. Keys
+// live next to the ids in heap order to keep sifting cache friendly.
+final class IntMinHeap
+{
+    private int[] heap = new int[0];
+    private double[] keys = new double[0];
+    private int[] position = new int[0];
+    private int size;
+
+    void ensureCapacity(int idCount) {
+        if (position.length < idCount) {
+            heap = new int[idCount];
+            keys = new double[idCount];
+            position = new int[idCount];
+            size = 0;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    double peekKey() {
+        return keys[0];
+    }
+
+    void offer(int id, double key) {
+        int index = position[id] - 1;
+        if (index < 0) {
+            index = size++;
+        } else if (key >= keys[index]) {
+            return;
+        }
+        siftUp(index, id, key);
+    }
+
+    int poll() {
+        int top = heap[0];
+        position[top] = 0;
+        size--;
+        if (size > 0) {
+            siftDown(heap[size], keys[size]);
+        }
+        return top;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int index, int id, double key) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (keys[parent] <= key) {
+                break;
+            }
+            move(parent, index);
+            index = parent;
+        }
+        place(index, id, key);
+    }
+
+    private void siftDown(int id, double key) {
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && keys[right] < keys[child]) {
+                child = right;
+            }
+            if (key <= keys[child]) {
+                break;
+            }
+            move(child, index);
+            index = child;
+        }
+        place(index, id, key);
+    }
+
+    private void move(int from, int to) {
+        heap[to] = heap[from];
+        keys[to] = keys[from];
+        position[heap[to]] = to + 1;
+    }
+
+    private void place(int index, int id, double key) {
+        heap[index] = id;
+        keys[index] = key;
+        position[id] = index + 1;
+    }
+}
@@ -0,0 +1,196 @@
+package com.subway.core;
+
+import java.util.*;
+
+// The stations reachable from one origin within a limit, nearest first, with
+// their distance from it: in stops for a hop limit, and in RoutingMode.DIJKSTRA
+// cost (travel time plus the transfer penalty per change of line) for a time
+// limit. The origin itself comes first, at distance 0.
+//
+// Searches stop expanding at the limit and run in the calling thread's
+// SearchWorkspace, so they touch only what is within reach. The fill methods
+// write the reachable set into a caller's BitSet instead, which for large
+// networks avoids building a result at all.
+public final class Isochrone
+{
+    private final SubwayGraph graph;
+    private final int[] stations;
+    private final double[] distances;
+
+    private Isochrone(SubwayGraph graph, int[] stations, double[] distances) {
+        this.graph = graph;
+        this.stations = stations;
+        this.distances = distances;
+    }
+
+    static Isochrone withinHops(SubwayGraph graph, int origin, int maxHops) {
+        SearchWorkspace workspace = SearchWorkspace.forStations(graph.getStationCount());
+        int count = exploreHops(graph, origin, maxHops, workspace);
+        int[] stations = Arrays.copyOf(workspace.queue, count);
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = workspace.parentEdge[stations[i]];
+        }
+        return new Isochrone(graph, stations, distances);
+    }
+
+    static Isochrone withinMinutes(SubwayGraph graph, int origin, double maxMinutes, double transferPenalty) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        int count = exploreMinutes(graph, origin, maxMinutes, transferPenalty, workspace);
+        int[] stations = new int[count];
+        double[] distances = new double[count];
+        stations[0] = origin;
+        for (int i = 1; i < count; i++) {
+            int state = workspace.queue[i];
+            stations[i] = graph.stateStations[state];
+            distances[i] = workspace.forward.distance[state];
+        }
+        return new Isochrone(graph, stations, distances);
+    }
+
+    static BitSet fillWithinHops(SubwayGraph graph, int origin, int maxHops, BitSet reachable) {
+        SearchWorkspace workspace = SearchWorkspace.forStations(graph.getStationCount());
+        int count = exploreHops(graph, origin, maxHops, workspace);
+        return fill(reachable, workspace, count, origin, null);
+    }
+
+    static BitSet fillWithinMinutes(SubwayGraph graph, int origin, double maxMinutes, double transferPenalty,
+            BitSet reachable) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        int count = exploreMinutes(graph, origin, maxMinutes, transferPenalty, workspace);
+        return fill(reachable, workspace, count, origin, graph.stateStations);
+    }
+
+    // Null allocates a new set; a given one is cleared first.
+    private static BitSet fill(BitSet reachable, SearchWorkspace workspace, int count, int origin, int[] stateStations) {
+        if (reachable == null) {
+            reachable = new BitSet();
+        } else {
+            reachable.clear();
+        }
+        reachable.set(origin);
+        for (int i = 1; i < count; i++) {
+            reachable.set(stateStations == null ? workspace.queue[i] : stateStations[workspace.queue[i]]);
+        }
+        return reachable;
+    }
+
+    // BFS one layer of stops at a time. Leaves the reached stations in
+    // workspace.queue, in order, and returns how many there are. No route is
+    // wanted, so workspace.parentEdge holds each station's hop count instead.
+    private static int exploreHops(SubwayGraph graph, int origin, int maxHops, SearchWorkspace workspace) {
+        if (maxHops < 0) {
+            throw new IllegalArgumentException("Hop limit must not be negative: " + maxHops);
+        }
+        int[] queue = workspace.queue;
+        int head = 0;
+        int tail = 0;
+        workspace.clearVisited(graph.getStationCount());
+        workspace.markVisited(origin);
+        workspace.parentEdge[origin] = 0;
+        queue[tail++] = origin;
+        for (int hop = 1; hop <= maxHops && head < tail; hop++) {
+            int layerEnd = tail;
+            while (head < layerEnd) {
+                int u = queue[head++];
+                for (int e = graph.getFirstEdge(u); e < graph.getEndEdge(u); e++) {
+                    int v = graph.getTarget(e);
+                    if (!workspace.isVisited(v)) {
+                        workspace.markVisited(v);
+                        workspace.parentEdge[v] = hop;
+                        queue[tail++] = v;
+                    }
+                }
+            }
+        }
+        workspace.expanded = head;
+        return tail;
+    }
+
+    // Dijkstra over station/line states that offers nothing beyond the limit.
+    // Leaves the state each station was first settled in in workspace.queue,
+    // in order after the origin's slot, and returns how many stations there
+    // are. The origin may have no states at all when no line serves it.
+    private static int exploreMinutes(SubwayGraph graph, int origin, double maxMinutes, double transferPenalty,
+            SearchWorkspace workspace) {
+        if (!(maxMinutes >= 0)) {
+            throw new IllegalArgumentException("Time limit must not be negative: " + maxMinutes);
+        }
+        DijkstraLabels labels = workspace.forward;
+        labels.reset();
+        workspace.clearVisited(graph.getStationCount());
+        workspace.markVisited(origin);
+        int count = 1;
+        for (int state = graph.stateOffsets[origin]; state < graph.stateOffsets[origin + 1]; state++) {
+            labels.offer(state, 0, -1, -1);
+        }
+        while (!labels.isEmpty()) {
+            int state = labels.poll();
+            int station = graph.stateStations[state];
+            double cost = labels.distance[state];
+            if (!workspace.isVisited(station)) {
+                workspace.markVisited(station);
+                workspace.queue[count++] = state;
+            }
+            for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                int e = graph.stateEdges[i];
+                int next = graph.edgeTargetStates[e];
+                double nextCost = cost + graph.getTravelTime(e);
+                if (next >= 0 && nextCost <= maxMinutes) {
+                    labels.offer(next, nextCost, state, e);
+                }
+            }
+            double transferCost = cost + transferPenalty;
+            if (transferCost <= maxMinutes) {
+                for (int other = graph.stateOffsets[station]; other < graph.stateOffsets[station + 1]; other++) {
+                    if (other != state) {
+                        labels.offer(other, transferCost, state, -1);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public Station getOrigin() {
+        return graph.getStation(stations[0]);
+    }
+
+    // Number of stations within the limit, the origin included.
+    public int size() {
+        return stations.length;
+    }
+
+    public int getStationId(int index) {
+        return stations[index];
+    }
+
+    public Station getStation(int index) {
+        return graph.getStation(stations[index]);
+    }
+
+    public double getDistance(int index) {
+        return distances[index];
+    }
+
+    // Station names to distances, nearest first.
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (int i = 0; i < stations.length; i++) {
+            map.put(graph.getStation(stations[i]).getName(), distances[i]);
+        }
+        return map;
+    }
+
+    public BitSet toBitSet() {
+        BitSet reachable = new BitSet(graph.getStationCount());
+        for (int station : stations) {
+            reachable.set(station);
+        }
+        return reachable;
+    }
+}
@@ -0,0 +1,224 @@
+package com.subway.core;
+
+import java.util.*;
+
+// Yen's k shortest loopless paths over the station/line states of a
+// SubwayGraph, ranked by the same cost as RoutingMode.DIJKSTRA: travel time
+// plus the transfer penalty for every change of line.
+//
+// Each accepted route is taken apart stop by stop. A spur search leaves
+// from each stop with the route up to it kept, the stations before it
+// closed, and the next connection of every accepted route that shares that
+// prefix removed. Spur searches are A* searches in the calling thread's
+// SearchWorkspace, with closed stations and removed edges marked by stamps,
+// so none of them allocates or clears per-state arrays.
+final class KShortestPaths
+{
+    private static final ThreadLocal<KShortestPaths> CURRENT = ThreadLocal.withInitial(KShortestPaths::new);
+
+    private int stamp;
+    private int[] closedStations = new int[0];
+    private int[] removedEdges = new int[0];
+
+    private KShortestPaths() {
+    }
+
+    // Up to k routes in order of cost. Once budgetNanos have passed no new
+    // spur search starts, and the routes ranked by then are returned; the
+    // shortest route is always found.
+    static List<Route> search(SubwayGraph graph, int start, int end, int k, double transferPenalty, long budgetNanos) {
+        return CURRENT.get().run(graph, start, end, k, transferPenalty, budgetNanos);
+    }
+
+    private List<Route> run(SubwayGraph graph, int start, int end, int k, double transferPenalty, long budgetNanos) {
+        long began = System.nanoTime();
+        List<Route> routes = new ArrayList<>();
+        if (k <= 0) {
+            return routes;
+        }
+        if (start == end) {
+            routes.add(new Route(new LinkedList<Connection>(), 0, 0));
+            return routes;
+        }
+        if (closedStations.length < graph.getStationCount()) {
+            closedStations = new int[graph.getStationCount()];
+        }
+        if (removedEdges.length < graph.getEdgeCount()) {
+            removedEdges = new int[graph.getEdgeCount()];
+        }
+
+        List<Path> accepted = new ArrayList<>();
+        PriorityQueue<Path> candidates = new PriorityQueue<>();
+        Set<Path> seen = new HashSet<>();
+        int settled = 0;
+        nextStamp();
+        int[] first = spur(graph, new int[0], 0, start, end, transferPenalty);
+        settled += SearchWorkspace.forStations(graph.getStationCount()).forward.settledCount;
+        if (first == null) {
+            return routes;
+        }
+        Path shortest = new Path(first, graph.pathCost(first, transferPenalty), 0);
+        accepted.add(shortest);
+        seen.add(shortest);
+        routes.add(toRoute(graph, shortest, settled));
+
+        search:
+        while (accepted.size() < k) {
+            int[] previous = accepted.get(accepted.size() - 1).edges;
+            for (int j = 0; j < previous.length; j++) {
+                if (System.nanoTime() - began >= budgetNanos) {
+                    break search;
+                }
+                nextStamp();
+                for (Path path : accepted) {
+                    if (path.edges.length > j && sharesPrefix(path.edges, previous, j)) {
+                        removedEdges[path.edges[j]] = stamp;
+                    }
+                }
+                for (int i = 0; i < j; i++) {
+                    closedStations[graph.getSource(previous[i])] = stamp;
+                }
+                int[] spurPath = spur(graph, previous, j, graph.getSource(previous[j]), end, transferPenalty);
+                settled += SearchWorkspace.forStations(graph.getStationCount()).forward.settledCount;
+                if (spurPath != null) {
+                    int[] edges = Arrays.copyOf(previous, j + spurPath.length);
+                    System.arraycopy(spurPath, 0, edges, j, spurPath.length);
+                    Path candidate = new Path(edges, graph.pathCost(edges, transferPenalty), seen.size());
+                    if (isLoopless(graph, edges) && seen.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                }
+            }
+            Path next = candidates.poll();
+            if (next == null) {
+                break;
+            }
+            accepted.add(next);
+            routes.add(toRoute(graph, next, settled));
+        }
+        return routes;
+    }
+
+    private void nextStamp() {
+        if (++stamp == Integer.MAX_VALUE) {
+            Arrays.fill(closedStations, 0);
+            Arrays.fill(removedEdges, 0);
+            stamp = 1;
+        }
+    }
+
+    private static boolean sharesPrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Spur searches cannot return to a closed station, but the spur path
+    // itself may still cross its own stations when travel times are zero.
+    private static boolean isLoopless(SubwayGraph graph, int[] edges) {
+        Set<Integer> stations = new HashSet<>();
+        stations.add(graph.getSource(edges[0]));
+        for (int e : edges) {
+            if (!stations.add(graph.getTarget(e))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // A* from the spur station to the end, continuing on the line the root
+    // arrived on (any line at the start), around closed stations and
+    // removed edges. Returns the spur's edges, or null if the end is cut off.
+    private int[] spur(SubwayGraph graph, int[] root, int rootLength, int from, int end, double transferPenalty) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        DijkstraLabels labels = workspace.forward;
+        labels.reset();
+        double estimate = graph.estimateTravelTime(from, end);
+        int arrived = rootLength == 0 ? -1 : graph.edgeTargetStates[root[rootLength - 1]];
+        if (arrived >= 0) {
+            labels.offer(arrived, 0, estimate, -1, -1);
+        } else {
+            // The root's line ends here, so going on means changing.
+            double boarding = rootLength == 0 ? 0 : transferPenalty;
+            for (int state = graph.stateOffsets[from]; state < graph.stateOffsets[from + 1]; state++) {
+                labels.offer(state, boarding, boarding + estimate, -1, -1);
+            }
+        }
+
+        while (!labels.isEmpty()) {
+            int state = labels.poll();
+            int station = graph.stateStations[state];
+            if (station == end) {
+                return toEdges(labels, state);
+            }
+            double cost = labels.distance[state];
+            for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                int e = graph.stateEdges[i];
+                int next = graph.edgeTargetStates[e];
+                if (next >= 0 && removedEdges[e] != stamp && closedStations[graph.getTarget(e)] != stamp) {
+                    double nextCost = cost + graph.getTravelTime(e);
+                    labels.offer(next, nextCost, nextCost + graph.estimateTravelTime(graph.getTarget(e), end), state, e);
+                }
+            }
+            double transferCost = cost + transferPenalty;
+            double transferEstimate = transferCost + graph.estimateTravelTime(station, end);
+            for (int other = graph.stateOffsets[station]; other < graph.stateOffsets[station + 1]; other++) {
+                if (other != state) {
+                    labels.offer(other, transferCost, transferEstimate, state, -1);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int[] toEdges(DijkstraLabels labels, int state) {
+        int length = 0;
+        for (int current = state; current >= 0; current = labels.parentState[current]) {
+            if (labels.parentEdge[current] >= 0) {
+                length++;
+            }
+        }
+        int[] edges = new int[length];
+        for (int current = state; current >= 0; current = labels.parentState[current]) {
+            if (labels.parentEdge[current] >= 0) {
+                edges[--length] = labels.parentEdge[current];
+            }
+        }
+        return edges;
+    }
+
+    private static Route toRoute(SubwayGraph graph, Path path, int settled) {
+        return new Route(graph.toConnections(path.edges), path.cost, settled);
+    }
+
+    // A candidate route; equal routes have equal edges. Ties in cost go to
+    // the candidate found first.
+    private static final class Path implements Comparable<Path>
+    {
+        private final int[] edges;
+        private final double cost;
+        private final int order;
+
+        Path(int[] edges, double cost, int order) {
+            this.edges = edges;
+            this.cost = cost;
+            this.order = order;
+        }
+
+        public int compareTo(Path other) {
+            int byCost = Double.compare(cost, other.cost);
+            return byCost != 0 ? byCost : Integer.compare(order, other.order);
+        }
+
+        public boolean equals(Object obj) {
+            return obj instanceof Path && Arrays.equals(edges, ((Path) obj).edges);
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(edges);
+        }
+    }
+}
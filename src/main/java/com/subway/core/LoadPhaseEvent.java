@@ -0,0 +1,32 @@
+package com.subway.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight recorder event for one phase of getting a network ready: parsing
+// the station list or the line blocks of a file, or building the graph.
+@Name("com.subway.LoadPhase")
+@Label("Load Phase")
+@Category("Subway")
+@Description("Parsing a network file or building its graph")
+@StackTrace(false)
+final class LoadPhaseEvent extends Event
+{
+    static final String PARSE_STATIONS = "parse stations";
+    static final String PARSE_LINES = "parse lines";
+    static final String BUILD_GRAPH = "build graph";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Stations")
+    int stationCount;
+
+    @Label("Edges")
+    @Description("Directed connections; a segment read from a line block counts twice")
+    int edgeCount;
+}
@@ -0,0 +1,59 @@
+package com.subway.core;
+
+// What a SubwayLoader read and how long it took.
+public final class LoadStats
+{
+    private final int stationCount;
+    private final int lineCount;
+    private final int segmentCount;
+    private final long byteCount;
+    private final long nanos;
+
+    LoadStats(int stationCount, int lineCount, int segmentCount, long byteCount, long nanos) {
+        this.stationCount = stationCount;
+        this.lineCount = lineCount;
+        this.segmentCount = segmentCount;
+        this.byteCount = byteCount;
+        this.nanos = nanos;
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    // Station-to-station segments read from line blocks; each one becomes a
+    // connection in both directions.
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    // Wall-clock time from opening the file to a built graph.
+    public long getNanos() {
+        return nanos;
+    }
+
+    public double getMillis() {
+        return nanos / 1e6;
+    }
+
+    public double getSegmentsPerSecond() {
+        return nanos == 0 ? 0 : segmentCount * 1e9 / nanos;
+    }
+
+    public double getMegabytesPerSecond() {
+        return nanos == 0 ? 0 : byteCount * 1e9 / nanos / (1024 * 1024);
+    }
+
+    public String toString() {
+        return String.format("%d stations, %d lines, %d segments (%d bytes) in %.1f ms: %.0f segments/s, %.1f MB/s",
+            stationCount, lineCount, segmentCount, byteCount, getMillis(), getSegmentsPerSecond(), getMegabytesPerSecond());
+    }
+}
@@ -0,0 +1,150 @@
+package com.subway.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free histogram of non-negative longs with HDR-style log-linear
+// buckets: values below 32 are counted exactly, larger ones in 32 buckets per
+// power of two, so any value is reported within about 3%. Recording is one
+// atomic increment (plus an add for the running sum) in a stripe picked by
+// thread id, so threads on different cores rarely write to the same cache
+// line; snapshots add the stripes up.
+public final class LongHistogram
+{
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    static final int BUCKET_COUNT = SUB_COUNT + (63 - SUB_BITS) * SUB_COUNT;
+    private static final int SUM = BUCKET_COUNT;
+    private static final int MAX = BUCKET_COUNT + 1;
+
+    private final AtomicLongArray[] stripes;
+    private final int mask;
+
+    public LongHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public LongHistogram(int concurrency) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 64)) * 2 - 1);
+        stripes = new AtomicLongArray[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new AtomicLongArray(BUCKET_COUNT + 2);
+        }
+        mask = count - 1;
+    }
+
+    // Negative values count as 0.
+    public void record(long value) {
+        long v = Math.max(value, 0);
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & mask];
+        stripe.incrementAndGet(bucket(v));
+        stripe.addAndGet(SUM, v);
+        long max = stripe.get(MAX);
+        while (v > max && !stripe.compareAndSet(MAX, max, v)) {
+            max = stripe.get(MAX);
+        }
+    }
+
+    // Not atomic with concurrent recording: values recorded meanwhile may be
+    // kept or dropped.
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < stripe.length(); i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] += stripe.get(i);
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new Snapshot(counts, sum, max);
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + octave * SUB_COUNT + (int) (value >>> octave) - SUB_COUNT;
+    }
+
+    // Largest value that falls in the bucket.
+    static long highestValue(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int octave = (bucket - SUB_COUNT) / SUB_COUNT;
+        long sub = SUB_COUNT + (bucket - SUB_COUNT) % SUB_COUNT;
+        return ((sub + 1) << octave) - 1;
+    }
+
+    // Counts as of one moment; later recording does not show.
+    public static final class Snapshot
+    {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long max) {
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.counts = counts;
+            this.count = total;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        // The value at or below which the given percentage of values fall,
+        // rounded up to the top of its bucket; 0 when nothing was recorded.
+        public long getValueAtPercentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return 0;
+        }
+
+        // Values scaled by 1/divisor, e.g. 1000 to show nanoseconds as
+        // microseconds.
+        public String toString(double divisor) {
+            return String.format("count=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f", count,
+                getMean() / divisor, getValueAtPercentile(50) / divisor, getValueAtPercentile(90) / divisor,
+                getValueAtPercentile(99) / divisor, getValueAtPercentile(99.9) / divisor, max / divisor);
+        }
+
+        public String toString() {
+            return toString(1);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.subway.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+// A network compiled to a binary file and queried straight from a read-only
+// memory mapping. Nothing is copied onto the heap when the file is opened:
+// searches read the CSR arrays in place and names are decoded only when a
+// station is looked up or a route is returned. Processes mapping the same
+// file share its pages.
+//
+// Layout (big-endian): a header of MAGIC, VERSION, the source graph's
+// fingerprint, station, edge and line counts and the number of hash slots,
+// followed by
+//   int[n + 1] offsets, int[m] sources, int[m] targets, int[m] lines,
+//   double[m] travel times, double[2n] station coordinates,
+//   int[n + 1] station name offsets, int[lines + 1] line name offsets,
+//   int[slots] station hash table (station id + 1, 0 for empty),
+//   UTF-8 string data: station names, then line names.
+public final class MappedNetwork implements CsrView
+{
+    private static final int MAGIC = 0x5357474E;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 * 4;
+
+    private final ByteBuffer buffer;
+    private final long fingerprint;
+    private final int stationCount;
+    private final int edgeCount;
+    private final int lineCount;
+    private final int slotCount;
+    private final int offsetsAt;
+    private final int sourcesAt;
+    private final int targetsAt;
+    private final int linesAt;
+    private final int travelTimesAt;
+    private final int coordinatesAt;
+    private final int stationNamesAt;
+    private final int lineNamesAt;
+    private final int slotsAt;
+    private final int stringsAt;
+
+    private MappedNetwork(ByteBuffer buffer, File file) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a compiled subway network: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported compiled network version " + buffer.getInt(4) + ": " + file);
+        }
+        this.fingerprint = buffer.getLong(8);
+        this.stationCount = buffer.getInt(16);
+        this.edgeCount = buffer.getInt(20);
+        this.lineCount = buffer.getInt(24);
+        this.slotCount = buffer.getInt(28);
+        long required = HEADER_BYTES + 4L * (stationCount + 1) + 20L * edgeCount + 16L * stationCount
+            + 4L * (stationCount + 1) + 4L * (lineCount + 1) + 4L * slotCount;
+        if (stationCount < 0 || edgeCount < 0 || lineCount < 0 || slotCount <= stationCount
+                || Integer.bitCount(slotCount) != 1 || required > buffer.capacity()) {
+            throw new IOException("Corrupt compiled subway network: " + file);
+        }
+        this.offsetsAt = HEADER_BYTES;
+        this.sourcesAt = offsetsAt + 4 * (stationCount + 1);
+        this.targetsAt = sourcesAt + 4 * edgeCount;
+        this.linesAt = targetsAt + 4 * edgeCount;
+        this.travelTimesAt = linesAt + 4 * edgeCount;
+        this.coordinatesAt = travelTimesAt + 8 * edgeCount;
+        this.stationNamesAt = coordinatesAt + 16 * stationCount;
+        this.lineNamesAt = stationNamesAt + 4 * (stationCount + 1);
+        this.slotsAt = lineNamesAt + 4 * (lineCount + 1);
+        this.stringsAt = slotsAt + 4 * slotCount;
+        if (stringsAt + (long) buffer.getInt(lineNamesAt + 4 * lineCount) != buffer.capacity()) {
+            throw new IOException("Corrupt compiled subway network: " + file);
+        }
+    }
+
+    public static MappedNetwork open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Compiled subway network too large to map: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedNetwork(buffer, file);
+        }
+    }
+
+    public static void compile(SubwayGraph graph, File file) throws IOException {
+        int n = graph.getStationCount();
+        int m = graph.getEdgeCount();
+        int lines = graph.getLineCount();
+        byte[][] stationNames = new byte[n][];
+        byte[][] lineNames = new byte[lines][];
+        int[] slots = new int[Math.max(16, Integer.highestOneBit(Math.max(1, n)) * 4)];
+        for (int u = 0; u < n; u++) {
+            stationNames[u] = graph.getStation(u).getName().getBytes(StandardCharsets.UTF_8);
+            if (graph.isRemoved(u)) {
+                continue;
+            }
+            int slot = slotOf(graph.getStation(u).getKey(), slots.length);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & (slots.length - 1);
+            }
+            slots[slot] = u + 1;
+        }
+        for (int line = 0; line < lines; line++) {
+            lineNames[line] = graph.getLineName(line).getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(graph.getFingerprint());
+            out.writeInt(n);
+            out.writeInt(m);
+            out.writeInt(lines);
+            out.writeInt(slots.length);
+            for (int u = 0; u <= n; u++) {
+                out.writeInt(u < n ? graph.getFirstEdge(u) : m);
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(graph.getSource(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(graph.getTarget(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeInt(graph.getLine(e));
+            }
+            for (int e = 0; e < m; e++) {
+                out.writeDouble(graph.getTravelTime(e));
+            }
+            for (int u = 0; u < n; u++) {
+                out.writeDouble(graph.getStation(u).getX());
+                out.writeDouble(graph.getStation(u).getY());
+            }
+            int position = writeOffsets(out, stationNames, 0);
+            writeOffsets(out, lineNames, position);
+            for (int slot : slots) {
+                out.writeInt(slot);
+            }
+            for (byte[] name : stationNames) {
+                out.write(name);
+            }
+            for (byte[] name : lineNames) {
+                out.write(name);
+            }
+        }
+    }
+
+    private static int writeOffsets(DataOutputStream out, byte[][] strings, int position) throws IOException {
+        out.writeInt(position);
+        for (byte[] string : strings) {
+            position += string.length;
+            out.writeInt(position);
+        }
+        return position;
+    }
+
+    private static int slotOf(String key, int slotCount) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (slotCount - 1);
+    }
+
+    // Fingerprint of the SubwayGraph the file was compiled from.
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public int getStationCount() {
+        return stationCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    public int getStationId(String stationName) {
+        String key = Station.keyOf(stationName);
+        int slot = slotOf(key, slotCount);
+        int id;
+        while ((id = buffer.getInt(slotsAt + 4 * slot)) != 0) {
+            if (Station.keyOf(getStationName(id - 1)).equals(key)) {
+                return id - 1;
+            }
+            slot = (slot + 1) & (slotCount - 1);
+        }
+        return -1;
+    }
+
+    public boolean hasStation(String stationName) {
+        return getStationId(stationName) >= 0;
+    }
+
+    public String getStationName(int station) {
+        return string(stationNamesAt + 4 * station);
+    }
+
+    public Station getStation(int station) {
+        return new Station(getStationName(station), buffer.getDouble(coordinatesAt + 16 * station),
+            buffer.getDouble(coordinatesAt + 16 * station + 8));
+    }
+
+    public String getLineName(int line) {
+        return string(lineNamesAt + 4 * line);
+    }
+
+    private String string(int offsetAt) {
+        int from = buffer.getInt(offsetAt);
+        byte[] bytes = new byte[buffer.getInt(offsetAt + 4) - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(stringsAt + from + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public int getFirstEdge(int station) {
+        return buffer.getInt(offsetsAt + 4 * station);
+    }
+
+    public int getEndEdge(int station) {
+        return buffer.getInt(offsetsAt + 4 * (station + 1));
+    }
+
+    public int getSource(int edge) {
+        return buffer.getInt(sourcesAt + 4 * edge);
+    }
+
+    public int getTarget(int edge) {
+        return buffer.getInt(targetsAt + 4 * edge);
+    }
+
+    public int getLine(int edge) {
+        return buffer.getInt(linesAt + 4 * edge);
+    }
+
+    public double getTravelTime(int edge) {
+        return buffer.getDouble(travelTimesAt + 8 * edge);
+    }
+
+    public boolean hasConnection(String station1Name, String station2Name, String lineName) {
+        int from = getStationId(station1Name);
+        int to = getStationId(station2Name);
+        if (from < 0 || to < 0) {
+            return false;
+        }
+        for (int e = getFirstEdge(from); e < getEndEdge(from); e++) {
+            if (getTarget(e) == to && getLineName(getLine(e)).equalsIgnoreCase(lineName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Same search, and so the same routes, as SubwayGraph.findPath.
+    public int[] findPath(int start, int end) {
+        return BreadthFirstSearch.findPath(this, start, end);
+    }
+
+    public List<Connection> getDirections(String startStationName, String endStationName) {
+        int start = getStationId(startStationName);
+        int end = getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return toConnections(findPath(start, end));
+    }
+
+    // Connections are created for the route only; consecutive legs share
+    // their Station objects.
+    public List<Connection> toConnections(int[] path) {
+        List<Connection> route = new LinkedList<>();
+        Station from = path.length > 0 ? getStation(getSource(path[0])) : null;
+        for (int edge : path) {
+            Station to = getStation(getTarget(edge));
+            route.add(new Connection(from, to, getLineName(getLine(edge)), getTravelTime(edge)));
+            from = to;
+        }
+        return route;
+    }
+}
@@ -0,0 +1,179 @@
+package com.subway.core;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+// An ordered list of service changes for Subway.applyDelta. Delta files hold
+// one change per line, fields separated by tabs; blank lines and lines
+// starting with '#' are ignored:
+//
+//   +station<TAB>name[<TAB>x<TAB>y]
+//   -station<TAB>name
+//   +connection<TAB>station1<TAB>station2<TAB>line[<TAB>travel time]
+//   -connection<TAB>station1<TAB>station2<TAB>line
+public final class NetworkDelta
+{
+    public enum Type
+    {
+        ADD_STATION, REMOVE_STATION, ADD_CONNECTION, REMOVE_CONNECTION
+    }
+
+    public static final class Change
+    {
+        private final Type type;
+        private final String station1;
+        private final String station2;
+        private final String lineName;
+        private final double x;
+        private final double y;
+        private final double travelTime;
+
+        private Change(Type type, String station1, String station2, String lineName, double x, double y, double travelTime) {
+            this.type = type;
+            this.station1 = station1;
+            this.station2 = station2;
+            this.lineName = lineName;
+            this.x = x;
+            this.y = y;
+            this.travelTime = travelTime;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getStation1() {
+            return station1;
+        }
+
+        public String getStation2() {
+            return station2;
+        }
+
+        public String getLineName() {
+            return lineName;
+        }
+
+        public double getX() {
+            return x;
+        }
+
+        public double getY() {
+            return y;
+        }
+
+        public double getTravelTime() {
+            return travelTime;
+        }
+
+        public String toString() {
+            switch (type) {
+                case ADD_STATION:
+                case REMOVE_STATION:
+                    return type + " [" + station1 + "]";
+                default:
+                    return type + " [" + station1 + ", " + station2 + ", " + lineName + "]";
+            }
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+
+    public NetworkDelta addStation(String stationName) {
+        return addStation(stationName, Double.NaN, Double.NaN);
+    }
+
+    public NetworkDelta addStation(String stationName, double x, double y) {
+        changes.add(new Change(Type.ADD_STATION, stationName, null, null, x, y, 0));
+        return this;
+    }
+
+    public NetworkDelta removeStation(String stationName) {
+        changes.add(new Change(Type.REMOVE_STATION, stationName, null, null, Double.NaN, Double.NaN, 0));
+        return this;
+    }
+
+    public NetworkDelta addConnection(String station1Name, String station2Name, String lineName, double travelTime) {
+        if (!(travelTime >= 0)) {
+            throw new IllegalArgumentException("Invalid travel time " + travelTime + " for [" + station1Name + ", " + station2Name + ", " + lineName + "]");
+        }
+        changes.add(new Change(Type.ADD_CONNECTION, station1Name, station2Name, lineName, Double.NaN, Double.NaN, travelTime));
+        return this;
+    }
+
+    public NetworkDelta removeConnection(String station1Name, String station2Name, String lineName) {
+        changes.add(new Change(Type.REMOVE_CONNECTION, station1Name, station2Name, lineName, Double.NaN, Double.NaN, 0));
+        return this;
+    }
+
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(changes);
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    public static NetworkDelta load(File deltaFile) throws IOException {
+        return load(deltaFile, StandardCharsets.UTF_8);
+    }
+
+    public static NetworkDelta load(File deltaFile, Charset charset) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(deltaFile.toPath(), charset)) {
+            return parse(reader);
+        }
+    }
+
+    public static NetworkDelta parse(BufferedReader reader) throws IOException {
+        NetworkDelta delta = new NetworkDelta();
+        String entry;
+        int lineNumber = 0;
+        while ((entry = reader.readLine()) != null) {
+            lineNumber++;
+            if (entry.trim().isEmpty() || entry.startsWith("#")) {
+                continue;
+            }
+            String[] fields = entry.split("\t");
+            try {
+                switch (fields[0].trim()) {
+                    case "+station":
+                        if (fields.length == 2) {
+                            delta.addStation(fields[1]);
+                        } else if (fields.length == 4) {
+                            delta.addStation(fields[1], Double.parseDouble(fields[2].trim()), Double.parseDouble(fields[3].trim()));
+                        } else {
+                            throw new IOException("Invalid delta entry on line " + lineNumber + ": " + entry);
+                        }
+                        break;
+                    case "-station":
+                        if (fields.length != 2) {
+                            throw new IOException("Invalid delta entry on line " + lineNumber + ": " + entry);
+                        }
+                        delta.removeStation(fields[1]);
+                        break;
+                    case "+connection":
+                        if (fields.length != 4 && fields.length != 5) {
+                            throw new IOException("Invalid delta entry on line " + lineNumber + ": " + entry);
+                        }
+                        delta.addConnection(fields[1], fields[2], fields[3],
+                            fields.length == 5 ? Double.parseDouble(fields[4].trim()) : Connection.DEFAULT_TRAVEL_TIME);
+                        break;
+                    case "-connection":
+                        if (fields.length != 4) {
+                            throw new IOException("Invalid delta entry on line " + lineNumber + ": " + entry);
+                        }
+                        delta.removeConnection(fields[1], fields[2], fields[3]);
+                        break;
+                    default:
+                        throw new IOException("Unknown delta change on line " + lineNumber + ": " + entry);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid delta entry on line " + lineNumber + ": " + entry);
+            }
+        }
+        return delta;
+    }
+}
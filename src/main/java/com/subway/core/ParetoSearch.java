@@ -0,0 +1,186 @@
+package com.subway.core;
+
+import java.util.*;
+
+// Routes that are Pareto-optimal over travel time and line changes, counted
+// the way SubwayPrinter tells a rider to switch: whenever the line name of
+// the next connection differs from the one before.
+//
+// The search runs in rounds over the station/line states of a SubwayGraph.
+// Round k boards other lines at every station the previous round reached
+// sooner than before, then rides on with Dijkstra (A* when stations have
+// coordinates) without changing again. A state gets a label in round k only
+// if it beats its best time from every earlier round, so each state holds at
+// most one label per round and no label is ever dominated. Nothing that
+// cannot arrive before the fastest route found so far is kept, so later
+// rounds only explore what could still lead to a faster route with one more
+// change, and the search stops once a round improves nothing.
+final class ParetoSearch
+{
+    private static final ThreadLocal<ParetoSearch> CURRENT = ThreadLocal.withInitial(ParetoSearch::new);
+
+    private final IntMinHeap heap = new IntMinHeap();
+    // Queries and rounds take stamps from one counter, so nothing is
+    // cleared between them.
+    private int stamp;
+    private int queryStamp;
+    // Per state: best time in any round so far, and its label this round.
+    private int[] bestStamps = new int[0];
+    private double[] best = new double[0];
+    private int[] roundLabels = new int[0];
+    // Per station: the fastest label of the current and previous round.
+    private int[] stationStamps = new int[0];
+    private int[] stationLabels = new int[0];
+    private int[] reached = new int[0];
+    private int[] previous = new int[0];
+    // Labels of the whole query; a label's parent is the label it extends.
+    private int[] labelStates = new int[64];
+    private double[] labelTimes = new double[64];
+    private int[] labelParents = new int[64];
+    private int[] labelEdges = new int[64];
+    private int labelCount;
+    private int settledCount;
+
+    private ParetoSearch() {
+    }
+
+    // The Pareto set ordered by line changes, each route strictly faster than
+    // the one before; empty if the end cannot be reached.
+    static List<Route> search(SubwayGraph graph, int start, int end, int maxLineChanges) {
+        return CURRENT.get().run(graph, start, end, maxLineChanges);
+    }
+
+    private List<Route> run(SubwayGraph graph, int start, int end, int maxLineChanges) {
+        List<Route> routes = new ArrayList<>();
+        if (start == end) {
+            routes.add(new Route(new LinkedList<Connection>(), 0, 0));
+            return routes;
+        }
+        begin(graph.getStationCount(), graph.getStateCount());
+        double fastest = Double.POSITIVE_INFINITY;
+        int previousCount = 0;
+        // A route changing more often than there are states would pass the
+        // same state twice, and so could not be faster.
+        int rounds = Math.min(maxLineChanges, graph.getStateCount());
+        for (int changes = 0; changes <= rounds; changes++) {
+            int roundStamp = ++stamp;
+            if (changes == 0) {
+                for (int state = graph.stateOffsets[start]; state < graph.stateOffsets[start + 1]; state++) {
+                    offer(graph, end, fastest, state, 0, -1, -1);
+                }
+            } else {
+                for (int i = 0; i < previousCount; i++) {
+                    int station = previous[i];
+                    int label = stationLabels[station];
+                    int line = graph.stateLines[labelStates[label]];
+                    for (int state = graph.stateOffsets[station]; state < graph.stateOffsets[station + 1]; state++) {
+                        if (graph.stateLines[state] != line) {
+                            offer(graph, end, fastest, state, labelTimes[label], label, -1);
+                        }
+                    }
+                }
+            }
+
+            int reachedCount = 0;
+            int arrival = -1;
+            while (!heap.isEmpty()) {
+                int state = heap.poll();
+                int label = roundLabels[state];
+                double time = labelTimes[label];
+                int station = graph.stateStations[state];
+                settledCount++;
+                if (stationStamps[station] != roundStamp) {
+                    stationStamps[station] = roundStamp;
+                    stationLabels[station] = label;
+                    reached[reachedCount++] = station;
+                } else if (time < labelTimes[stationLabels[station]]) {
+                    stationLabels[station] = label;
+                }
+                if (station == end) {
+                    if (time < fastest) {
+                        fastest = time;
+                        arrival = label;
+                    }
+                    continue;
+                }
+                for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                    int e = graph.stateEdges[i];
+                    int next = graph.edgeTargetStates[e];
+                    if (next >= 0) {
+                        offer(graph, end, fastest, next, time + graph.getTravelTime(e), label, e);
+                    }
+                }
+            }
+            if (arrival >= 0) {
+                routes.add(toRoute(graph, arrival));
+            }
+            if (reachedCount == 0) {
+                break;
+            }
+            int[] swap = previous;
+            previous = reached;
+            reached = swap;
+            previousCount = reachedCount;
+        }
+        return routes;
+    }
+
+    private void begin(int stationCount, int stateCount) {
+        if (bestStamps.length < stateCount) {
+            bestStamps = new int[stateCount];
+            best = new double[stateCount];
+            roundLabels = new int[stateCount];
+        }
+        if (stationStamps.length < stationCount) {
+            stationStamps = new int[stationCount];
+            stationLabels = new int[stationCount];
+            reached = new int[stationCount];
+            previous = new int[stationCount];
+        }
+        heap.ensureCapacity(stateCount);
+        // A query takes one stamp, plus one per round.
+        if (stamp > Integer.MAX_VALUE - stateCount - 2) {
+            Arrays.fill(bestStamps, 0);
+            Arrays.fill(stationStamps, 0);
+            stamp = 0;
+        }
+        queryStamp = ++stamp;
+        labelCount = 0;
+        settledCount = 0;
+    }
+
+    private void offer(SubwayGraph graph, int end, double fastest, int state, double time, int parent, int edge) {
+        if (bestStamps[state] == queryStamp && time >= best[state]) {
+            return;
+        }
+        double estimate = time + graph.estimateTravelTime(graph.stateStations[state], end);
+        if (estimate >= fastest) {
+            return;
+        }
+        bestStamps[state] = queryStamp;
+        best[state] = time;
+        if (labelCount == labelStates.length) {
+            labelStates = Arrays.copyOf(labelStates, labelCount * 2);
+            labelTimes = Arrays.copyOf(labelTimes, labelCount * 2);
+            labelParents = Arrays.copyOf(labelParents, labelCount * 2);
+            labelEdges = Arrays.copyOf(labelEdges, labelCount * 2);
+        }
+        labelStates[labelCount] = state;
+        labelTimes[labelCount] = time;
+        labelParents[labelCount] = parent;
+        labelEdges[labelCount] = edge;
+        roundLabels[state] = labelCount++;
+        heap.offer(state, estimate);
+    }
+
+    private Route toRoute(SubwayGraph graph, int label) {
+        LinkedList<Connection> connections = new LinkedList<>();
+        double time = labelTimes[label];
+        for (int l = label; l >= 0; l = labelParents[l]) {
+            if (labelEdges[l] >= 0) {
+                connections.addFirst(graph.getConnection(labelEdges[l]));
+            }
+        }
+        return new Route(connections, time, settledCount);
+    }
+}
@@ -0,0 +1,54 @@
+package com.subway.core;
+
+import java.util.*;
+
+public class Route
+{
+    private List<Connection> connections;
+    private double totalCost;
+    private int settledCount;
+
+    public Route(List<Connection> connections, double totalCost) {
+        this(connections, totalCost, 0);
+    }
+
+    Route(List<Connection> connections, double totalCost, int settledCount) {
+        this.connections = connections;
+        this.totalCost = totalCost;
+        this.settledCount = settledCount;
+    }
+
+    public List<Connection> getConnections() {
+        return connections;
+    }
+
+    public double getTotalCost() {
+        return totalCost;
+    }
+
+    // Stations or station/line states the search settled to find this route.
+    public int getSettledCount() {
+        return settledCount;
+    }
+
+    public boolean isEmpty() {
+        return connections.isEmpty();
+    }
+
+    public int getLineChanges() {
+        int changes = 0;
+        String previousLine = null;
+        for (Connection connection : connections) {
+            String currentLine = connection.getLineName();
+            if (previousLine != null && !currentLine.equals(previousLine)) {
+                changes++;
+            }
+            previousLine = currentLine;
+        }
+        return changes;
+    }
+
+    public String toString() {
+        return connections + " (cost " + totalCost + ")";
+    }
+}
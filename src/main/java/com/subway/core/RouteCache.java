@@ -0,0 +1,167 @@
+package com.subway.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Size-bounded cache of fewest-stops routes, keyed by (start, end) station
+// ids, so names match case-insensitively just as Station.equals does. Safe to
+// share between threads. Routes are stored and handed out as unmodifiable
+// lists, so every caller can share the same one.
+//
+// Hits are lock-free: a ConcurrentHashMap lookup plus setting the entry's
+// referenced bit. Eviction approximates LRU with the clock (second-chance)
+// algorithm: entries queue in insertion order, and the hand skips and clears
+// entries hit since it last passed. Only stores, evictions and invalidation
+// take the lock.
+//
+// invalidate() bumps a generation counter as well as clearing the map, so a
+// route computed against the old network cannot be stored after the change.
+// The counter only changes under the lock but is read without it.
+public final class RouteCache
+{
+    private final int capacity;
+    private final ConcurrentHashMap<Long, Entry> routes = new ConcurrentHashMap<>();
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile long generation;
+
+    RouteCache(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Invalid route cache capacity " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    static long key(int start, int end) {
+        return ((long) start << 32) | (end & 0xffffffffL);
+    }
+
+    List<Connection> get(long key) {
+        Entry entry = routes.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        // Only the first hit since the hand passed writes, so hot routes do
+        // not bounce the entry's cache line between cores.
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        hits.increment();
+        return entry.route;
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    // The route must be unmodifiable; it is stored as given.
+    void put(long key, List<Connection> route, long generation) {
+        if (capacity == 0) {
+            return;
+        }
+        synchronized (clock) {
+            if (generation != this.generation) {
+                return;
+            }
+            Entry entry = new Entry(key, route);
+            Entry replaced = routes.put(key, entry);
+            if (replaced != null) {
+                replaced.removed = true;
+            }
+            clock.addLast(entry);
+            while (routes.size() > capacity) {
+                evictOne();
+            }
+        }
+    }
+
+    private void evictOne() {
+        while (true) {
+            Entry entry = clock.pollFirst();
+            if (entry.removed) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+                clock.addLast(entry);
+                continue;
+            }
+            entry.removed = true;
+            routes.remove(entry.key, entry);
+            evictions.increment();
+            return;
+        }
+    }
+
+    void invalidate() {
+        synchronized (clock) {
+            generation++;
+            routes.clear();
+            clock.clear();
+        }
+    }
+
+    // Drops only the routes that use one of the given connections; every
+    // other cached route is still a fewest-stops route without them.
+    void evictRoutesUsing(Collection<Connection> connections) {
+        Set<Connection> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+        removed.addAll(connections);
+        synchronized (clock) {
+            generation++;
+            clock.removeIf(entry -> {
+                for (Connection connection : entry.route) {
+                    if (removed.contains(connection)) {
+                        entry.removed = true;
+                        routes.remove(entry.key, entry);
+                        return true;
+                    }
+                }
+                return entry.removed;
+            });
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public String toString() {
+        return "RouteCache[" + size() + "/" + capacity + " routes, " + getHitCount() + " hits, "
+            + getMissCount() + " misses, " + getEvictionCount() + " evictions]";
+    }
+
+    private static final class Entry
+    {
+        final long key;
+        final List<Connection> route;
+        volatile boolean referenced;
+        // Set under the lock once the entry has left the map; its slot in
+        // the clock is then skipped.
+        boolean removed;
+
+        Entry(long key, List<Connection> route) {
+            this.key = key;
+            this.route = route;
+        }
+    }
+}
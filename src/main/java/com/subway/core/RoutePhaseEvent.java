@@ -0,0 +1,35 @@
+package com.subway.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight recorder event for one phase of a getDirections call that was not
+// answered from the route cache: the search, or turning its edges into the
+// route's connections.
+@Name("com.subway.RoutePhase")
+@Label("Route Phase")
+@Category("Subway")
+@Description("Searching for a fewest-stops route or reconstructing it")
+@StackTrace(false)
+final class RoutePhaseEvent extends Event
+{
+    static final String SEARCH = "search";
+    static final String RECONSTRUCT = "reconstruct";
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Stations")
+    int stationCount;
+
+    @Label("Expanded Stations")
+    @Description("Stations dequeued by the search; 0 for an all-pairs table walk")
+    int expandedCount;
+
+    @Label("Route Length")
+    int routeLength;
+}
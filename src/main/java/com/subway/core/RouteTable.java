@@ -0,0 +1,248 @@
+package com.subway.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// All-pairs fewest-hops table. Row s holds, for every station t, the hop count
+// of the route s -> t and the last edge on it, taken from a full BFS tree
+// rooted at s. Walking those edges back from t therefore reproduces exactly the
+// route findPath would have returned, ties included, without searching.
+//
+// Storage is one int and one short per ordered pair of stations not removed;
+// see estimateBytes. Rows and columns are indexed through columns, which skips
+// removed stations. Rows are built in parallel, one BFS per source.
+public final class RouteTable
+{
+    public static final int MAX_STATIONS = Short.MAX_VALUE;
+    private static final int BYTES_PER_PAIR = Integer.BYTES + Short.BYTES;
+    private static final int SOURCES_PER_TASK = 16;
+    private static final int[] EMPTY_PATH = new int[0];
+
+    private final SubwayGraph graph;
+    private final ForkJoinPool pool;
+    // Row and column of each station id, -1 for removed stations.
+    private final int[] columns;
+    private final int stationCount;
+    private final int[] lastEdges;
+    private final short[] hops;
+
+    private RouteTable(SubwayGraph graph, ForkJoinPool pool) {
+        this.graph = graph;
+        this.pool = pool;
+        this.columns = new int[graph.getStationCount()];
+        int live = 0;
+        for (int station = 0; station < columns.length; station++) {
+            columns[station] = graph.isRemoved(station) ? -1 : live++;
+        }
+        this.stationCount = live;
+        this.lastEdges = new int[stationCount * stationCount];
+        this.hops = new short[stationCount * stationCount];
+    }
+
+    public static RouteTable build(SubwayGraph graph, int maxStations) {
+        return build(graph, maxStations, ForkJoinPool.commonPool());
+    }
+
+    public static RouteTable build(SubwayGraph graph, int maxStations, ForkJoinPool pool) {
+        if (!canBuild(graph, maxStations)) {
+            int live = graph.getStationCount() - graph.getRemovedCount();
+            throw new IllegalStateException("Refusing to build an all-pairs table for " + live
+                + " stations (limit " + Math.min(maxStations, MAX_STATIONS) + ", would need about "
+                + estimateBytes(live) / (1024 * 1024) + " MB)");
+        }
+        RouteTable table = new RouteTable(graph, pool);
+        int[] sources = new int[table.stationCount];
+        for (int source = 0; source < table.columns.length; source++) {
+            if (table.columns[source] >= 0) {
+                sources[table.columns[source]] = source;
+            }
+        }
+        pool.invoke(table.new BuildTask(sources, 0, sources.length));
+        return table;
+    }
+
+    // The table for a later graph of the same Subway, built on the same pool.
+    // Rows not in staleRows are carried over, their edge ids found again
+    // through each Connection's current slot; stale rows and the rows of new
+    // stations are searched again. The caller checks the graph against the
+    // limit.
+    static RouteTable update(RouteTable table, SubwayGraph graph, BitSet staleRows) {
+        SubwayGraph previous = table.graph;
+        int n = graph.getStationCount();
+        int[] edges = new int[previous.getEdgeCount()];
+        for (int e = 0; e < edges.length; e++) {
+            Connection connection = previous.getConnection(e);
+            edges[e] = connection.slot < 0 ? -1 : graph.getFirstEdge(connection.getStation1().index) + connection.slot;
+        }
+
+        RouteTable updated = new RouteTable(graph, table.pool);
+        int[] sources = new int[updated.stationCount];
+        int stale = 0;
+        for (int source = 0; source < n; source++) {
+            int row = updated.columns[source];
+            if (row < 0) {
+                continue;
+            }
+            int oldRow = table.column(source);
+            if (oldRow < 0 || staleRows.get(source)) {
+                sources[stale++] = source;
+                continue;
+            }
+            row *= updated.stationCount;
+            oldRow *= table.stationCount;
+            for (int station = 0; station < n; station++) {
+                int column = updated.columns[station];
+                if (column < 0) {
+                    continue;
+                }
+                int oldColumn = table.column(station);
+                int edge = oldColumn < 0 ? -1 : table.lastEdges[oldRow + oldColumn];
+                updated.lastEdges[row + column] = edge < 0 ? -1 : edges[edge];
+                updated.hops[row + column] = oldColumn < 0 ? -1 : table.hops[oldRow + oldColumn];
+            }
+        }
+        table.pool.invoke(updated.new BuildTask(sources, 0, stale));
+        return updated;
+    }
+
+    // Adds to rows the sources whose routes a new connection between two
+    // stations can change: those from which the two are not equally far.
+    void collectRowsChangedByAdding(int station1, int station2, BitSet rows) {
+        for (int source = 0; source < columns.length; source++) {
+            if (columns[source] >= 0 && hopsFrom(source, station1) != hopsFrom(source, station2)) {
+                rows.set(source);
+            }
+        }
+    }
+
+    // Adds to rows the sources whose routes end in the given connection, so
+    // that removing it changes them.
+    void collectRowsChangedByRemoving(Connection connection, BitSet rows) {
+        int column = column(connection.getStation2().index);
+        if (column < 0) {
+            return;
+        }
+        for (int source = 0; source < columns.length; source++) {
+            int row = columns[source];
+            if (row < 0) {
+                continue;
+            }
+            int edge = lastEdges[row * stationCount + column];
+            if (edge >= 0 && graph.getConnection(edge) == connection) {
+                rows.set(source);
+            }
+        }
+    }
+
+    private int hopsFrom(int source, int station) {
+        int column = column(station);
+        return column < 0 ? -1 : hops[columns[source] * stationCount + column];
+    }
+
+    // The row and column of a station, or -1 when it is removed or newer
+    // than the table.
+    private int column(int station) {
+        return station >= 0 && station < columns.length ? columns[station] : -1;
+    }
+
+    // Whether build accepts a network of the given size.
+    public static boolean canBuild(int stationCount, int maxStations) {
+        return stationCount <= Math.min(maxStations, MAX_STATIONS);
+    }
+
+    // Removed stations do not count towards the limit and get no row or
+    // column.
+    static boolean canBuild(SubwayGraph graph, int maxStations) {
+        return canBuild(graph.getStationCount() - graph.getRemovedCount(), maxStations);
+    }
+
+    // Heap needed by the table for a network of the given size.
+    public static long estimateBytes(int stationCount) {
+        return (long) stationCount * stationCount * BYTES_PER_PAIR;
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public long getMemoryBytes() {
+        return estimateBytes(stationCount);
+    }
+
+    // Fewest hops from one station to another, or -1 when unreachable.
+    public int getHopCount(int start, int end) {
+        return columns[end] < 0 ? -1 : hops[columns[start] * stationCount + columns[end]];
+    }
+
+    // Same contract as SubwayGraph.findPath. A round trip (start == end) is not
+    // stored in the table and falls back to a search.
+    public int[] findPath(int start, int end) {
+        if (start == end) {
+            return graph.findPath(start, end);
+        }
+        if (columns[end] < 0) {
+            return EMPTY_PATH;
+        }
+        int row = columns[start] * stationCount;
+        int length = hops[row + columns[end]];
+        if (length < 0) {
+            return EMPTY_PATH;
+        }
+        int[] path = new int[length];
+        int station = end;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = lastEdges[row + columns[station]];
+            station = graph.getSource(path[i]);
+        }
+        return path;
+    }
+
+    private void fillRow(int source, SearchWorkspace workspace) {
+        int row = columns[source] * stationCount;
+        Arrays.fill(lastEdges, row, row + stationCount, -1);
+        Arrays.fill(hops, row, row + stationCount, (short) -1);
+        BreadthFirstSearch.search(graph, source, -1, workspace);
+
+        // Stations leave the queue in BFS order, so a parent's hop count is
+        // always known before its children's.
+        hops[row + columns[source]] = 0;
+        for (int i = 1; i < workspace.expanded; i++) {
+            int station = workspace.queue[i];
+            int edge = workspace.parentEdge[station];
+            lastEdges[row + columns[station]] = edge;
+            hops[row + columns[station]] = (short) (hops[row + columns[graph.getSource(edge)]] + 1);
+        }
+    }
+
+    // Fills the rows of sources[from..to).
+    private final class BuildTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] sources;
+        private final int from;
+        private final int to;
+
+        BuildTask(int[] sources, int from, int to) {
+            this.sources = sources;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from <= SOURCES_PER_TASK) {
+                SearchWorkspace workspace = SearchWorkspace.forStations(columns.length);
+                for (int i = from; i < to; i++) {
+                    fillRow(sources[i], workspace);
+                }
+            }
+            else
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BuildTask(sources, from, middle), new BuildTask(sources, middle, to));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.subway.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and histograms for Subway.getDirections, recorded only while
+// installed with Subway.setMetrics; without them a query pays one volatile
+// read. A query is timed from the call to the returned route. Failures are
+// the queries naming an unknown station and are counted apart from queries.
+// Expanded stations are those the fewest-stops search dequeued, 0 for routes
+// served from the route cache or the all-pairs table.
+public final class RoutingMetrics implements RoutingMetricsMXBean
+{
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongHistogram latency = new LongHistogram();
+    private final LongHistogram expanded = new LongHistogram();
+    private final LongHistogram routeLengths = new LongHistogram();
+    private ObjectName registeredName;
+
+    void recordQuery(long nanos, int expandedStations, int routeLength) {
+        queries.increment();
+        latency.record(nanos);
+        expanded.record(expandedStations);
+        routeLengths.record(routeLength);
+    }
+
+    void recordFailure() {
+        failures.increment();
+    }
+
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    // In nanoseconds.
+    public LongHistogram.Snapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    public LongHistogram.Snapshot getExpandedStations() {
+        return expanded.snapshot();
+    }
+
+    // In connections.
+    public LongHistogram.Snapshot getRouteLengths() {
+        return routeLengths.snapshot();
+    }
+
+    public double getLatencyMeanMicros() {
+        return latency.snapshot().getMean() / 1000;
+    }
+
+    public double getLatencyP50Micros() {
+        return latency.snapshot().getValueAtPercentile(50) / 1000.0;
+    }
+
+    public double getLatencyP99Micros() {
+        return latency.snapshot().getValueAtPercentile(99) / 1000.0;
+    }
+
+    public double getLatencyP999Micros() {
+        return latency.snapshot().getValueAtPercentile(99.9) / 1000.0;
+    }
+
+    public double getLatencyMaxMicros() {
+        return latency.snapshot().getMax() / 1000.0;
+    }
+
+    public double getMeanExpandedStations() {
+        return expanded.snapshot().getMean();
+    }
+
+    public double getMeanRouteLength() {
+        return routeLengths.snapshot().getMean();
+    }
+
+    public String getSnapshot() {
+        return toString();
+    }
+
+    public void reset() {
+        queries.reset();
+        failures.reset();
+        latency.reset();
+        expanded.reset();
+        routeLengths.reset();
+    }
+
+    // Publishes these metrics on the platform MBean server; a second call
+    // moves them to the new name.
+    public synchronized ObjectName register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName("com.subway:type=RoutingMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+        return objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (registeredName != null) {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    public String toString() {
+        return "queries=" + getQueryCount() + " failures=" + getFailureCount() + "\n"
+            + "latency (us): " + latency.snapshot().toString(1000) + "\n"
+            + "expanded stations: " + expanded.snapshot() + "\n"
+            + "route length: " + routeLengths.snapshot();
+    }
+}
@@ -0,0 +1,29 @@
+package com.subway.core;
+
+// What RoutingMetrics shows through JMX, under
+// com.subway:type=RoutingMetrics,name=<name>. Latencies are in microseconds.
+public interface RoutingMetricsMXBean
+{
+    long getQueryCount();
+
+    long getFailureCount();
+
+    double getLatencyMeanMicros();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyP999Micros();
+
+    double getLatencyMaxMicros();
+
+    double getMeanExpandedStations();
+
+    double getMeanRouteLength();
+
+    // The same text as RoutingMetrics.toString().
+    String getSnapshot();
+
+    void reset();
+}
@@ -0,0 +1,10 @@
+package com.subway.core;
+
+public enum RoutingMode
+{
+    FEWEST_STOPS,
+    DIJKSTRA,
+    BIDIRECTIONAL_DIJKSTRA,
+    A_STAR,
+    CONTRACTION_HIERARCHY
+}
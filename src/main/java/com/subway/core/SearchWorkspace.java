@@ -0,0 +1,51 @@
+package com.subway.core;
+
+import java.util.Arrays;
+
+// Per-thread scratch arrays for graph searches. Arrays only ever grow, so once
+// a thread has answered a query on a network of a given size, further queries
+// on that network run without allocating.
+final class SearchWorkspace
+{
+    private static final ThreadLocal<SearchWorkspace> CURRENT = ThreadLocal.withInitial(SearchWorkspace::new);
+
+    long[] visited = new long[0];
+    int[] queue = new int[0];
+    int[] parentEdge = new int[0];
+    int expanded;
+    final DijkstraLabels forward = new DijkstraLabels();
+    final DijkstraLabels backward = new DijkstraLabels();
+
+    static SearchWorkspace forStations(int stationCount) {
+        SearchWorkspace workspace = CURRENT.get();
+        workspace.ensureStations(stationCount);
+        return workspace;
+    }
+
+    static SearchWorkspace forStates(int stationCount, int stateCount) {
+        SearchWorkspace workspace = forStations(stationCount);
+        workspace.forward.ensureCapacity(stateCount);
+        workspace.backward.ensureCapacity(stateCount);
+        return workspace;
+    }
+
+    private void ensureStations(int stationCount) {
+        if (queue.length < stationCount) {
+            visited = new long[(stationCount + 63) >>> 6];
+            queue = new int[stationCount];
+            parentEdge = new int[stationCount];
+        }
+    }
+
+    void clearVisited(int stationCount) {
+        Arrays.fill(visited, 0, (stationCount + 63) >>> 6, 0L);
+    }
+
+    boolean isVisited(int station) {
+        return (visited[station >>> 6] & (1L << station)) != 0;
+    }
+
+    void markVisited(int station) {
+        visited[station >>> 6] |= 1L << station;
+    }
+}
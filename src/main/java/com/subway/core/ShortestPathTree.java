@@ -0,0 +1,106 @@
+package com.subway.core;
+
+import java.util.Arrays;
+
+// Fewest-hops routes from one origin to every station, kept as the parent edge
+// of each station in a full BFS tree. Walking parents back from a destination
+// gives exactly the route SubwayGraph.findPath returns for that pair.
+public final class ShortestPathTree
+{
+    private final SubwayGraph graph;
+    private final int origin;
+    private final int[] parentEdges;
+    private final int[] hops;
+
+    ShortestPathTree(SubwayGraph graph, int origin) {
+        int n = graph.getStationCount();
+        this.graph = graph;
+        this.origin = origin;
+        this.parentEdges = new int[n];
+        this.hops = new int[n];
+        Arrays.fill(parentEdges, -1);
+        Arrays.fill(hops, -1);
+
+        SearchWorkspace workspace = SearchWorkspace.forStations(n);
+        BreadthFirstSearch.search(graph, origin, -1, workspace);
+        hops[origin] = 0;
+        for (int i = 1; i < workspace.expanded; i++) {
+            int station = workspace.queue[i];
+            int edge = workspace.parentEdge[station];
+            parentEdges[station] = edge;
+            hops[station] = hops[graph.getSource(edge)] + 1;
+        }
+    }
+
+    // The same tree on a later graph of the same Subway, for a tree that
+    // survived every change in between: stations keep their ids, and each
+    // parent edge is found again through its Connection's current slot.
+    ShortestPathTree(ShortestPathTree tree, SubwayGraph graph) {
+        int n = graph.getStationCount();
+        int known = tree.hops.length;
+        this.graph = graph;
+        this.origin = tree.origin;
+        this.parentEdges = Arrays.copyOf(tree.parentEdges, n);
+        this.hops = Arrays.copyOf(tree.hops, n);
+        Arrays.fill(parentEdges, known, n, -1);
+        Arrays.fill(hops, known, n, -1);
+        for (int station = 0; station < known; station++) {
+            int edge = parentEdges[station];
+            if (edge >= 0) {
+                Connection connection = tree.graph.getConnection(edge);
+                parentEdges[station] = graph.getFirstEdge(connection.getStation1().index) + connection.slot;
+            }
+        }
+    }
+
+    // Whether a new connection between two stations leaves the tree as it is:
+    // only when both are equally far from the origin, or both unreachable,
+    // can the search not take it.
+    boolean survivesAdding(int station1, int station2) {
+        return hopsTo(station1) == hopsTo(station2);
+    }
+
+    // Whether removing a connection leaves the tree as it is, which is when
+    // it is not the parent edge of the station it leads to.
+    boolean survivesRemoving(Connection connection) {
+        int station = connection.getStation2().index;
+        int edge = station >= 0 && station < parentEdges.length ? parentEdges[station] : -1;
+        return edge < 0 || graph.getConnection(edge) != connection;
+    }
+
+    private int hopsTo(int station) {
+        return station < hops.length ? hops[station] : -1;
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public int getOrigin() {
+        return origin;
+    }
+
+    public boolean isReachable(int station) {
+        return hops[station] >= 0;
+    }
+
+    // Fewest hops from the origin, or -1 when unreachable.
+    public int getHopCount(int station) {
+        return hops[station];
+    }
+
+    // Same contract as SubwayGraph.findPath(origin, end); the round trip back
+    // to the origin is not part of the tree and is searched for.
+    public int[] findPath(int end) {
+        if (end == origin) {
+            return graph.findPath(origin, end);
+        }
+        int[] path = new int[Math.max(hops[end], 0)];
+        int station = end;
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = parentEdges[station];
+            station = graph.getSource(path[i]);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,65 @@
+package com.subway.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+// The current version of the network for query threads. Readers call get()
+// once per request and keep using that snapshot; a reload builds the next
+// version off to the side and publishes it with a single reference swap, so
+// no reader ever sees a half-loaded network or waits on a lock.
+public final class SnapshotHolder
+{
+    private final AtomicReference<SubwaySnapshot> current;
+    private final SubwayLoader loader;
+
+    public SnapshotHolder(SubwaySnapshot initial) {
+        this(initial, new SubwayLoader());
+    }
+
+    // Reloads go through the given loader, with its charset and parallel
+    // parsing settings.
+    public SnapshotHolder(SubwaySnapshot initial, SubwayLoader loader) {
+        if (initial == null) {
+            throw new IllegalArgumentException("Initial snapshot must not be null");
+        }
+        if (loader == null) {
+            throw new IllegalArgumentException("Loader must not be null");
+        }
+        this.current = new AtomicReference<>(initial);
+        this.loader = loader;
+    }
+
+    public SubwaySnapshot get() {
+        return current.get();
+    }
+
+    // Returns the snapshot it replaced.
+    public SubwaySnapshot publish(SubwaySnapshot snapshot) {
+        if (snapshot == null) {
+            throw new IllegalArgumentException("Snapshot must not be null");
+        }
+        return current.getAndSet(snapshot);
+    }
+
+    public SubwaySnapshot reload(File subwayFile) throws IOException {
+        SubwaySnapshot snapshot = loader.loadSnapshot(subwayFile);
+        publish(snapshot);
+        return snapshot;
+    }
+
+    // Loads on the given executor; queries keep being answered from the old
+    // snapshot until the load has finished. A failed load leaves it in place.
+    public CompletableFuture<SubwaySnapshot> reloadAsync(File subwayFile, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return reload(subwayFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+}
@@ -1,17 +1,53 @@
 package com.subway.core;
 
+import java.util.Locale;
+
 public class Station
 {
     private String name;
-    
+    private String key;
+    private double x = Double.NaN;
+    private double y = Double.NaN;
+    // Position in the owning Subway's station list, set when it is added.
+    int index = -1;
+
     public Station(String name) {
         this.name = name;
+        this.key = keyOf(name);
     }
-    
+
+    public Station(String name, double x, double y) {
+        this(name);
+        this.x = x;
+        this.y = y;
+    }
+
     public String getName() {
         return name;
     }
-    
+
+    public boolean hasLocation() {
+        return !Double.isNaN(x) && !Double.isNaN(y);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    // Locale-independent, because keys are hashed into compiled network files
+    // and fingerprints that may be read under a different default locale.
+    static String keyOf(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
     public boolean equals(Object obj) {
         if (obj instanceof Station) {
             Station otherStation = (Station) obj;
@@ -22,8 +58,8 @@ public class Station
         }
         return false;
     }
-    
+
     public int hashCode() {
-        return name.toLowerCase().hashCode();
+        return key.hashCode();
     }
 }
@@ -1,160 +1,816 @@
 package com.subway.core;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class Subway
 {
-    private List stations;
-    private List connections;
-    private Map network;
-    
+    public static final int DEFAULT_ALL_PAIRS_LIMIT = 4096;
+    public static final int DEFAULT_ROUTE_CACHE_SIZE = 1024;
+    public static final int TREE_CACHE_SIZE = 64;
+
+    private List<Station> stations;
+    private Map<String, Integer> stationIds;
+    private List<List<Connection>> adjacency;
+    // Closed stations keep their ids, with no connections, until they are a
+    // quarter of all stations; see compactIfSparse.
+    private final BitSet removedStations = new BitSet();
+    private int removedCount;
+    private volatile Map<ConnectionKey, Connection> connectionIndex;
+    private int connectionCount;
+    private double transferPenalty;
+    private SubwayGraph graph;
+    // Set by every change to the network. The next getGraph patches the
+    // graph for the stations whose connections changed and those added.
+    private volatile boolean graphStale;
+    private final BitSet changedStations = new BitSet();
+    private ContractionHierarchy hierarchy;
+    private boolean allPairs;
+    private int allPairsLimit = DEFAULT_ALL_PAIRS_LIMIT;
+    private RouteTable routeTable;
+    // Rows of routeTable that changes since it was built have invalidated.
+    private final BitSet staleRows = new BitSet();
+    private Timetable timetable;
+    private volatile RouteCache routeCache = new RouteCache(DEFAULT_ROUTE_CACHE_SIZE);
+    private volatile RoutingMetrics metrics;
+    private final Map<Integer, ShortestPathTree> trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+            return size() > TREE_CACHE_SIZE;
+        }
+    };
+
     public Subway() {
-        this.stations = new LinkedList();
-        this.connections = new LinkedList();
-        this.network = new HashMap();
+        this.stations = new ArrayList<>();
+        this.stationIds = new HashMap<>();
+        this.adjacency = new ArrayList<>();
     }
-    
+
     public void addStation(String stationName) {
-        if (!this.hasStation(stationName)) {
-            Station station = new Station(stationName);
-            stations.add(station);
+        addStation(new Station(stationName));
+    }
+
+    public void addStation(String stationName, double x, double y) {
+        addStation(new Station(stationName, x, y));
+    }
+
+    // Returns the id of the station, which is the existing one's if a station
+    // of that name was already added.
+    int addStation(Station station) {
+        Integer id = stationIds.putIfAbsent(station.getKey(), stations.size());
+        if (id != null) {
+            return id;
+        }
+        station.index = stations.size();
+        stations.add(station);
+        adjacency.add(new ArrayList<>());
+        // A new station has no connections yet, so only the graph changes.
+        graphStale = true;
+        return stations.size() - 1;
+    }
+
+    // Closes a station: it and every connection touching it are removed. Other
+    // stations keep their ids. Returns false if there is no such station.
+    public boolean removeStation(String stationName) {
+        List<Connection> removed = new ArrayList<>();
+        if (!unlinkStation(stationName, removed)) {
+            return false;
         }
+        routeCache.evictRoutesUsing(removed);
+        compactIfSparse();
+        return true;
     }
-    
+
+    // Unlinks the station's connections, adding them and their reverses to
+    // removed, and leaves its id behind as a removed station.
+    private boolean unlinkStation(String stationName, List<Connection> removed) {
+        int id = getStationId(stationName);
+        if (id < 0) {
+            return false;
+        }
+        List<Connection> connections = adjacency.get(id);
+        while (!connections.isEmpty()) {
+            Connection connection = connections.get(connections.size() - 1);
+            unlinkConnection(connection);
+            removed.add(connection);
+            removed.add(connection.reverse);
+        }
+        Station station = stations.get(id);
+        stationIds.remove(station.getKey());
+        station.index = -1;
+        removedStations.set(id);
+        removedCount++;
+        changedStations.set(id);
+        graphStale = true;
+        synchronized (trees) {
+            trees.remove(id);
+        }
+        if (routeTable != null) {
+            staleRows.set(id);
+        }
+        return true;
+    }
+
+    // Once removed stations make up a quarter of the ids, renumbers the rest
+    // and starts every derived structure, cached routes included, afresh.
+    private void compactIfSparse() {
+        if (removedCount == 0 || removedCount < stations.size() / 4) {
+            return;
+        }
+        List<Station> kept = new ArrayList<>(stations.size() - removedCount);
+        List<List<Connection>> keptAdjacency = new ArrayList<>(stations.size() - removedCount);
+        for (int id = 0; id < stations.size(); id++) {
+            if (!removedStations.get(id)) {
+                Station station = stations.get(id);
+                station.index = kept.size();
+                stationIds.put(station.getKey(), station.index);
+                kept.add(station);
+                keptAdjacency.add(adjacency.get(id));
+            }
+        }
+        stations = kept;
+        adjacency = keptAdjacency;
+        removedStations.clear();
+        removedCount = 0;
+        connectionIndex = null;
+        graph = null;
+        resetDerived();
+    }
+
+    private void resetDerived() {
+        changedStations.clear();
+        hierarchy = null;
+        routeTable = null;
+        staleRows.clear();
+        synchronized (trees) {
+            trees.clear();
+        }
+        routeCache.invalidate();
+    }
+
     public boolean hasStation(String stationName) {
-        return stations.contains(new Station(stationName));
+        return stationIds.containsKey(Station.keyOf(stationName));
     }
-    
+
+    int getStationId(String stationName) {
+        Integer id = stationIds.get(Station.keyOf(stationName));
+        return id == null ? -1 : id;
+    }
+
     public void addConnection(String station1Name, String station2Name, String lineName) {
-        if ((this.hasStation(station1Name)) && (this.hasStation(station2Name))) {
-            Station station1 = new Station(station1Name);
-            Station station2 = new Station(station2Name);
-            Connection connection = new Connection(station1, station2, lineName);
-            connections.add(connection);
-            connections.add(new Connection(station2, station1, connection.getLineName()));
-            
-            addToNetwork(station1, station2);
-            addToNetwork(station2, station1);
+        addConnection(station1Name, station2Name, lineName, Connection.DEFAULT_TRAVEL_TIME);
+    }
+
+    public void addConnection(String station1Name, String station2Name, String lineName, double travelTime) {
+        if (!(travelTime >= 0)) {
+            throw new IllegalArgumentException("Invalid travel time " + travelTime + " for [" + station1Name + ", " + station2Name + ", " + lineName + "]");
+        }
+        Integer id1 = stationIds.get(Station.keyOf(station1Name));
+        Integer id2 = stationIds.get(Station.keyOf(station2Name));
+        if ((id1 != null) && (id2 != null)) {
+            addConnection(id1, id2, lineName, travelTime);
         }
         else
         {
             throw new RuntimeException("Invalid connection: [" + station1Name + ", " + station2Name + ", " + lineName + "]");
         }
     }
-    
-    private void addToNetwork(Station station1, Station station2) {
-        if (network.keySet().contains(station1)) {
-            List connectingStations = (List) network.get(station1);
-            if (!connectingStations.contains(station2)) {
-                connectingStations.add(station2);
-            }
-        } else {
-            List connectingStations = new LinkedList();
-            connectingStations.add(station2);
-            network.put(station1, connectingStations);
+
+    // Same as the name-based version for stations already resolved to ids.
+    void addConnection(int id1, int id2, String lineName, double travelTime) {
+        linkConnection(id1, id2, lineName, travelTime);
+        // A new connection can shorten any route.
+        routeCache.invalidate();
+    }
+
+    // The loaders' bulk path: links a connection without invalidating
+    // anything derived from the network. The loader calls connectionsLoaded
+    // once it has added the last one.
+    void loadConnection(int id1, int id2, String lineName, double travelTime) {
+        checkTravelTime(id1, id2, lineName, travelTime);
+        appendConnection(id1, id2, lineName, travelTime);
+    }
+
+    // A load can change any route, so everything derived from the network
+    // starts afresh, as after compaction.
+    void connectionsLoaded() {
+        graphStale = true;
+        graph = null;
+        resetDerived();
+    }
+
+    private void linkConnection(int id1, int id2, String lineName, double travelTime) {
+        checkTravelTime(id1, id2, lineName, travelTime);
+        connectionAdded(id1, id2);
+        appendConnection(id1, id2, lineName, travelTime);
+    }
+
+    private void checkTravelTime(int id1, int id2, String lineName, double travelTime) {
+        if (!(travelTime >= 0)) {
+            throw new IllegalArgumentException("Invalid travel time " + travelTime + " for [" + stations.get(id1).getName()
+                + ", " + stations.get(id2).getName() + ", " + lineName + "]");
         }
     }
-    
-    public List getDirections(String startStationName, String endStationName) {
-        if (!this.hasStation(startStationName) || !this.hasStation(endStationName))
-        {
-            throw new RuntimeException("Stations entered do not exist on this subway");
+
+    private void appendConnection(int id1, int id2, String lineName, double travelTime) {
+        Station station1 = stations.get(id1);
+        Station station2 = stations.get(id2);
+        Connection connection = new Connection(station1, station2, lineName, travelTime);
+        Connection reverse = new Connection(station2, station1, lineName, travelTime);
+        connection.reverse = reverse;
+        reverse.reverse = connection;
+        connection.slot = adjacency.get(id1).size();
+        adjacency.get(id1).add(connection);
+        reverse.slot = adjacency.get(id2).size();
+        adjacency.get(id2).add(reverse);
+        Map<ConnectionKey, Connection> index = connectionIndex;
+        if (index != null) {
+            String lineKey = lineKey(lineName);
+            index.putIfAbsent(new ConnectionKey(id1, id2, lineKey), connection);
+            index.putIfAbsent(new ConnectionKey(id2, id1, lineKey), reverse);
         }
-        
-        Station start = new Station(startStationName);
-        Station end = new Station(endStationName);
-        List route = new LinkedList();
-        List reachableStations = new LinkedList();
-        Map previousStations = new HashMap();
-        List neighbors = (List)network.get(start);
-        
-        for (Iterator i = neighbors.iterator(); i.hasNext(); ) {
-            Station station = (Station) i.next();
-            if (station.equals(end)) {
-                route.add(getConnection(start, end));
-                return route;
-            } else {
-                reachableStations.add(station);
-                previousStations.put(station, start);
-            }
-        }
-        
-        List nextStations = new LinkedList();
-        nextStations.addAll(neighbors);
-        Station currentStation = start;
-        
-        searchLoop:
-        for (int i = 1; i < stations.size(); i++) {
-            List tmpNextStations = new LinkedList();
-            for (Iterator j = nextStations.iterator(); j.hasNext(); ) {
-                Station station = (Station) j.next();
-                reachableStations.add(station);
-                currentStation = station;
-                List currentNeighbors = (List) network.get(currentStation);
-                for (Iterator k = currentNeighbors.iterator(); k.hasNext(); ) {
-                    Station neighbor = (Station) k.next();
-                    if (neighbor.equals(end)) {
-                        reachableStations.add(neighbor);
-                        previousStations.put(neighbor, currentStation);
-                        break searchLoop;
-                    } else if (!reachableStations.contains(neighbor)) {
-                        reachableStations.add(neighbor);
-                        tmpNextStations.add(neighbor);
-                        previousStations.put(neighbor, currentStation);
+        connectionCount += 2;
+    }
+
+    // Removes the connection between two stations on a line, in both
+    // directions; the one getConnection returns if there are several.
+    // Returns false if there is none.
+    public boolean removeConnection(String station1Name, String station2Name, String lineName) {
+        Connection connection = findConnection(station1Name, station2Name, lineName);
+        if (connection == null) {
+            return false;
+        }
+        unlinkConnection(connection);
+        routeCache.evictRoutesUsing(Arrays.asList(connection, connection.reverse));
+        return true;
+    }
+
+    // What getConnection returns, found by scanning the first station's
+    // adjacency list so that removals never need the connection index.
+    private Connection findConnection(String station1Name, String station2Name, String lineName) {
+        int from = getStationId(station1Name);
+        int to = getStationId(station2Name);
+        if (from < 0 || to < 0) {
+            return null;
+        }
+        String lineKey = lineKey(lineName);
+        for (Connection connection : adjacency.get(from)) {
+            if (connection.getStation2().index == to && lineKey(connection.getLineName()).equals(lineKey)) {
+                return connection;
+            }
+        }
+        return null;
+    }
+
+    // Takes a connection and its reverse out of their adjacency lists and the
+    // connection index, and drops what routed over them.
+    private void unlinkConnection(Connection connection) {
+        connectionRemoved(connection);
+        for (Connection direction : new Connection[] { connection, connection.reverse }) {
+            List<Connection> connections = adjacency.get(direction.getStation1().index);
+            connections.remove(direction.slot);
+            for (int i = direction.slot; i < connections.size(); i++) {
+                connections.get(i).slot = i;
+            }
+            direction.slot = -1;
+            Map<ConnectionKey, Connection> index = connectionIndex;
+            if (index != null) {
+                int from = direction.getStation1().index;
+                int to = direction.getStation2().index;
+                String lineKey = lineKey(direction.getLineName());
+                ConnectionKey key = new ConnectionKey(from, to, lineKey);
+                if (index.get(key) == direction) {
+                    index.remove(key);
+                    for (Connection other : connections) {
+                        if (other.getStation2().index == to && lineKey(other.getLineName()).equals(lineKey)) {
+                            index.put(key, other);
+                            break;
+                        }
                     }
                 }
             }
-            nextStations = tmpNextStations;
-        }
-        
-        //We've found the path now!
-        boolean keepLooping = true;
-        Station keyStation = end;
-        Station station;
-        
-        while (keepLooping) {
-            station = (Station) previousStations.get(keyStation);
-            if (station != null) {
-                route.add(0, getConnection(station, keyStation));
-                if (start.equals(station)) {
-                    keepLooping = false;
+        }
+        connectionCount -= 2;
+    }
+
+    // Every change to the connections marks both stations for the next graph
+    // and drops the derived structures it can alter: the contraction
+    // hierarchy, whose shortcuts stand for paths over any edge, and only those
+    // shortest-path trees and all-pairs table rows whose routes it changes.
+    // What survives is moved onto the next graph when it is first used.
+    private void connectionAdded(int id1, int id2) {
+        graphStale = true;
+        if (graph == null) {
+            return;
+        }
+        changedStations.set(id1);
+        changedStations.set(id2);
+        hierarchy = null;
+        synchronized (trees) {
+            trees.values().removeIf(tree -> !tree.survivesAdding(id1, id2));
+        }
+        RouteTable table = routeTable;
+        if (table != null) {
+            table.collectRowsChangedByAdding(id1, id2, staleRows);
+        }
+    }
+
+    private void connectionRemoved(Connection connection) {
+        graphStale = true;
+        if (graph == null) {
+            return;
+        }
+        changedStations.set(connection.getStation1().index);
+        changedStations.set(connection.getStation2().index);
+        hierarchy = null;
+        synchronized (trees) {
+            trees.values().removeIf(tree -> !tree.survivesRemoving(connection) || !tree.survivesRemoving(connection.reverse));
+        }
+        RouteTable table = routeTable;
+        if (table != null) {
+            table.collectRowsChangedByRemoving(connection, staleRows);
+            table.collectRowsChangedByRemoving(connection.reverse, staleRows);
+        }
+    }
+
+    // Applies a delta's changes in order, then invalidates cached routes once:
+    // only those through removed connections, closed stations' included,
+    // unless connections were added, which can change any route. Returns the
+    // number of changes that took effect; adding a station that exists or
+    // removing one that does not is not a change. Stops at the first
+    // connection between unknown stations, keeping earlier changes.
+    public int applyDelta(NetworkDelta delta) {
+        int applied = 0;
+        boolean added = false;
+        List<Connection> removed = new ArrayList<>();
+        try {
+            for (NetworkDelta.Change change : delta.getChanges()) {
+                switch (change.getType()) {
+                    case ADD_STATION:
+                        int count = stations.size();
+                        addStation(new Station(change.getStation1(), change.getX(), change.getY()));
+                        applied += stations.size() - count;
+                        break;
+                    case REMOVE_STATION:
+                        if (unlinkStation(change.getStation1(), removed)) {
+                            applied++;
+                        }
+                        break;
+                    case ADD_CONNECTION:
+                        Integer id1 = stationIds.get(Station.keyOf(change.getStation1()));
+                        Integer id2 = stationIds.get(Station.keyOf(change.getStation2()));
+                        if (id1 == null || id2 == null) {
+                            throw new RuntimeException("Invalid connection: [" + change.getStation1() + ", "
+                                + change.getStation2() + ", " + change.getLineName() + "]");
+                        }
+                        linkConnection(id1, id2, change.getLineName(), change.getTravelTime());
+                        added = true;
+                        applied++;
+                        break;
+                    default:
+                        Connection connection = findConnection(change.getStation1(), change.getStation2(), change.getLineName());
+                        if (connection != null) {
+                            unlinkConnection(connection);
+                            removed.add(connection);
+                            removed.add(connection.reverse);
+                            applied++;
+                        }
+                        break;
                 }
-                keyStation = station;
+            }
+        } finally {
+            if (added) {
+                routeCache.invalidate();
+            } else if (!removed.isEmpty()) {
+                routeCache.evictRoutesUsing(removed);
+            }
+            compactIfSparse();
+        }
+        return applied;
+    }
+
+    // The graph of the network as it is now. After a change touching up to an
+    // eighth of the stations it is patched from the previous graph, otherwise
+    // built in full; a contraction hierarchy that survived the change moves
+    // onto it.
+    public SubwayGraph getGraph() {
+        if (!graphStale) {
+            SubwayGraph current = graph;
+            if (current != null) {
+                return current;
+            }
+        }
+        synchronized (changedStations) {
+            SubwayGraph current = graph;
+            if (current != null && !graphStale) {
+                return current;
+            }
+            LoadPhaseEvent event = new LoadPhaseEvent();
+            event.begin();
+            if (current != null && changedStations.cardinality() + stations.size() - current.getStationCount() <= stations.size() / 8) {
+                current = new SubwayGraph(current, stations, adjacency, connectionCount, removedStations, changedStations);
             } else {
-                keepLooping = false;
+                current = new SubwayGraph(stations, adjacency, connectionCount, removedStations);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = LoadPhaseEvent.BUILD_GRAPH;
+                event.stationCount = current.getStationCount();
+                event.edgeCount = current.getEdgeCount();
+                event.commit();
             }
+            if (hierarchy != null) {
+                hierarchy = hierarchy.withGraph(current);
+            }
+            changedStations.clear();
+            graph = current;
+            graphStale = false;
+            return current;
+        }
+    }
+
+    public double getTransferPenalty() {
+        return transferPenalty;
+    }
+
+    public void setTransferPenalty(double transferPenalty) {
+        if (!(transferPenalty >= 0)) {
+            throw new IllegalArgumentException("Invalid transfer penalty " + transferPenalty);
+        }
+        this.transferPenalty = transferPenalty;
+    }
+
+    public ContractionHierarchy getContractionHierarchy() {
+        return hierarchy;
+    }
+
+    // Installs a hierarchy for RoutingMode.CONTRACTION_HIERARCHY. It must have
+    // been built or loaded for this subway's current graph, and is dropped as
+    // soon as a connection is added or removed.
+    public void setContractionHierarchy(ContractionHierarchy hierarchy) {
+        if (hierarchy != null && hierarchy.getGraph() != getGraph()) {
+            throw new IllegalArgumentException("Contraction hierarchy belongs to a different network");
+        }
+        this.hierarchy = hierarchy;
+    }
+
+    public boolean isAllPairsEnabled() {
+        return allPairs;
+    }
+
+    // All-pairs mode answers fewest-stops queries from a precomputed table.
+    // Enabling it builds the table straight away, and throws
+    // IllegalStateException, leaving the mode off, when the network has more
+    // stations than getAllPairsLimit(). After a network change the table is
+    // rebuilt by the next query; while the network is over the limit, queries
+    // search instead.
+    public void setAllPairsEnabled(boolean enabled) {
+        if (enabled) {
+            routeTable = RouteTable.build(getGraph(), allPairsLimit);
+        } else {
+            routeTable = null;
+        }
+        staleRows.clear();
+        allPairs = enabled;
+    }
+
+    public int getAllPairsLimit() {
+        return allPairsLimit;
+    }
+
+    public void setAllPairsLimit(int maxStations) {
+        if (maxStations < 0) {
+            throw new IllegalArgumentException("Invalid all-pairs station limit " + maxStations);
+        }
+        this.allPairsLimit = maxStations;
+    }
+
+    // The table for the current network, or null when all-pairs mode is off
+    // or the network has outgrown the limit. After a change only the rows it
+    // invalidated are searched again.
+    public RouteTable getRouteTable() {
+        if (!allPairs) {
+            return null;
+        }
+        SubwayGraph network = getGraph();
+        RouteTable current = routeTable;
+        if (current != null && current.getGraph() == network) {
+            return current;
+        }
+        synchronized (staleRows) {
+            current = routeTable;
+            if (current != null && current.getGraph() == network) {
+                return current;
+            }
+            if (!RouteTable.canBuild(network, allPairsLimit)) {
+                routeTable = null;
+                staleRows.clear();
+                return null;
+            }
+            current = current == null ? RouteTable.build(network, allPairsLimit) : RouteTable.update(current, network, staleRows);
+            staleRows.clear();
+            routeTable = current;
+            return current;
+        }
+    }
+
+    private static int[] fewestStopsPath(RouteTable table, SubwayGraph network, int start, int end) {
+        return table != null ? table.findPath(start, end) : network.findPath(start, end);
+    }
+
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    // Replaces the route cache with an empty one holding at most maxRoutes
+    // routes; 0 turns caching off.
+    public void setRouteCacheSize(int maxRoutes) {
+        routeCache = new RouteCache(maxRoutes);
+    }
+
+    // The schedule loaded with the network, if any (see
+    // GtfsLoader.setTimetableEnabled). Editing the network leaves it as it is.
+    public Timetable getTimetable() {
+        return timetable;
+    }
+
+    public void setTimetable(Timetable timetable) {
+        this.timetable = timetable;
+    }
+
+    public RoutingMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Records every getDirections call into the given metrics from now on;
+    // null stops recording.
+    public void setMetrics(RoutingMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // The route is unmodifiable and may be shared with other callers through
+    // the route cache.
+    public List<Connection> getDirections(String startStationName, String endStationName) {
+        RoutingMetrics recorder = metrics;
+        long began = recorder == null ? 0 : System.nanoTime();
+        RouteCache cache = routeCache;
+        long generation = cache.generation();
+        SubwayGraph network = getGraph();
+        int start = network.getStationId(startStationName);
+        int end = network.getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            if (recorder != null) {
+                recorder.recordFailure();
+            }
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        long key = RouteCache.key(start, end);
+        List<Connection> route = cache.get(key);
+        int expanded = 0;
+        if (route == null) {
+            RouteTable table = getRouteTable();
+            RoutePhaseEvent search = new RoutePhaseEvent();
+            search.begin();
+            int[] path = fewestStopsPath(table, network, start, end);
+            search.end();
+            RoutePhaseEvent reconstruct = new RoutePhaseEvent();
+            reconstruct.begin();
+            route = network.toRoute(path);
+            reconstruct.end();
+            cache.put(key, route, generation);
+            if ((recorder != null || search.shouldCommit()) && table == null) {
+                expanded = SearchWorkspace.forStations(network.getStationCount()).expanded;
+            }
+            commit(search, RoutePhaseEvent.SEARCH, network, expanded, path.length);
+            commit(reconstruct, RoutePhaseEvent.RECONSTRUCT, network, expanded, path.length);
+        }
+        if (recorder != null) {
+            recorder.recordQuery(System.nanoTime() - began, expanded, route.size());
         }
-        
         return route;
     }
-    
-    private Connection getConnection(Station station1, Station station2) {
-        for (Iterator i = connections.iterator(); i.hasNext(); ) {
-            Connection connection = (Connection) i.next();
-            Station one = connection.getStation1();
-            Station two = connection.getStation2();
-            if ((station1.equals(one)) && station2.equals(two)) {
-                return connection;
+
+    private static void commit(RoutePhaseEvent event, String phase, SubwayGraph network, int expanded, int routeLength) {
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.stationCount = network.getStationCount();
+            event.expandedCount = expanded;
+            event.routeLength = routeLength;
+            event.commit();
+        }
+    }
+
+    // Fewest-stops routes from one origin to every station. Trees for the most
+    // recently used TREE_CACHE_SIZE origins are kept until a change reaches
+    // them.
+    public ShortestPathTree getShortestPathTree(String originStationName) {
+        SubwayGraph network = getGraph();
+        int origin = network.getStationId(originStationName);
+        if (origin < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        ShortestPathTree tree;
+        synchronized (trees) {
+            tree = trees.get(origin);
+        }
+        // A tree left over from before a network change survived it, and
+        // only needs its edges renumbered.
+        if (tree == null || tree.getGraph() != network) {
+            tree = tree == null ? new ShortestPathTree(network, origin) : new ShortestPathTree(tree, network);
+            synchronized (trees) {
+                if (graph == network) {
+                    trees.put(origin, tree);
+                }
             }
         }
-        return null;
+        return tree;
     }
-        
-    
-    public boolean hasConnection(String station1Name, String station2Name, String lineName) {
-        Station station1 = new Station(station1Name);
-        Station station2 = new Station(station2Name);
-        for (Iterator i = connections.iterator(); i.hasNext(); ) {
-            Connection connection = (Connection) i.next();
-            if (connection.getLineName().equalsIgnoreCase(lineName)) {
-                if ((connection.getStation1().equals(station1)) &&
-                    (connection.getStation2().equals(station2)))
-                {
-                    return true;
+
+    // Routes from one station to each of the given ones, answered from a
+    // single shortest-path tree. Keys are the names as given, in order.
+    public Map<String, List<Connection>> getDirections(String startStationName, Collection<String> endStationNames) {
+        ShortestPathTree tree = getShortestPathTree(startStationName);
+        SubwayGraph network = tree.getGraph();
+        Map<String, List<Connection>> routes = new LinkedHashMap<>();
+        for (String endStationName : endStationNames) {
+            int end = network.getStationId(endStationName);
+            if (end < 0)
+            {
+                throw new RuntimeException("Stations entered do not exist on this subway");
+            }
+            routes.put(endStationName, network.toConnections(tree.findPath(end)));
+        }
+        return routes;
+    }
+
+    public Route getRoute(String startStationName, String endStationName, RoutingMode mode) {
+        SubwayGraph network = getGraph();
+        int start = network.getStationId(startStationName);
+        int end = network.getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        RouteTable table = mode == RoutingMode.FEWEST_STOPS ? getRouteTable() : null;
+        if (table != null) {
+            int[] path = table.findPath(start, end);
+            return new Route(network.toConnections(path), network.pathCost(path, transferPenalty), 0);
+        }
+        return SubwaySnapshot.route(network, start, end, mode, transferPenalty, hierarchy);
+    }
+
+    // Every route that no other route beats on both travel time and line
+    // changes, from fewest changes (and fastest among those) to fastest
+    // overall. The transfer penalty does not apply: changes are counted
+    // instead.
+    public List<Route> getParetoRoutes(String startStationName, String endStationName) {
+        return getParetoRoutes(startStationName, endStationName, Integer.MAX_VALUE);
+    }
+
+    // Only routes with at most maxLineChanges changes.
+    public List<Route> getParetoRoutes(String startStationName, String endStationName, int maxLineChanges) {
+        SubwayGraph network = getGraph();
+        int start = network.getStationId(startStationName);
+        int end = network.getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return ParetoSearch.search(network, start, end, maxLineChanges);
+    }
+
+    // Up to k distinct loopless routes, cheapest first, ranked by the
+    // RoutingMode.DIJKSTRA cost: travel time plus the transfer penalty for
+    // each change of line.
+    public List<Route> getAlternativeRoutes(String startStationName, String endStationName, int k) {
+        return getAlternativeRoutes(startStationName, endStationName, k, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    // Stops looking for further routes once the budget is spent and returns
+    // those ranked so far, always including the cheapest route.
+    public List<Route> getAlternativeRoutes(String startStationName, String endStationName, int k, long budget, TimeUnit unit) {
+        SubwayGraph network = getGraph();
+        int start = network.getStationId(startStationName);
+        int end = network.getStationId(endStationName);
+        if (start < 0 || end < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return KShortestPaths.search(network, start, end, k, transferPenalty, unit.toNanos(budget));
+    }
+
+    // Stations within maxHops stops of the origin, nearest first.
+    public Isochrone getStationsWithinHops(String originStationName, int maxHops) {
+        SubwayGraph network = getGraph();
+        int origin = network.getStationId(originStationName);
+        if (origin < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return Isochrone.withinHops(network, origin, maxHops);
+    }
+
+    // Stations within maxMinutes of the origin, counting travel time plus the
+    // transfer penalty for each change of line, nearest first.
+    public Isochrone getStationsWithinMinutes(String originStationName, double maxMinutes) {
+        SubwayGraph network = getGraph();
+        int origin = network.getStationId(originStationName);
+        if (origin < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return Isochrone.withinMinutes(network, origin, maxMinutes, transferPenalty);
+    }
+
+    // Only the ids of the stations within reach, written into the given set
+    // after clearing it (a new set when null) and returned.
+    public BitSet getReachableWithinHops(String originStationName, int maxHops, BitSet reachable) {
+        SubwayGraph network = getGraph();
+        int origin = network.getStationId(originStationName);
+        if (origin < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return Isochrone.fillWithinHops(network, origin, maxHops, reachable);
+    }
+
+    public BitSet getReachableWithinMinutes(String originStationName, double maxMinutes, BitSet reachable) {
+        SubwayGraph network = getGraph();
+        int origin = network.getStationId(originStationName);
+        if (origin < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return Isochrone.fillWithinMinutes(network, origin, maxMinutes, transferPenalty, reachable);
+    }
+
+    // Freezes the current network, transfer penalty and contraction hierarchy
+    // for sharing between threads; later changes to this Subway do not show.
+    public SubwaySnapshot snapshot() {
+        SubwayGraph network = getGraph();
+        return new SubwaySnapshot(network, transferPenalty, hierarchy);
+    }
+
+    public Connection getConnection(String station1Name, String station2Name, String lineName) {
+        Integer id1 = stationIds.get(Station.keyOf(station1Name));
+        Integer id2 = stationIds.get(Station.keyOf(station2Name));
+        if (id1 == null || id2 == null) {
+            return null;
+        }
+        return connectionIndex().get(new ConnectionKey(id1, id2, lineKey(lineName)));
+    }
+
+    // Built on the first lookup rather than while loading, then kept up to
+    // date by addConnection. The first connection added for a key wins, as
+    // it does in the adjacency lists.
+    private Map<ConnectionKey, Connection> connectionIndex() {
+        Map<ConnectionKey, Connection> index = connectionIndex;
+        if (index == null) {
+            index = new HashMap<>(connectionCount * 2);
+            for (int id = 0; id < stations.size(); id++) {
+                for (Connection connection : adjacency.get(id)) {
+                    index.putIfAbsent(new ConnectionKey(id, connection.getStation2().index,
+                        lineKey(connection.getLineName())), connection);
                 }
             }
+            connectionIndex = index;
+        }
+        return index;
+    }
+
+    public boolean hasConnection(String station1Name, String station2Name, String lineName) {
+        return getConnection(station1Name, station2Name, lineName) != null;
+    }
+
+    // Line names match case-insensitively, the same in every default locale.
+    private static String lineKey(String lineName) {
+        return lineName.toLowerCase(Locale.ROOT);
+    }
+
+    private static final class ConnectionKey
+    {
+        private final int from;
+        private final int to;
+        private final String line;
+
+        ConnectionKey(int from, int to, String lineKey) {
+            this.from = from;
+            this.to = to;
+            this.line = lineKey;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ConnectionKey)) {
+                return false;
+            }
+            ConnectionKey other = (ConnectionKey) obj;
+            return from == other.from && to == other.to && line.equals(other.line);
+        }
+
+        public int hashCode() {
+            return (from * 31 + to) * 31 + line.hashCode();
         }
-        return false;
     }
-                
+
 }
@@ -0,0 +1,505 @@
+package com.subway.core;
+
+import java.util.*;
+
+// Frozen, compressed-sparse-row view of a Subway: stations are numbered 0..n-1,
+// the outgoing edges of station u are offsets[u]..offsets[u+1]-1, and every edge
+// carries its source, target, line id and the Connection it was built from.
+// Edge order per station is the order in which connections were added, so
+// searches break ties like the original list-based network did.
+//
+// Weighted searches run on a station/line expanded graph: one state per
+// (station, line) pair, riding edges grouped by the state they leave from, and
+// a line change modelled as moving between two states of the same station.
+//
+// Closed stations keep their ids as removed stations with no edges, so that
+// a graph patched after a change numbers every station as before.
+public final class SubwayGraph implements CsrView
+{
+    private final Station[] stations;
+    private final BitSet removed;
+    private final int removedCount;
+    // Patched graphs share stationIds and look up the stations added since
+    // it was built in addedIds first; removed stations are filtered out.
+    private final Map<String, Integer> stationIds;
+    private final Map<String, Integer> addedIds;
+    private final Map<String, Integer> lineIds;
+    private final String[] lineNames;
+    private final int[] offsets;
+    private final int[] sources;
+    private final int[] targets;
+    private final int[] lines;
+    private final Connection[] connections;
+    private final double[] travelTimes;
+    private final int[] reverseEdges;
+    private final double[] xs;
+    private final double[] ys;
+    private final boolean located;
+    private final double heuristicScale;
+
+    final int[] stateOffsets;
+    final int[] stateStations;
+    final int[] stateLines;
+    final int[] stateEdgeOffsets;
+    final int[] stateEdges;
+    final int[] edgeTargetStates;
+
+    SubwayGraph(List<Station> stationList, List<List<Connection>> adjacency, int edgeCount, BitSet removed) {
+        int n = stationList.size();
+        this.stations = stationList.toArray(new Station[n]);
+        this.removed = (BitSet) removed.clone();
+        this.removedCount = removed.cardinality();
+        this.stationIds = indexStations();
+        this.addedIds = Collections.emptyMap();
+
+        this.lineIds = new HashMap<>();
+        List<String> lineList = new ArrayList<>();
+        this.offsets = new int[n + 1];
+        this.sources = new int[edgeCount];
+        this.targets = new int[edgeCount];
+        this.lines = new int[edgeCount];
+        this.connections = new Connection[edgeCount];
+        this.travelTimes = new double[edgeCount];
+        this.reverseEdges = new int[edgeCount];
+        int e = 0;
+        for (int u = 0; u < n; u++) {
+            offsets[u] = e;
+            for (Connection connection : adjacency.get(u)) {
+                String lineName = connection.getLineName();
+                Integer line = lineIds.get(lineName);
+                if (line == null) {
+                    line = lineList.size();
+                    lineIds.put(lineName, line);
+                    lineList.add(lineName);
+                }
+                sources[e] = u;
+                targets[e] = connection.getStation2().index;
+                lines[e] = line;
+                connections[e] = connection;
+                travelTimes[e] = connection.getTravelTime();
+                e++;
+            }
+        }
+        offsets[n] = e;
+        this.lineNames = lineList.toArray(new String[lineList.size()]);
+        for (e = 0; e < edgeCount; e++) {
+            Connection reverse = connections[e].reverse;
+            reverseEdges[e] = reverse == null ? -1 : offsets[targets[e]] + reverse.slot;
+        }
+
+        this.xs = new double[n];
+        this.ys = new double[n];
+        this.located = locate(0) && n > 0;
+        this.heuristicScale = heuristicScale();
+
+        int[] lineOwner = new int[lineNames.length];
+        int[] lineState = new int[lineNames.length];
+        Arrays.fill(lineOwner, -1);
+        int[] edgeSourceStates = new int[edgeCount];
+        int[] stationOfState = new int[edgeCount];
+        int[] lineOfState = new int[edgeCount];
+        this.stateOffsets = new int[n + 1];
+        int stateCount = 0;
+        for (int u = 0; u < n; u++) {
+            stateOffsets[u] = stateCount;
+            for (e = offsets[u]; e < offsets[u + 1]; e++) {
+                int line = lines[e];
+                if (lineOwner[line] != u) {
+                    lineOwner[line] = u;
+                    lineState[line] = stateCount;
+                    stationOfState[stateCount] = u;
+                    lineOfState[stateCount] = line;
+                    stateCount++;
+                }
+                edgeSourceStates[e] = lineState[line];
+            }
+        }
+        stateOffsets[n] = stateCount;
+        this.stateStations = Arrays.copyOf(stationOfState, stateCount);
+        this.stateLines = Arrays.copyOf(lineOfState, stateCount);
+
+        this.stateEdgeOffsets = new int[stateCount + 1];
+        this.stateEdges = new int[edgeCount];
+        this.edgeTargetStates = new int[edgeCount];
+        for (e = 0; e < edgeCount; e++) {
+            stateEdgeOffsets[edgeSourceStates[e] + 1]++;
+            edgeTargetStates[e] = findState(targets[e], lines[e]);
+        }
+        for (int state = 0; state < stateCount; state++) {
+            stateEdgeOffsets[state + 1] += stateEdgeOffsets[state];
+        }
+        int[] fill = Arrays.copyOf(stateEdgeOffsets, stateCount);
+        for (e = 0; e < edgeCount; e++) {
+            stateEdges[fill[edgeSourceStates[e]]++] = e;
+        }
+    }
+
+    // Rebuilds the graph after a few stations' connections changed or
+    // stations were added. The edges and states of every other station are
+    // block-copied from the previous graph with their ids shifted, so only
+    // the changed stations' adjacency lists are read again; line ids carry
+    // over, new lines getting the next ones.
+    SubwayGraph(SubwayGraph previous, List<Station> stationList, List<List<Connection>> adjacency, int edgeCount,
+            BitSet removed, BitSet changed) {
+        int n = stationList.size();
+        int known = previous.stations.length;
+        this.stations = stationList.toArray(new Station[n]);
+        this.removed = (BitSet) removed.clone();
+        this.removedCount = removed.cardinality();
+        Map<String, Integer> added = new HashMap<>(previous.addedIds);
+        for (int u = known; u < n; u++) {
+            if (!removed.get(u)) {
+                added.put(stations[u].getKey(), u);
+            }
+        }
+        if (added.size() > Math.max(64, n / 16)) {
+            this.stationIds = indexStations();
+            this.addedIds = Collections.emptyMap();
+        } else {
+            this.stationIds = previous.stationIds;
+            this.addedIds = added;
+        }
+
+        Map<String, Integer> lineIds = previous.lineIds;
+        List<String> lineList = null;
+        this.offsets = new int[n + 1];
+        this.sources = new int[edgeCount];
+        this.targets = new int[edgeCount];
+        this.lines = new int[edgeCount];
+        this.connections = new Connection[edgeCount];
+        this.travelTimes = new double[edgeCount];
+        this.reverseEdges = new int[edgeCount];
+        this.edgeTargetStates = new int[edgeCount];
+        this.stateEdges = new int[edgeCount];
+        int maxStates = previous.getStateCount() + edgeCount - previous.getEdgeCount();
+        for (int u = changed.nextSetBit(0); u >= 0 && u < known; u = changed.nextSetBit(u + 1)) {
+            maxStates += previous.offsets[u + 1] - previous.offsets[u];
+        }
+        this.stateOffsets = new int[n + 1];
+        int[] stationOfState = new int[Math.max(maxStates, 0)];
+        int[] lineOfState = new int[stationOfState.length];
+        int[] edgeOffsetOfState = new int[stationOfState.length + 1];
+
+        int e = 0;
+        int stateCount = 0;
+        for (int u = 0; u < n; ) {
+            int end = u < known ? changed.nextSetBit(u) : u;
+            end = end < 0 || end > known ? known : end;
+            if (end > u) {
+                // A run of unchanged stations: same edges, same states.
+                int from = previous.offsets[u];
+                int count = previous.offsets[end] - from;
+                int shift = e - from;
+                int fromState = previous.stateOffsets[u];
+                int stateCountOfRun = previous.stateOffsets[end] - fromState;
+                int stateShift = stateCount - fromState;
+                for (int v = u; v < end; v++) {
+                    offsets[v] = previous.offsets[v] + shift;
+                    stateOffsets[v] = previous.stateOffsets[v] + stateShift;
+                }
+                System.arraycopy(previous.sources, from, sources, e, count);
+                System.arraycopy(previous.targets, from, targets, e, count);
+                System.arraycopy(previous.lines, from, lines, e, count);
+                System.arraycopy(previous.connections, from, connections, e, count);
+                System.arraycopy(previous.travelTimes, from, travelTimes, e, count);
+                System.arraycopy(previous.reverseEdges, from, reverseEdges, e, count);
+                System.arraycopy(previous.edgeTargetStates, from, edgeTargetStates, e, count);
+                System.arraycopy(previous.stateStations, fromState, stationOfState, stateCount, stateCountOfRun);
+                System.arraycopy(previous.stateLines, fromState, lineOfState, stateCount, stateCountOfRun);
+                for (int i = 0; i < count; i++) {
+                    stateEdges[e + i] = previous.stateEdges[from + i] + shift;
+                }
+                for (int i = 0; i < stateCountOfRun; i++) {
+                    edgeOffsetOfState[stateCount + i] = previous.stateEdgeOffsets[fromState + i] + shift;
+                }
+                e += count;
+                stateCount += stateCountOfRun;
+                u = end;
+                continue;
+            }
+
+            // A changed or new station: read its adjacency list, give it one
+            // state per line in order of first use and group its edges by
+            // state.
+            offsets[u] = e;
+            stateOffsets[u] = stateCount;
+            for (Connection connection : adjacency.get(u)) {
+                String lineName = connection.getLineName();
+                Integer line = lineIds.get(lineName);
+                if (line == null) {
+                    if (lineList == null) {
+                        lineIds = new HashMap<>(lineIds);
+                        lineList = new ArrayList<>(Arrays.asList(previous.lineNames));
+                    }
+                    line = lineList.size();
+                    lineIds.put(lineName, line);
+                    lineList.add(lineName);
+                }
+                sources[e] = u;
+                targets[e] = connection.getStation2().index;
+                lines[e] = line;
+                connections[e] = connection;
+                travelTimes[e] = connection.getTravelTime();
+                e++;
+                if (findState(line, stateOffsets[u], stateCount, lineOfState) < 0) {
+                    stationOfState[stateCount] = u;
+                    lineOfState[stateCount] = line;
+                    stateCount++;
+                }
+            }
+            int next = offsets[u];
+            for (int state = stateOffsets[u]; state < stateCount; state++) {
+                edgeOffsetOfState[state] = next;
+                for (int edge = offsets[u]; edge < e; edge++) {
+                    if (lines[edge] == lineOfState[state]) {
+                        stateEdges[next++] = edge;
+                    }
+                }
+            }
+            u++;
+        }
+        offsets[n] = e;
+        stateOffsets[n] = stateCount;
+        edgeOffsetOfState[stateCount] = e;
+        this.lineIds = lineIds;
+        this.lineNames = lineList == null ? previous.lineNames : lineList.toArray(new String[lineList.size()]);
+        this.stateStations = Arrays.copyOf(stationOfState, stateCount);
+        this.stateLines = Arrays.copyOf(lineOfState, stateCount);
+        this.stateEdgeOffsets = Arrays.copyOf(edgeOffsetOfState, stateCount + 1);
+
+        // Copied edges into unchanged stations keep their reverse edge and
+        // target state, shifted along with that station; the rest are found
+        // again.
+        for (e = 0; e < edgeCount; e++) {
+            int source = sources[e];
+            int target = targets[e];
+            boolean copied = source < known && !changed.get(source);
+            if (copied && target < known && !changed.get(target)) {
+                reverseEdges[e] += offsets[target] - previous.offsets[target];
+                edgeTargetStates[e] += stateOffsets[target] - previous.stateOffsets[target];
+            } else {
+                Connection reverse = connections[e].reverse;
+                reverseEdges[e] = reverse == null ? -1 : offsets[target] + reverse.slot;
+                edgeTargetStates[e] = findState(target, lines[e]);
+            }
+        }
+
+        this.xs = Arrays.copyOf(previous.xs, n);
+        this.ys = Arrays.copyOf(previous.ys, n);
+        this.located = locate(known) && (previous.located || known == 0) && n > 0;
+        this.heuristicScale = heuristicScale();
+    }
+
+    private Map<String, Integer> indexStations() {
+        Map<String, Integer> ids = new HashMap<>(stations.length * 2);
+        for (int i = 0; i < stations.length; i++) {
+            if (!removed.get(i)) {
+                ids.put(stations[i].getKey(), i);
+            }
+        }
+        return ids;
+    }
+
+    // Fills in the coordinates of stations from first on; whether they all
+    // have one.
+    private boolean locate(int first) {
+        boolean all = true;
+        for (int u = first; u < stations.length; u++) {
+            xs[u] = stations[u].getX();
+            ys[u] = stations[u].getY();
+            all &= stations[u].hasLocation();
+        }
+        return all;
+    }
+
+    // A* needs every station placed; its heuristic is the straight-line
+    // distance to the destination scaled by the fastest time per unit of
+    // distance seen on any edge, which keeps it admissible and consistent.
+    private double heuristicScale() {
+        double scale = Double.POSITIVE_INFINITY;
+        for (int e = 0; located && e < targets.length; e++) {
+            double distance = distance(sources[e], targets[e]);
+            if (distance > 0) {
+                scale = Math.min(scale, travelTimes[e] / distance);
+            }
+        }
+        return located && scale != Double.POSITIVE_INFINITY ? scale : 0;
+    }
+
+    private static int findState(int line, int firstState, int stateCount, int[] lineOfState) {
+        for (int state = firstState; state < stateCount; state++) {
+            if (lineOfState[state] == line) {
+                return state;
+            }
+        }
+        return -1;
+    }
+
+    private int findState(int station, int line) {
+        for (int state = stateOffsets[station]; state < stateOffsets[station + 1]; state++) {
+            if (stateLines[state] == line) {
+                return state;
+            }
+        }
+        return -1;
+    }
+
+    // Counts removed stations too: ids run from 0 to getStationCount() - 1.
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    // Whether the station was closed; it keeps its id but has no edges and
+    // cannot be looked up by name.
+    public boolean isRemoved(int station) {
+        return removed.get(station);
+    }
+
+    public int getRemovedCount() {
+        return removedCount;
+    }
+
+    public int getEdgeCount() {
+        return targets.length;
+    }
+
+    public int getLineCount() {
+        return lineNames.length;
+    }
+
+    public int getStationId(String stationName) {
+        String key = Station.keyOf(stationName);
+        Integer id = addedIds.isEmpty() ? null : addedIds.get(key);
+        if (id == null) {
+            id = stationIds.get(key);
+        }
+        return id == null || (removedCount > 0 && removed.get(id)) ? -1 : id;
+    }
+
+    public Station getStation(int station) {
+        return stations[station];
+    }
+
+    public String getLineName(int line) {
+        return lineNames[line];
+    }
+
+    public int getFirstEdge(int station) {
+        return offsets[station];
+    }
+
+    public int getEndEdge(int station) {
+        return offsets[station + 1];
+    }
+
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public int getLine(int edge) {
+        return lines[edge];
+    }
+
+    public Connection getConnection(int edge) {
+        return connections[edge];
+    }
+
+    public double getTravelTime(int edge) {
+        return travelTimes[edge];
+    }
+
+    public int getReverseEdge(int edge) {
+        return reverseEdges[edge];
+    }
+
+    // Lower bound on the travel time between two stations; 0 when the network
+    // has no usable coordinates.
+    public double estimateTravelTime(int from, int to) {
+        return heuristicScale == 0 ? 0 : heuristicScale * distance(from, to);
+    }
+
+    private double distance(int from, int to) {
+        double dx = xs[from] - xs[to];
+        double dy = ys[from] - ys[to];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    // Hash of the network's structure, travel times and names. Preprocessed
+    // indexes store it to detect being loaded against a different network.
+    public long getFingerprint() {
+        long hash = 1125899906842597L;
+        for (int u = 0; u < stations.length; u++) {
+            hash = 31 * hash + stations[u].getKey().hashCode();
+            hash = 31 * hash + offsets[u + 1];
+        }
+        for (int line = 0; line < lineNames.length; line++) {
+            hash = 31 * hash + lineNames[line].hashCode();
+        }
+        for (int e = 0; e < targets.length; e++) {
+            hash = 31 * hash + targets[e];
+            hash = 31 * hash + lines[e];
+            hash = 31 * hash + Double.hashCode(travelTimes[e]);
+        }
+        return hash;
+    }
+
+    public int getStateCount() {
+        return stateStations.length;
+    }
+
+    public boolean hasConnection(String station1Name, String station2Name, String lineName) {
+        int from = getStationId(station1Name);
+        int to = getStationId(station2Name);
+        if (from < 0 || to < 0) {
+            return false;
+        }
+        for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+            if (targets[e] == to && lineNames[lines[e]].equalsIgnoreCase(lineName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Fewest-hops path from start to end as a sequence of edge ids; empty when
+    // end cannot be reached. As before, asking for start == end yields the
+    // shortest round trip rather than an empty route.
+    public int[] findPath(int start, int end) {
+        return BreadthFirstSearch.findPath(this, start, end);
+    }
+
+    // Travel time of a path plus transferPenalty for every change of line,
+    // counted the way SubwayPrinter announces them.
+    public double pathCost(int[] path, double transferPenalty) {
+        double cost = 0;
+        for (int i = 0; i < path.length; i++) {
+            cost += travelTimes[path[i]];
+            if (i > 0 && lines[path[i]] != lines[path[i - 1]]) {
+                cost += transferPenalty;
+            }
+        }
+        return cost;
+    }
+
+    public List<Connection> toConnections(int[] path) {
+        List<Connection> route = new LinkedList<>();
+        for (int i = 0; i < path.length; i++) {
+            route.add(connections[path[i]]);
+        }
+        return route;
+    }
+
+    // The same connections as an unmodifiable list over one array, for
+    // routes that are cached and shared between callers.
+    List<Connection> toRoute(int[] path) {
+        Connection[] route = new Connection[path.length];
+        for (int i = 0; i < path.length; i++) {
+            route[i] = connections[path[i]];
+        }
+        return Collections.unmodifiableList(Arrays.asList(route));
+    }
+}
@@ -2,43 +2,326 @@ package com.subway.core;
 
 import java.io.File;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+// Reads a network file in one streaming pass. Station names are interned into
+// an id table as they are read, so each line-block entry costs one hash
+// lookup on the name exactly as written, and connections are added by id.
+//
+// In parallel mode the line blocks are read into memory first, parsed on a
+// fork-join pool, and then added to the network one block after another in
+// file order, so the result (edge order, errors) is the same as a sequential
+// load.
 public class SubwayLoader
 {
+    private static final int BLOCKS_PER_TASK = 4;
+
     private Subway subway;
+    private Charset charset;
+    private LoadStats lastLoadStats;
+    private ForkJoinPool pool;
     
     public SubwayLoader() {
+        this(StandardCharsets.UTF_8);
+    }
+
+    public SubwayLoader(Charset charset) {
         this.subway = new Subway();
+        this.charset = charset;
     }
     
     public Subway loadFromFile(File subwayFile) throws IOException {
-        BufferedReader reader = new BufferedReader(new FileReader(subwayFile));
-        loadStations(subway, reader);
-        String lineName = reader.readLine();
-        while ((lineName != null) && (lineName.length() > 0)) {
-            loadLine(subway, reader, lineName);
-            lineName = reader.readLine();
-        }
+        load(subway, subwayFile);
         return subway;
     }
+
+    // Loads the file into a fresh network and freezes it, so a reload never
+    // mixes with anything loaded before.
+    public SubwaySnapshot loadSnapshot(File subwayFile) throws IOException {
+        Subway fresh = new Subway();
+        load(fresh, subwayFile);
+        return fresh.snapshot();
+    }
+
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    public void setParallel(boolean parallel) {
+        setParallel(parallel ? ForkJoinPool.commonPool() : null);
+    }
+
+    // Parses line blocks on the given pool; null loads sequentially.
+    public void setParallel(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Time and size of the most recent load, or null before the first one.
+    public LoadStats getLastLoadStats() {
+        return lastLoadStats;
+    }
+
+    private void load(Subway subway, File subwayFile) throws IOException {
+        long start = System.nanoTime();
+        Map<String, Integer> stationIds = new HashMap<>();
+        int lines = 0;
+        int segments = 0;
+        try (BufferedReader reader = Files.newBufferedReader(subwayFile.toPath(), charset)) {
+            LoadPhaseEvent stationPhase = new LoadPhaseEvent();
+            stationPhase.begin();
+            loadStations(subway, reader, stationIds);
+            stationPhase.end();
+            // Line blocks may add other spellings of the names to stationIds.
+            int stationCount = stationIds.size();
+            if (stationPhase.shouldCommit()) {
+                stationPhase.phase = LoadPhaseEvent.PARSE_STATIONS;
+                stationPhase.stationCount = stationCount;
+                stationPhase.commit();
+            }
+            LoadPhaseEvent linePhase = new LoadPhaseEvent();
+            linePhase.begin();
+            try {
+                if (pool != null) {
+                    List<LineBlock> blocks = readLineBlocks(reader);
+                    pool.invoke(new ParseTask(subway, stationIds, blocks, 0, blocks.size()));
+                    for (LineBlock block : blocks) {
+                        segments += block.addTo(subway);
+                        lines++;
+                    }
+                }
+                else
+                {
+                    String lineName = reader.readLine();
+                    while ((lineName != null) && (lineName.length() > 0)) {
+                        segments += loadLine(subway, reader, lineName, stationIds);
+                        lines++;
+                        lineName = reader.readLine();
+                    }
+                }
+            } finally {
+                // Connections are linked in bulk; a failed load keeps those
+                // added before the bad entry, as before.
+                subway.connectionsLoaded();
+            }
+            linePhase.end();
+            if (linePhase.shouldCommit()) {
+                linePhase.phase = LoadPhaseEvent.PARSE_LINES;
+                linePhase.stationCount = stationCount;
+                linePhase.edgeCount = segments * 2;
+                linePhase.commit();
+            }
+        }
+        int stations = subway.getGraph().getStationCount();
+        lastLoadStats = new LoadStats(stations, lines, segments, subwayFile.length(), System.nanoTime() - start);
+    }
     
-    private void loadStations(Subway subway, BufferedReader reader) throws IOException {
+    private void loadStations(Subway subway, BufferedReader reader, Map<String, Integer> stationIds) throws IOException {
         String currentLine;
         currentLine = reader.readLine();
         while (currentLine != null && currentLine.length() > 0) {
-            subway.addStation(currentLine);
+            loadStation(subway, currentLine, stationIds);
             currentLine = reader.readLine();
         }
     }
     
-    private void loadLine(Subway subway, BufferedReader reader, String lineName) throws IOException {
-        String station1Name, station2Name;
-        station1Name = reader.readLine();
-        station2Name = reader.readLine();
-        while ((station1Name != null) && (station2Name != null) && (station2Name.length() > 0)) {
-            subway.addConnection(station1Name, station2Name, lineName);
+    // A station entry may be followed by its coordinates, tab separated:
+    // "DRY Drive<TAB>12.5<TAB>40.25". Routing uses them for A* estimates.
+    private void loadStation(Subway subway, String entry, Map<String, Integer> stationIds) throws IOException {
+        int tab = entry.indexOf('\t');
+        Station station;
+        if (tab < 0) {
+            station = new Station(entry);
+        } else {
+            int secondTab = entry.indexOf('\t', tab + 1);
+            if (secondTab < 0 || entry.indexOf('\t', secondTab + 1) >= 0) {
+                throw new IOException("Invalid station entry: " + entry);
+            }
+            try {
+                station = new Station(entry.substring(0, tab), Double.parseDouble(entry.substring(tab + 1, secondTab).trim()),
+                    Double.parseDouble(entry.substring(secondTab + 1).trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid station coordinates: " + entry);
+            }
+        }
+        stationIds.put(station.getName(), subway.addStation(station));
+    }
+
+    private int loadLine(Subway subway, BufferedReader reader, String lineName, Map<String, Integer> stationIds) throws IOException {
+        int segments = 0;
+        String station1Name, station2Name, station2Entry;
+        station1Name = stationName(reader.readLine());
+        station2Entry = reader.readLine();
+        while ((station1Name != null) && (station2Entry != null) && (station2Entry.length() > 0)) {
+            station2Name = stationName(station2Entry);
+            int id1 = stationId(subway, stationIds, station1Name);
+            int id2 = stationId(subway, stationIds, station2Name);
+            if (id1 < 0 || id2 < 0) {
+                throw new RuntimeException("Invalid connection: [" + station1Name + ", " + station2Name + ", " + lineName + "]");
+            }
+            subway.loadConnection(id1, id2, lineName, travelTime(station2Entry, lineName));
+            segments++;
             station1Name = station2Name;
-            station2Name = reader.readLine();
+            station2Entry = reader.readLine();
+        }
+        return segments;
+    }
+
+    // Splits the rest of the file the way loadLine consumes it: a line name,
+    // its first station entry, then entries up to a blank line.
+    private List<LineBlock> readLineBlocks(BufferedReader reader) throws IOException {
+        List<LineBlock> blocks = new ArrayList<>();
+        String lineName = reader.readLine();
+        while ((lineName != null) && (lineName.length() > 0)) {
+            LineBlock block = new LineBlock(lineName);
+            String entry = reader.readLine();
+            if (entry != null) {
+                block.entries.add(entry);
+                entry = reader.readLine();
+                while ((entry != null) && (entry.length() > 0)) {
+                    block.entries.add(entry);
+                    entry = reader.readLine();
+                }
+            }
+            blocks.add(block);
+            lineName = reader.readLine();
+        }
+        return blocks;
+    }
+
+    // Names usually appear in line blocks spelled as in the station list; any
+    // other spelling is resolved case-insensitively once and then remembered.
+    private int stationId(Subway subway, Map<String, Integer> stationIds, String stationName) {
+        Integer id = stationIds.get(stationName);
+        if (id == null) {
+            int found = subway.getStationId(stationName);
+            if (found >= 0) {
+                stationIds.put(stationName, found);
+            }
+            return found;
+        }
+        return id;
+    }
+
+    // A station entry in a line block may carry the travel time of the segment
+    // that ends there after a tab, e.g. "Head First Theater<TAB>2.5".
+    private static String stationName(String entry) {
+        if (entry == null) {
+            return null;
+        }
+        int tab = entry.indexOf('\t');
+        return tab < 0 ? entry : entry.substring(0, tab);
+    }
+
+    private static double travelTime(String entry, String lineName) throws IOException {
+        int tab = entry.indexOf('\t');
+        if (tab < 0) {
+            return Connection.DEFAULT_TRAVEL_TIME;
+        }
+        try {
+            return Double.parseDouble(entry.substring(tab + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid travel time on " + lineName + ": " + entry);
+        }
+    }
+
+    // One line block: its raw entries, and once parsed, its segments as
+    // station ids plus the error that stopped parsing, if any.
+    private static final class LineBlock
+    {
+        private final String lineName;
+        private final List<String> entries = new ArrayList<>();
+        private int[] from;
+        private int[] to;
+        private double[] travelTimes;
+        private int segments;
+        private Exception failure;
+
+        LineBlock(String lineName) {
+            this.lineName = lineName;
+        }
+
+        // Runs concurrently with other blocks, so it only reads the shared
+        // station tables.
+        void parse(Subway subway, Map<String, Integer> stationIds) {
+            int capacity = Math.max(0, entries.size() - 1);
+            from = new int[capacity];
+            to = new int[capacity];
+            travelTimes = new double[capacity];
+            String station1Name = entries.isEmpty() ? null : stationName(entries.get(0));
+            try {
+                for (int i = 1; station1Name != null && i < entries.size(); i++) {
+                    String station2Name = stationName(entries.get(i));
+                    int id1 = lookup(subway, stationIds, station1Name);
+                    int id2 = lookup(subway, stationIds, station2Name);
+                    if (id1 < 0 || id2 < 0) {
+                        throw new RuntimeException("Invalid connection: [" + station1Name + ", " + station2Name + ", " + lineName + "]");
+                    }
+                    from[segments] = id1;
+                    to[segments] = id2;
+                    travelTimes[segments] = travelTime(entries.get(i), lineName);
+                    segments++;
+                    station1Name = station2Name;
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+        }
+
+        private static int lookup(Subway subway, Map<String, Integer> stationIds, String stationName) {
+            Integer id = stationIds.get(stationName);
+            return id != null ? id : subway.getStationId(stationName);
+        }
+
+        // Adds everything parsed before the first bad entry, then reports it,
+        // just as a sequential load would have.
+        int addTo(Subway subway) throws IOException {
+            for (int i = 0; i < segments; i++) {
+                subway.loadConnection(from[i], to[i], lineName, travelTimes[i]);
+            }
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return segments;
+        }
+    }
+
+    private static final class ParseTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Subway subway;
+        private final Map<String, Integer> stationIds;
+        private final List<LineBlock> blocks;
+        private final int first;
+        private final int last;
+
+        ParseTask(Subway subway, Map<String, Integer> stationIds, List<LineBlock> blocks, int first, int last) {
+            this.subway = subway;
+            this.stationIds = stationIds;
+            this.blocks = blocks;
+            this.first = first;
+            this.last = last;
+        }
+
+        protected void compute() {
+            if (last - first <= BLOCKS_PER_TASK) {
+                for (int i = first; i < last; i++) {
+                    blocks.get(i).parse(subway, stationIds);
+                }
+            }
+            else
+            {
+                int middle = (first + last) >>> 1;
+                invokeAll(new ParseTask(subway, stationIds, blocks, first, middle),
+                    new ParseTask(subway, stationIds, blocks, middle, last));
+            }
         }
     }
 }
@@ -0,0 +1,137 @@
+package com.subway.core;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Read-only view of a network frozen at one point in time. Everything it
+// holds is immutable once built and every search runs on per-thread scratch
+// space, so one snapshot can be queried from any number of threads without
+// locking. Use SnapshotHolder to publish a reloaded network to them.
+//
+// getDirections keeps recent routes in a RouteCache, as Subway does. The
+// network never changes, so the cache is never invalidated.
+public final class SubwaySnapshot
+{
+    private final SubwayGraph graph;
+    private final double transferPenalty;
+    private final ContractionHierarchy hierarchy;
+    private final RouteCache routeCache = new RouteCache(Subway.DEFAULT_ROUTE_CACHE_SIZE);
+
+    SubwaySnapshot(SubwayGraph graph, double transferPenalty, ContractionHierarchy hierarchy) {
+        this.graph = graph;
+        this.transferPenalty = transferPenalty;
+        this.hierarchy = hierarchy;
+    }
+
+    public SubwayGraph getGraph() {
+        return graph;
+    }
+
+    public double getTransferPenalty() {
+        return transferPenalty;
+    }
+
+    // The hierarchy installed on the Subway when the snapshot was taken, or null.
+    public ContractionHierarchy getContractionHierarchy() {
+        return hierarchy;
+    }
+
+    public RouteCache getRouteCache() {
+        return routeCache;
+    }
+
+    public int getStationCount() {
+        return graph.getStationCount();
+    }
+
+    public boolean hasStation(String stationName) {
+        return graph.getStationId(stationName) >= 0;
+    }
+
+    public boolean hasConnection(String station1Name, String station2Name, String lineName) {
+        return graph.hasConnection(station1Name, station2Name, lineName);
+    }
+
+    // The route is unmodifiable and may be shared with other callers through
+    // the route cache.
+    public List<Connection> getDirections(String startStationName, String endStationName) {
+        int start = stationId(startStationName);
+        int end = stationId(endStationName);
+        long key = RouteCache.key(start, end);
+        List<Connection> route = routeCache.get(key);
+        if (route == null) {
+            route = graph.toRoute(graph.findPath(start, end));
+            routeCache.put(key, route, routeCache.generation());
+        }
+        return route;
+    }
+
+    public Map<String, List<Connection>> getDirections(String startStationName, Collection<String> endStationNames) {
+        ShortestPathTree tree = new ShortestPathTree(graph, stationId(startStationName));
+        Map<String, List<Connection>> routes = new LinkedHashMap<>();
+        for (String endStationName : endStationNames) {
+            routes.put(endStationName, graph.toConnections(tree.findPath(stationId(endStationName))));
+        }
+        return routes;
+    }
+
+    public Route getRoute(String startStationName, String endStationName, RoutingMode mode) {
+        return route(graph, stationId(startStationName), stationId(endStationName), mode, transferPenalty, hierarchy);
+    }
+
+    public List<Route> getParetoRoutes(String startStationName, String endStationName, int maxLineChanges) {
+        return ParetoSearch.search(graph, stationId(startStationName), stationId(endStationName), maxLineChanges);
+    }
+
+    public List<Route> getAlternativeRoutes(String startStationName, String endStationName, int k, long budget, TimeUnit unit) {
+        return KShortestPaths.search(graph, stationId(startStationName), stationId(endStationName), k, transferPenalty,
+            unit.toNanos(budget));
+    }
+
+    public Isochrone getStationsWithinHops(String originStationName, int maxHops) {
+        return Isochrone.withinHops(graph, stationId(originStationName), maxHops);
+    }
+
+    public Isochrone getStationsWithinMinutes(String originStationName, double maxMinutes) {
+        return Isochrone.withinMinutes(graph, stationId(originStationName), maxMinutes, transferPenalty);
+    }
+
+    public BitSet getReachableWithinHops(String originStationName, int maxHops, BitSet reachable) {
+        return Isochrone.fillWithinHops(graph, stationId(originStationName), maxHops, reachable);
+    }
+
+    public BitSet getReachableWithinMinutes(String originStationName, double maxMinutes, BitSet reachable) {
+        return Isochrone.fillWithinMinutes(graph, stationId(originStationName), maxMinutes, transferPenalty, reachable);
+    }
+
+    private int stationId(String stationName) {
+        int id = graph.getStationId(stationName);
+        if (id < 0)
+        {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return id;
+    }
+
+    // Shared by Subway.getRoute.
+    static Route route(SubwayGraph graph, int start, int end, RoutingMode mode, double transferPenalty,
+            ContractionHierarchy hierarchy) {
+        switch (mode) {
+            case DIJKSTRA:
+                return WeightedSearch.dijkstra(graph, start, end, transferPenalty);
+            case BIDIRECTIONAL_DIJKSTRA:
+                return WeightedSearch.bidirectional(graph, start, end, transferPenalty);
+            case A_STAR:
+                return WeightedSearch.aStar(graph, start, end, transferPenalty);
+            case CONTRACTION_HIERARCHY:
+                if (hierarchy == null || hierarchy.getTransferPenalty() != transferPenalty) {
+                    throw new IllegalStateException("No contraction hierarchy for transfer penalty " + transferPenalty);
+                }
+                return hierarchy.query(start, end);
+            default:
+                int[] path = graph.findPath(start, end);
+                int expanded = SearchWorkspace.forStations(graph.getStationCount()).expanded;
+                return new Route(graph.toConnections(path), graph.pathCost(path, transferPenalty), expanded);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.subway.core;
+
+// One scheduled run between two stations: a Connection that also knows which
+// trip makes it and when it leaves and arrives, in seconds after midnight of
+// the service day (GTFS times, so they may pass 24:00:00).
+public class TimedConnection extends Connection
+{
+    private String tripId;
+    private int departureTime;
+    private int arrivalTime;
+
+    public TimedConnection(Station station1, Station station2, String lineName, String tripId, int departureTime, int arrivalTime)
+    {
+        super(station1, station2, lineName, (arrivalTime - departureTime) / 60.0);
+        this.tripId = tripId;
+        this.departureTime = departureTime;
+        this.arrivalTime = arrivalTime;
+    }
+
+    public String getTripId()
+    {
+        return tripId;
+    }
+
+    public int getDepartureTime()
+    {
+        return departureTime;
+    }
+
+    public int getArrivalTime()
+    {
+        return arrivalTime;
+    }
+
+    public static String formatTime(int seconds)
+    {
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    public String toString()
+    {
+        return "[" + getStation1().getName() + " " + formatTime(departureTime) + ", " + getStation2().getName() + " "
+            + formatTime(arrivalTime) + ", " + getLineName() + "]";
+    }
+}
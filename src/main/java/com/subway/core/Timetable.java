@@ -0,0 +1,377 @@
+package com.subway.core;
+
+import java.util.*;
+
+// Scheduled runs between stations, answering "leave at 08:15, arrive
+// earliest" with the Connection Scan Algorithm. Every run is stored once in
+// parallel int arrays sorted by departure time, so a query is a single
+// forward sweep from the first run at or after the departure time, stopping
+// as soon as no later run can arrive any earlier. Changing trains at a
+// station takes no time. A search over the distinct station-to-station
+// links goes first, so a station no run leads to at all is answered without
+// sweeping the rest of the day.
+//
+// Times are seconds after midnight of one service day and may pass
+// 24:00:00; service calendars are not modelled, so every trip runs every
+// day.
+public final class Timetable
+{
+    // Sort keys pack departure, arrival and insertion order into a long.
+    private static final int TIME_BITS = 18;
+    public static final int MAX_TIME = (1 << TIME_BITS) - 1;
+    private static final int MAX_CONNECTIONS = 1 << (63 - 2 * TIME_BITS);
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private static final ThreadLocal<Scan> SCANS = ThreadLocal.withInitial(Scan::new);
+
+    private final Station[] stations;
+    private final Map<String, Integer> stationIds;
+    private final String[] tripIds;
+    private final String[] tripLines;
+    private final int[] from;
+    private final int[] to;
+    private final int[] departures;
+    private final int[] arrivals;
+    private final int[] trips;
+    // Each trip's runs in order: tripConnections[tripOffsets[t]] onwards,
+    // and where each run sits in that list.
+    private final int[] tripOffsets;
+    private final int[] tripConnections;
+    private final int[] positions;
+    // Distinct directed links between stations, CSR style.
+    private final int[] linkOffsets;
+    private final int[] linkTargets;
+
+    private Timetable(Builder builder) {
+        int n = builder.size;
+        this.stations = builder.stations.toArray(new Station[0]);
+        this.stationIds = new HashMap<>(builder.stationIds);
+        this.tripIds = builder.tripIds.toArray(new String[0]);
+        this.tripLines = builder.tripLines.toArray(new String[0]);
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) builder.departures[i] << (63 - TIME_BITS)) | ((long) builder.arrivals[i] << (63 - 2 * TIME_BITS)) | i;
+        }
+        Arrays.sort(keys);
+        from = new int[n];
+        to = new int[n];
+        departures = new int[n];
+        arrivals = new int[n];
+        trips = new int[n];
+        for (int c = 0; c < n; c++) {
+            int i = (int) (keys[c] & (MAX_CONNECTIONS - 1));
+            from[c] = builder.from[i];
+            to[c] = builder.to[i];
+            departures[c] = builder.departures[i];
+            arrivals[c] = builder.arrivals[i];
+            trips[c] = builder.trips[i];
+        }
+
+        // Sorting keeps each trip's runs in order, so grouping them by trip
+        // in scan order lists every trip from its first run to its last.
+        tripOffsets = new int[tripIds.length + 1];
+        for (int c = 0; c < n; c++) {
+            tripOffsets[trips[c] + 1]++;
+        }
+        for (int t = 0; t < tripIds.length; t++) {
+            tripOffsets[t + 1] += tripOffsets[t];
+        }
+        int[] next = Arrays.copyOf(tripOffsets, tripIds.length);
+        tripConnections = new int[n];
+        positions = new int[n];
+        for (int c = 0; c < n; c++) {
+            positions[c] = next[trips[c]]++;
+            tripConnections[positions[c]] = c;
+        }
+
+        long[] links = new long[n];
+        for (int c = 0; c < n; c++) {
+            links[c] = ((long) from[c] << 32) | to[c];
+        }
+        Arrays.sort(links);
+        linkOffsets = new int[stations.length + 1];
+        int[] targets = new int[n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || links[i] != links[i - 1]) {
+                linkOffsets[(int) (links[i] >>> 32) + 1]++;
+                targets[count++] = (int) links[i];
+            }
+        }
+        for (int u = 0; u < stations.length; u++) {
+            linkOffsets[u + 1] += linkOffsets[u];
+        }
+        linkTargets = Arrays.copyOf(targets, count);
+    }
+
+    public int getStationCount() {
+        return stations.length;
+    }
+
+    public int getTripCount() {
+        return tripIds.length;
+    }
+
+    public int getConnectionCount() {
+        return from.length;
+    }
+
+    public boolean hasStation(String stationName) {
+        return stationIds.containsKey(Station.keyOf(stationName));
+    }
+
+    public int getStationId(String stationName) {
+        Integer id = stationIds.get(Station.keyOf(stationName));
+        return id == null ? -1 : id;
+    }
+
+    public Station getStation(int station) {
+        return stations[station];
+    }
+
+    // Earliest arrival at the end station when leaving the start station at
+    // or after departureTime, or -1 if no trip gets there.
+    public int getEarliestArrival(String startStationName, String endStationName, int departureTime) {
+        int start = stationId(startStationName);
+        int end = stationId(endStationName);
+        int arrival = scan(start, end, departureTime, SCANS.get());
+        return arrival == UNREACHED ? -1 : arrival;
+    }
+
+    // The legs of an earliest-arriving journey, one per run, or an empty list
+    // if no trip gets there. Among journeys arriving equally early, the one
+    // found first in departure order is returned.
+    public List<TimedConnection> getJourney(String startStationName, String endStationName, int departureTime) {
+        int start = stationId(startStationName);
+        int end = stationId(endStationName);
+        Scan scan = SCANS.get();
+        LinkedList<TimedConnection> legs = new LinkedList<>();
+        if (scan(start, end, departureTime, scan) == UNREACHED) {
+            return legs;
+        }
+        for (int station = end; station != start; ) {
+            int enter = scan.enter[station];
+            int exit = scan.exit[station];
+            for (int p = positions[exit]; p >= positions[enter]; p--) {
+                int c = tripConnections[p];
+                legs.addFirst(new TimedConnection(stations[from[c]], stations[to[c]], tripLines[trips[c]], tripIds[trips[c]],
+                    departures[c], arrivals[c]));
+            }
+            station = from[enter];
+        }
+        return legs;
+    }
+
+    private int stationId(String stationName) {
+        Integer id = stationIds.get(Station.keyOf(stationName));
+        if (id == null) {
+            throw new RuntimeException("Stations entered do not exist on this subway");
+        }
+        return id;
+    }
+
+    private int scan(int start, int end, int departureTime, Scan scan) {
+        scan.begin(stations.length, tripIds.length);
+        scan.reach(start, departureTime, -1, -1);
+        if (start == end) {
+            return departureTime;
+        }
+        if (!isLinked(start, end, scan)) {
+            return UNREACHED;
+        }
+        for (int c = firstDeparture(departureTime); c < departures.length; c++) {
+            int departure = departures[c];
+            if (departure >= scan.arrival(end)) {
+                break;
+            }
+            int trip = trips[c];
+            int boarded = scan.boarded(trip);
+            if (boarded < 0) {
+                if (scan.arrival(from[c]) > departure) {
+                    continue;
+                }
+                boarded = c;
+                scan.board(trip, c);
+            }
+            if (arrivals[c] < scan.arrival(to[c])) {
+                scan.reach(to[c], arrivals[c], boarded, c);
+            }
+        }
+        return scan.arrival(end);
+    }
+
+    // Whether any chain of runs, ignoring times, leads from start to end.
+    private boolean isLinked(int start, int end, Scan scan) {
+        int[] queue = scan.queue;
+        int head = 0;
+        int tail = 0;
+        scan.visit(start);
+        queue[tail++] = start;
+        while (head < tail) {
+            int u = queue[head++];
+            for (int i = linkOffsets[u]; i < linkOffsets[u + 1]; i++) {
+                int v = linkTargets[i];
+                if (v == end) {
+                    return true;
+                } else if (!scan.isVisited(v)) {
+                    scan.visit(v);
+                    queue[tail++] = v;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int firstDeparture(int departureTime) {
+        int low = 0;
+        int high = departures.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (departures[middle] < departureTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Per-thread labels for one scan. Stamps mark which entries belong to
+    // the current scan, so nothing is cleared between queries.
+    private static final class Scan
+    {
+        private int stamp;
+        private int[] stationStamps = new int[0];
+        private int[] arrival = new int[0];
+        private int[] enter = new int[0];
+        private int[] exit = new int[0];
+        private int[] visited = new int[0];
+        private int[] queue = new int[0];
+        private int[] tripStamps = new int[0];
+        private int[] boarded = new int[0];
+
+        void begin(int stationCount, int tripCount) {
+            if (stationStamps.length < stationCount) {
+                stationStamps = new int[stationCount];
+                arrival = new int[stationCount];
+                enter = new int[stationCount];
+                exit = new int[stationCount];
+                visited = new int[stationCount];
+                queue = new int[stationCount];
+            }
+            if (tripStamps.length < tripCount) {
+                tripStamps = new int[tripCount];
+                boarded = new int[tripCount];
+            }
+            if (++stamp == Integer.MAX_VALUE) {
+                Arrays.fill(stationStamps, 0);
+                Arrays.fill(visited, 0);
+                Arrays.fill(tripStamps, 0);
+                stamp = 1;
+            }
+        }
+
+        int arrival(int station) {
+            return stationStamps[station] == stamp ? arrival[station] : UNREACHED;
+        }
+
+        // Records the run that reached a station and the run its trip was
+        // boarded with.
+        void reach(int station, int time, int enterConnection, int exitConnection) {
+            stationStamps[station] = stamp;
+            arrival[station] = time;
+            enter[station] = enterConnection;
+            exit[station] = exitConnection;
+        }
+
+        boolean isVisited(int station) {
+            return visited[station] == stamp;
+        }
+
+        void visit(int station) {
+            visited[station] = stamp;
+        }
+
+        int boarded(int trip) {
+            return tripStamps[trip] == stamp ? boarded[trip] : -1;
+        }
+
+        void board(int trip, int connection) {
+            tripStamps[trip] = stamp;
+            boarded[trip] = connection;
+        }
+    }
+
+    // Collects stations, trips and their runs. Runs of a trip must be added
+    // in the order the trip makes them.
+    public static final class Builder
+    {
+        private final List<Station> stations = new ArrayList<>();
+        private final Map<String, Integer> stationIds = new HashMap<>();
+        private final List<String> tripIds = new ArrayList<>();
+        private final List<String> tripLines = new ArrayList<>();
+        private int[] lastArrivals = new int[64];
+        private int[] from = new int[256];
+        private int[] to = new int[256];
+        private int[] departures = new int[256];
+        private int[] arrivals = new int[256];
+        private int[] trips = new int[256];
+        private int size;
+
+        // Returns the station's id; a station with the same name as one
+        // already added gets that station's id.
+        public int addStation(Station station) {
+            Integer id = stationIds.putIfAbsent(station.getKey(), stations.size());
+            if (id != null) {
+                return id;
+            }
+            stations.add(station);
+            return stations.size() - 1;
+        }
+
+        public int addTrip(String tripId, String lineName) {
+            int trip = tripIds.size();
+            if (trip == lastArrivals.length) {
+                lastArrivals = Arrays.copyOf(lastArrivals, trip * 2);
+            }
+            lastArrivals[trip] = 0;
+            tripIds.add(tripId);
+            tripLines.add(lineName);
+            return trip;
+        }
+
+        public Builder addConnection(int trip, int station1, int station2, int departureTime, int arrivalTime) {
+            if (trip < 0 || trip >= tripIds.size() || station1 < 0 || station1 >= stations.size()
+                    || station2 < 0 || station2 >= stations.size()) {
+                throw new IllegalArgumentException("Unknown trip or station in connection " + station1 + " -> " + station2);
+            }
+            if (departureTime < lastArrivals[trip] || arrivalTime < departureTime || arrivalTime > MAX_TIME) {
+                throw new IllegalArgumentException("Invalid times " + TimedConnection.formatTime(departureTime) + " -> "
+                    + TimedConnection.formatTime(arrivalTime) + " on trip " + tripIds.get(trip));
+            }
+            if (size == MAX_CONNECTIONS) {
+                throw new IllegalStateException("Too many connections in timetable");
+            }
+            if (size == from.length) {
+                from = Arrays.copyOf(from, size * 2);
+                to = Arrays.copyOf(to, size * 2);
+                departures = Arrays.copyOf(departures, size * 2);
+                arrivals = Arrays.copyOf(arrivals, size * 2);
+                trips = Arrays.copyOf(trips, size * 2);
+            }
+            from[size] = station1;
+            to[size] = station2;
+            departures[size] = departureTime;
+            arrivals[size] = arrivalTime;
+            trips[size] = trip;
+            size++;
+            lastArrivals[trip] = arrivalTime;
+            return this;
+        }
+
+        public Timetable build() {
+            return new Timetable(this);
+        }
+    }
+}
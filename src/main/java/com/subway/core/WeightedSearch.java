@@ -0,0 +1,171 @@
+package com.subway.core;
+
+import java.util.*;
+
+// Shortest-travel-time searches over the station/line states of a SubwayGraph.
+// Boarding the first line is free; every later change of line costs the
+// transfer penalty.
+final class WeightedSearch
+{
+    private WeightedSearch() {
+    }
+
+    static Route dijkstra(SubwayGraph graph, int start, int end, double transferPenalty) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        DijkstraLabels labels = workspace.forward;
+        labels.reset();
+        for (int state = graph.stateOffsets[start]; state < graph.stateOffsets[start + 1]; state++) {
+            labels.offer(state, 0, -1, -1);
+        }
+
+        while (!labels.isEmpty()) {
+            int state = labels.poll();
+            if (graph.stateStations[state] == end) {
+                return toRoute(graph, labels, state);
+            }
+            relax(graph, labels, state, transferPenalty);
+        }
+        return new Route(new LinkedList<Connection>(), 0, labels.settledCount);
+    }
+
+    static Route aStar(SubwayGraph graph, int start, int end, double transferPenalty) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        DijkstraLabels labels = workspace.forward;
+        labels.reset();
+        double startEstimate = graph.estimateTravelTime(start, end);
+        for (int state = graph.stateOffsets[start]; state < graph.stateOffsets[start + 1]; state++) {
+            labels.offer(state, 0, startEstimate, -1, -1);
+        }
+
+        while (!labels.isEmpty()) {
+            int state = labels.poll();
+            int station = graph.stateStations[state];
+            if (station == end) {
+                return toRoute(graph, labels, state);
+            }
+            double cost = labels.distance[state];
+            for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                int e = graph.stateEdges[i];
+                int next = graph.edgeTargetStates[e];
+                if (next >= 0) {
+                    double nextCost = cost + graph.getTravelTime(e);
+                    labels.offer(next, nextCost, nextCost + graph.estimateTravelTime(graph.getTarget(e), end), state, e);
+                }
+            }
+            double transferCost = cost + transferPenalty;
+            double estimate = transferCost + graph.estimateTravelTime(station, end);
+            for (int other = graph.stateOffsets[station]; other < graph.stateOffsets[station + 1]; other++) {
+                if (other != state) {
+                    labels.offer(other, transferCost, estimate, state, -1);
+                }
+            }
+        }
+        return new Route(new LinkedList<Connection>(), 0, labels.settledCount);
+    }
+
+    // Searches forward from the start states and backward from the end states,
+    // always advancing the side with the smaller queue head, and stops once the
+    // two heads together cannot beat the best meeting point found so far.
+    static Route bidirectional(SubwayGraph graph, int start, int end, double transferPenalty) {
+        SearchWorkspace workspace = SearchWorkspace.forStates(graph.getStationCount(), graph.getStateCount());
+        DijkstraLabels forward = workspace.forward;
+        DijkstraLabels backward = workspace.backward;
+        forward.reset();
+        backward.reset();
+        if (start == end) {
+            return new Route(new LinkedList<Connection>(), 0);
+        }
+        for (int state = graph.stateOffsets[start]; state < graph.stateOffsets[start + 1]; state++) {
+            forward.offer(state, 0, -1, -1);
+        }
+        for (int state = graph.stateOffsets[end]; state < graph.stateOffsets[end + 1]; state++) {
+            backward.offer(state, 0, -1, -1);
+        }
+
+        double best = Double.POSITIVE_INFINITY;
+        int meeting = -1;
+        while (!forward.isEmpty() && !backward.isEmpty()) {
+            if (forward.peekKey() + backward.peekKey() >= best) {
+                break;
+            }
+            boolean forwardStep = forward.peekKey() <= backward.peekKey();
+            DijkstraLabels side = forwardStep ? forward : backward;
+            DijkstraLabels other = forwardStep ? backward : forward;
+            int state = side.poll();
+            double cost = side.distance[state];
+
+            for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+                int e = graph.stateEdges[i];
+                int next = graph.edgeTargetStates[e];
+                int via = forwardStep ? e : graph.getReverseEdge(e);
+                if (next < 0 || via < 0) {
+                    continue;
+                }
+                side.offer(next, cost + graph.getTravelTime(via), state, via);
+                if (other.isReached(next) && side.distance[next] + other.distance[next] < best) {
+                    best = side.distance[next] + other.distance[next];
+                    meeting = next;
+                }
+            }
+            int station = graph.stateStations[state];
+            for (int next = graph.stateOffsets[station]; next < graph.stateOffsets[station + 1]; next++) {
+                if (next == state) {
+                    continue;
+                }
+                side.offer(next, cost + transferPenalty, state, -1);
+                if (other.isReached(next) && side.distance[next] + other.distance[next] < best) {
+                    best = side.distance[next] + other.distance[next];
+                    meeting = next;
+                }
+            }
+        }
+
+        int settled = forward.settledCount + backward.settledCount;
+        if (meeting < 0) {
+            return new Route(new LinkedList<Connection>(), 0, settled);
+        }
+        LinkedList<Connection> route = new LinkedList<>();
+        for (int current = meeting; current >= 0; current = forward.parentState[current]) {
+            int e = forward.parentEdge[current];
+            if (e >= 0) {
+                route.addFirst(graph.getConnection(e));
+            }
+        }
+        for (int current = meeting; current >= 0; current = backward.parentState[current]) {
+            int e = backward.parentEdge[current];
+            if (e >= 0) {
+                route.addLast(graph.getConnection(e));
+            }
+        }
+        return new Route(route, best, settled);
+    }
+
+    static void relax(SubwayGraph graph, DijkstraLabels labels, int state, double transferPenalty) {
+        double cost = labels.distance[state];
+        for (int i = graph.stateEdgeOffsets[state]; i < graph.stateEdgeOffsets[state + 1]; i++) {
+            int e = graph.stateEdges[i];
+            int next = graph.edgeTargetStates[e];
+            if (next >= 0) {
+                labels.offer(next, cost + graph.getTravelTime(e), state, e);
+            }
+        }
+        int station = graph.stateStations[state];
+        for (int other = graph.stateOffsets[station]; other < graph.stateOffsets[station + 1]; other++) {
+            if (other != state) {
+                labels.offer(other, cost + transferPenalty, state, -1);
+            }
+        }
+    }
+
+    static Route toRoute(SubwayGraph graph, DijkstraLabels labels, int state) {
+        double cost = labels.distance[state];
+        LinkedList<Connection> route = new LinkedList<>();
+        for (int current = state; current >= 0; current = labels.parentState[current]) {
+            int e = labels.parentEdge[current];
+            if (e >= 0) {
+                route.addFirst(graph.getConnection(e));
+            }
+        }
+        return new Route(route, cost, labels.settledCount);
+    }
+}
@@ -7,12 +7,12 @@ import java.awt.event.*;
 import java.awt.geom.*;
 import java.io.*;
 import java.util.List;
-import com.subway.core.Subway;
 import com.subway.core.SubwayLoader;
+import com.subway.core.SubwaySnapshot;
 import com.subway.gui.SubwayPrinter;
 
 public class ModernSubwayGUI extends JFrame {
-    private Subway subway;
+    private SubwaySnapshot subway;
     private JComboBox<String> startStationCombo;
     private JComboBox<String> endStationCombo;
     private JTextArea directionsArea;
@@ -57,7 +57,7 @@ public class ModernSubwayGUI extends JFrame {
         // Load subway data
         try {
             SubwayLoader loader = new SubwayLoader();
-            subway = loader.loadFromFile(new File("data/ObjectvilleSubway.txt"));
+            subway = loader.loadSnapshot(new File("data/ObjectvilleSubway.txt"));
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error loading subway data: " + e.getMessage(), 
                                         "Error", JOptionPane.ERROR_MESSAGE);
@@ -0,0 +1,338 @@
+package com.subway.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.subway.core.Connection;
+import com.subway.core.Route;
+import com.subway.core.RoutingMode;
+import com.subway.core.SnapshotHolder;
+import com.subway.core.Station;
+import com.subway.core.SubwayGraph;
+import com.subway.core.SubwayLoader;
+import com.subway.core.SubwaySnapshot;
+
+// Long-running HTTP/JSON front end to one loaded network, on the JDK's
+// built-in HTTP server. Every request reads the current snapshot from a
+// SnapshotHolder, so requests share the network without locking and a reload
+// never shows half-way through one.
+//
+//   GET /route?from=A&to=B[&mode=DIJKSTRA]   route between two stations
+//   GET /stations?q=text[&limit=20]          stations whose name contains text
+//   GET /health                              network size and uptime
+//
+// Requests and queries run on virtual threads when the JVM has them (Java
+// 21+). Otherwise requests get a cached thread pool and queries a pool of one
+// thread per core with a bounded queue, so a burst of requests queues for the
+// CPU instead of piling up threads, and a request that finds the queue full
+// is answered 503 at once. Each request waits for its query up to the timeout
+// before answering 503.
+// Usage: RouteServer [networkFile] [port] [timeoutMillis]
+public class RouteServer
+{
+    public static final int DEFAULT_PORT = 8080;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 1000;
+    private static final int QUEUED_QUERIES_PER_CORE = 64;
+
+    private final SnapshotHolder holder;
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ExecutorService queries;
+    private final boolean virtualThreads;
+    private final long timeoutNanos;
+    private final long started = System.nanoTime();
+
+    // Port 0 picks a free port; see getPort.
+    public RouteServer(SnapshotHolder holder, InetSocketAddress address, long timeout, TimeUnit unit) throws IOException {
+        this.holder = holder;
+        this.timeoutNanos = unit.toNanos(timeout);
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        if (virtual != null) {
+            this.requests = virtual;
+            this.queries = virtual;
+        } else {
+            this.requests = Executors.newCachedThreadPool(daemonThreads());
+            int cores = Runtime.getRuntime().availableProcessors();
+            this.queries = new ThreadPoolExecutor(cores, cores, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(cores * QUEUED_QUERIES_PER_CORE), daemonThreads());
+        }
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(requests);
+        server.createContext("/route", exchange -> handle(exchange, this::route));
+        server.createContext("/stations", exchange -> handle(exchange, this::stations));
+        server.createContext("/health", exchange -> handle(exchange, this::health));
+    }
+
+    // The JDK server leaves Nagle's algorithm on, which holds small responses
+    // on keep-alive connections back by the client's delayed ACK, about 40 ms
+    // each. It reads the setting once, when the first server is created, so
+    // embedders start the JVM with -Dsun.net.httpserver.nodelay=true instead.
+    public static void main(String[] args) {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        File file = new File(args.length > 0 ? args[0] : "data/ObjectvilleSubway.txt");
+        try {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            long timeout = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_TIMEOUT_MILLIS;
+            SubwayLoader loader = new SubwayLoader();
+            SnapshotHolder holder = new SnapshotHolder(loader.loadSnapshot(file), loader);
+            RouteServer server = new RouteServer(holder, new InetSocketAddress(port), timeout, TimeUnit.MILLISECONDS);
+            server.start();
+            System.out.println("Serving " + file + " (" + holder.get().getStationCount() + " stations) on http://localhost:"
+                + server.getPort() + "/ with " + (server.isVirtualThreads() ? "virtual threads" : "a thread pool"));
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not start the route server: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests, waits up to delaySeconds for those running,
+    // then shuts the executors down.
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        requests.shutdownNow();
+        queries.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public SnapshotHolder getSnapshotHolder() {
+        return holder;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() when the running JVM has
+    // it; looked up reflectively so the code still builds for Java 11.
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        ThreadFactory defaults = Executors.defaultThreadFactory();
+        return runnable -> {
+            Thread thread = defaults.newThread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private interface Handler
+    {
+        String answer(Map<String, String> parameters, SubwaySnapshot snapshot);
+    }
+
+    // Runs the handler as its own task and waits for it up to the timeout.
+    // Routing does not check for interruption, so a query that times out
+    // while running finishes in the background; only its answer is dropped.
+    // One that times out still queued is taken off the queue.
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                respond(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+            Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+            SubwaySnapshot snapshot = holder.get();
+            Future<String> answer = queries.submit(() -> handler.answer(parameters, snapshot));
+            try {
+                respond(exchange, 200, answer.get(timeoutNanos, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                answer.cancel(true);
+                if (queries instanceof ThreadPoolExecutor) {
+                    ((ThreadPoolExecutor) queries).remove((Runnable) answer);
+                }
+                respond(exchange, 503, error("Request timed out"));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RequestException) {
+                    RequestException request = (RequestException) cause;
+                    respond(exchange, request.status, error(request.getMessage()));
+                } else {
+                    respond(exchange, 500, error(String.valueOf(cause)));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, error("Server is shutting down"));
+            }
+        } catch (RejectedExecutionException e) {
+            respond(exchange, 503, error(queries.isShutdown() ? "Server is shutting down" : "Server is busy"));
+        } catch (RequestException e) {
+            respond(exchange, e.status, error(e.getMessage()));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String route(Map<String, String> parameters, SubwaySnapshot snapshot) {
+        String from = required(parameters, "from");
+        String to = required(parameters, "to");
+        RoutingMode mode = RoutingMode.FEWEST_STOPS;
+        if (parameters.containsKey("mode")) {
+            try {
+                mode = RoutingMode.valueOf(parameters.get("mode").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new RequestException(400, "Unknown mode: " + parameters.get("mode"));
+            }
+        }
+        for (String name : new String[] { from, to }) {
+            if (!snapshot.hasStation(name)) {
+                throw new RequestException(404, "Unknown station: " + name);
+            }
+        }
+        Route route;
+        try {
+            route = snapshot.getRoute(from, to, mode);
+        } catch (IllegalStateException e) {
+            throw new RequestException(400, e.getMessage());
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"from\":").append(quote(from)).append(",\"to\":").append(quote(to))
+            .append(",\"mode\":").append(quote(mode.name())).append(",\"found\":").append(!route.isEmpty() || from.equalsIgnoreCase(to))
+            .append(",\"stops\":").append(route.getConnections().size())
+            .append(",\"lineChanges\":").append(route.getLineChanges())
+            .append(",\"cost\":").append(number(route.getTotalCost()))
+            .append(",\"connections\":[");
+        String separator = "";
+        for (Connection connection : route.getConnections()) {
+            json.append(separator).append("{\"from\":").append(quote(connection.getStation1().getName()))
+                .append(",\"to\":").append(quote(connection.getStation2().getName()))
+                .append(",\"line\":").append(quote(connection.getLineName()))
+                .append(",\"travelTime\":").append(number(connection.getTravelTime())).append('}');
+            separator = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    // Case-insensitive substring match over every station, in network order.
+    private String stations(Map<String, String> parameters, SubwaySnapshot snapshot) {
+        String query = parameters.getOrDefault("q", "").toLowerCase(Locale.ROOT);
+        int limit = DEFAULT_LIMIT;
+        if (parameters.containsKey("limit")) {
+            try {
+                limit = Math.min(Integer.parseInt(parameters.get("limit")), MAX_LIMIT);
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit < 0) {
+                throw new RequestException(400, "Invalid limit: " + parameters.get("limit"));
+            }
+        }
+        SubwayGraph graph = snapshot.getGraph();
+        StringBuilder json = new StringBuilder("{\"stations\":[");
+        int found = 0;
+        for (int i = 0; i < graph.getStationCount() && found < limit; i++) {
+            Station station = graph.getStation(i);
+            if (!graph.isRemoved(i) && station.getName().toLowerCase(Locale.ROOT).contains(query)) {
+                json.append(found++ == 0 ? "" : ",").append(quote(station.getName()));
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    private String health(Map<String, String> parameters, SubwaySnapshot snapshot) {
+        SubwayGraph graph = snapshot.getGraph();
+        int stations = graph.getStationCount() - graph.getRemovedCount();
+        return "{\"status\":\"ok\",\"stations\":" + stations + ",\"connections\":" + graph.getEdgeCount() / 2
+            + ",\"virtualThreads\":" + virtualThreads + ",\"uptimeSeconds\":" + (System.nanoTime() - started) / 1000000000L + "}";
+    }
+
+    private static String required(Map<String, String> parameters, String name) {
+        String value = parameters.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new RequestException(400, "Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private static Map<String, String> parameters(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            try {
+                String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+                String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                parameters.putIfAbsent(name, value);
+            } catch (IllegalArgumentException e) {
+                throw new RequestException(400, "Malformed query: " + rawQuery);
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // Unreachable routes cost infinity, which JSON cannot carry.
+    private static String number(double value) {
+        return Double.isFinite(value) ? String.valueOf(value) : "null";
+    }
+
+    // A client error, answered with its status and message.
+    private static final class RequestException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        RequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.subway.util;
+
+import java.io.File;
+import com.subway.core.ContractionHierarchy;
+import com.subway.core.Subway;
+import com.subway.core.SubwayGraph;
+import com.subway.core.SubwayLoader;
+
+public class HierarchyTool
+{
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: HierarchyTool [networkFile] [hierarchyFile] [transferPenalty]");
+            System.exit(-1);
+        }
+        try {
+            SubwayLoader loader = new SubwayLoader();
+            Subway subway = loader.loadFromFile(new File(args[0]));
+            double transferPenalty = args.length == 3 ? Double.parseDouble(args[2]) : 0;
+            SubwayGraph graph = subway.getGraph();
+
+            long start = System.nanoTime();
+            ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, transferPenalty);
+            long elapsed = System.nanoTime() - start;
+            hierarchy.save(new File(args[1]));
+
+            System.out.println("Contracted " + graph.getStateCount() + " station/line states of "
+                + graph.getStationCount() + " stations in " + (elapsed / 1000000) + " ms");
+            System.out.println("Added " + hierarchy.getShortcutCount() + " shortcuts, "
+                + hierarchy.getEdgeCount() + " edges in total");
+            System.out.println("Wrote " + args[1]);
+        }
+        catch (Exception e) {
+            e.printStackTrace(System.out);
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.subway.util;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import com.subway.core.GtfsLoader;
+import com.subway.core.LoadStats;
+import com.subway.core.MappedNetwork;
+import com.subway.core.NetworkDelta;
+import com.subway.core.Subway;
+import com.subway.core.SubwayLoader;
+
+// Writes a NetworkGenerator hub network file and reports how fast SubwayLoader
+// reads it. Each line gets segments / lines segments.
+// Usage: LoadBenchmark [stations] [lines] [segments]
+public class LoadBenchmark
+{
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int stations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int segments = args.length > 2 ? Integer.parseInt(args[2]) : 100000;
+
+        File file = File.createTempFile("subway", ".txt");
+        File compiled = File.createTempFile("subway", ".bin");
+        File feed = Files.createTempDirectory("gtfs").toFile();
+        try {
+            NetworkGenerator.writeHub(file, stations, lines, Math.max(1, segments / lines) + 1, 17L);
+            Subway subway = null;
+            for (boolean parallel : new boolean[] { false, true }) {
+                System.out.println("=== Loading " + file.length() / 1024 + " KB network file, "
+                    + (parallel ? "parallel on " + ForkJoinPool.commonPool().getParallelism() + " workers" : "sequential")
+                    + " ===");
+                for (int run = 1; run <= RUNS; run++) {
+                    SubwayLoader loader = new SubwayLoader();
+                    loader.setParallel(parallel);
+                    subway = loader.loadFromFile(file);
+                    LoadStats stats = loader.getLastLoadStats();
+                    System.out.println("run " + run + ": " + stats);
+                }
+                System.out.println();
+            }
+
+            String first = NetworkGenerator.hubStation(0);
+            String last = NetworkGenerator.hubStation(stations - 1);
+            System.out.println("=== Closing stations with a delta instead of reloading ===");
+            for (int run = 1; run <= RUNS; run++) {
+                long start = System.nanoTime();
+                subway.applyDelta(new NetworkDelta().removeStation(NetworkGenerator.hubStation(stations - 1 - run))
+                    .removeConnection(first, last, "Line 0"));
+                long applied = System.nanoTime();
+                subway.getDirections(first, last);
+                long answered = System.nanoTime();
+                System.out.printf("run %d: delta applied in %.2f ms, first route after it in %.2f ms%n", run,
+                    (applied - start) / 1e6, (answered - applied) / 1e6);
+            }
+            System.out.println();
+
+            MappedNetwork.compile(subway.getGraph(), compiled);
+            System.out.println("=== Opening the compiled " + compiled.length() / 1024 + " KB file ===");
+            for (int run = 1; run <= RUNS; run++) {
+                long start = System.nanoTime();
+                MappedNetwork network = MappedNetwork.open(compiled);
+                long opened = System.nanoTime();
+                int hops = network.getDirections(first, last).size();
+                long answered = System.nanoTime();
+                System.out.printf("run %d: mapped in %.2f ms, first route (%d hops) in %.2f ms%n", run,
+                    (opened - start) / 1e6, hops, (answered - opened) / 1e6);
+            }
+            System.out.println();
+
+            writeFeed(feed, stations, lines, 200, 30, 17L);
+            System.out.println("=== Importing a " + new File(feed, "stop_times.txt").length() / (1024 * 1024)
+                + " MB stop_times.txt GTFS feed ===");
+            for (int run = 1; run <= RUNS; run++) {
+                GtfsLoader loader = new GtfsLoader();
+                loader.setParallel(run % 2 == 0);
+                System.gc();
+                resetPeakHeap();
+                loader.loadFromFeed(feed);
+                System.out.printf("run %d (%s): %s, peak heap %d MB%n", run, loader.isParallel() ? "parallel" : "sequential",
+                    loader.getLastLoadStats(), peakHeap() / (1024 * 1024));
+            }
+        } finally {
+            file.delete();
+            compiled.delete();
+            for (File entry : feed.listFiles()) {
+                entry.delete();
+            }
+            feed.delete();
+        }
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    // A GTFS feed of routes that each visit stopsPerTrip random stops, run
+    // by tripsPerRoute trips through the day.
+    static void writeFeed(File directory, int stops, int routes, int tripsPerRoute, int stopsPerTrip, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (Writer writer = feedWriter(directory, "stops.txt")) {
+            writer.write("stop_id,stop_name,stop_lat,stop_lon\n");
+            for (int i = 0; i < stops; i++) {
+                writer.write("S" + i + ",Stop " + i + "," + random.nextInt(10000) / 100.0 + "," + random.nextInt(10000) / 100.0 + "\n");
+            }
+        }
+        try (Writer writer = feedWriter(directory, "routes.txt")) {
+            writer.write("route_id,route_short_name,route_long_name,route_type\n");
+            for (int route = 0; route < routes; route++) {
+                writer.write("R" + route + ",Line " + route + ",,1\n");
+            }
+        }
+        try (Writer writer = feedWriter(directory, "trips.txt")) {
+            writer.write("route_id,service_id,trip_id\n");
+            for (int route = 0; route < routes; route++) {
+                for (int trip = 0; trip < tripsPerRoute; trip++) {
+                    writer.write("R" + route + ",DAILY,T" + route + "_" + trip + "\n");
+                }
+            }
+        }
+        try (Writer writer = feedWriter(directory, "stop_times.txt")) {
+            writer.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+            for (int route = 0; route < routes; route++) {
+                int[] pattern = new int[stopsPerTrip];
+                int[] minutes = new int[stopsPerTrip];
+                for (int i = 0; i < stopsPerTrip; i++) {
+                    pattern[i] = random.nextInt(stops);
+                    minutes[i] = i == 0 ? 0 : minutes[i - 1] + 1 + random.nextInt(4);
+                }
+                for (int trip = 0; trip < tripsPerRoute; trip++) {
+                    int departure = 5 * 60 + trip * 5;
+                    for (int i = 0; i < stopsPerTrip; i++) {
+                        String time = String.format("%02d:%02d:00", (departure + minutes[i]) / 60, (departure + minutes[i]) % 60);
+                        writer.write("T" + route + "_" + trip + "," + time + "," + time + ",S" + pattern[i] + "," + (i + 1) + "\n");
+                    }
+                }
+            }
+        }
+    }
+
+    private static Writer feedWriter(File directory, String name) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(directory, name)), StandardCharsets.UTF_8));
+    }
+}
@@ -1,7 +1,14 @@
 package com.subway.util;
 
-import java.io.File;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import com.subway.core.GtfsLoader;
+import com.subway.core.LoadStats;
+import com.subway.core.Station;
 import com.subway.core.Subway;
+import com.subway.core.SubwayGraph;
 import com.subway.core.SubwayLoader;
 
 public class LoadTester
@@ -34,8 +41,202 @@ public class LoadTester
                 System.out.println("...connections test FAILED");
                 System.exit(-1);
             }
+
+            System.out.println("\nTesting parallel loading...");
+            File synthetic = File.createTempFile("subway", ".txt");
+            File broken = File.createTempFile("subway", ".txt");
+            try {
+                NetworkGenerator.writeHub(synthetic, 2000, 100, 201, 3L);
+                try (Writer writer = new FileWriter(broken)) {
+                    writer.write("A\nB\nC\n\nFirst Line\nA\nB\n\nSecond Line\nB\nC\t2\nD\n");
+                }
+                if (loadsAlike(new File("data/ObjectvilleSubway.txt")) && loadsAlike(synthetic) &&
+                    failsAlike(broken)) {
+                    System.out.println("... parallel loading test passed successfully.");
+                }
+                else
+                {
+                    System.out.println("... parallel loading test FAILED.");
+                    System.exit(-1);
+                }
+            } finally {
+                synthetic.delete();
+                broken.delete();
+            }
+
+            System.out.println("\nTesting generated networks...");
+            File generated = File.createTempFile("subway", ".txt");
+            try {
+                if (generatesAlike(generated, "grid", 7, 9, 0, 5L) && generatesAlike(generated, "radial", 5, 6, 2, 6L) &&
+                    generatesAlike(generated, "radial", 1, 1, 0, 7L) && hubLoads(generated) && rejectsDegenerateSizes()) {
+                    System.out.println("... generated network test passed successfully.");
+                }
+                else
+                {
+                    System.out.println("... generated network test FAILED.");
+                    System.exit(-1);
+                }
+            } finally {
+                generated.delete();
+            }
+
+            System.out.println("\nTesting GTFS import...");
+            File zipped = File.createTempFile("gtfs", ".zip");
+            File unordered = Files.createTempDirectory("gtfs").toFile();
+            try {
+                zip(new File("data/gtfs"), zipped);
+                copyFeed(new File("data/gtfs"), unordered);
+                try (Writer writer = new FileWriter(new File(unordered, "stop_times.txt"), true)) {
+                    writer.write("H1,08:30:00,08:30:00,MUS,6\n");
+                }
+                if (gtfsLoads(new File("data/gtfs"), false) && gtfsLoads(new File("data/gtfs"), true) &&
+                    gtfsLoads(zipped, true) && gtfsFails(unordered)) {
+                    System.out.println("... GTFS import test passed successfully.");
+                }
+                else
+                {
+                    System.out.println("... GTFS import test FAILED.");
+                    System.exit(-1);
+                }
+            } finally {
+                zipped.delete();
+                for (File file : unordered.listFiles()) {
+                    file.delete();
+                }
+                unordered.delete();
+            }
         } catch (Exception e) {
             e.printStackTrace(System.out);
         }
     }
+
+    // Sequential and parallel loads must build identical graphs.
+    private static boolean loadsAlike(File file) throws IOException {
+        SubwayLoader parallel = new SubwayLoader();
+        parallel.setParallel(true);
+        return parallel.loadFromFile(file).getGraph().getFingerprint() ==
+            new SubwayLoader().loadFromFile(file).getGraph().getFingerprint();
+    }
+
+    // ... and stop at the same bad entry with the same error.
+    private static boolean failsAlike(File file) {
+        String sequentialError = loadError(new SubwayLoader(), file);
+        SubwayLoader parallel = new SubwayLoader();
+        parallel.setParallel(true);
+        return sequentialError != null && sequentialError.equals(loadError(parallel, file));
+    }
+
+    // A generated file must load into exactly the network the generator
+    // builds in memory for the same arguments, coordinates included.
+    private static boolean generatesAlike(File file, String shape, int a, int b, int c, long seed) throws IOException {
+        Subway expected;
+        if (shape.equals("grid")) {
+            NetworkGenerator.writeGrid(file, a, b, seed);
+            expected = NetworkGenerator.buildGrid(a, b, seed);
+        } else {
+            NetworkGenerator.writeRadial(file, a, b, c, seed);
+            expected = NetworkGenerator.buildRadial(a, b, c, seed);
+        }
+        SubwayGraph loaded = new SubwayLoader().loadFromFile(file).getGraph();
+        SubwayGraph built = expected.getGraph();
+        if (loaded.getFingerprint() != built.getFingerprint() || loaded.getStationCount() != built.getStationCount()) {
+            return false;
+        }
+        for (int i = 0; i < built.getStationCount(); i++) {
+            Station station = loaded.getStation(i);
+            if (station.getX() != built.getStation(i).getX() || station.getY() != built.getStation(i).getY()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hub networks are reproducible, load with every segment written, and
+    // connect their hubs.
+    private static boolean hubLoads(File file) throws IOException {
+        StringWriter first = new StringWriter();
+        StringWriter second = new StringWriter();
+        NetworkGenerator.writeHub(first, 500, 40, 30, 8L);
+        NetworkGenerator.writeHub(second, 500, 40, 30, 8L);
+        long segments = NetworkGenerator.writeHub(file, 500, 40, 30, 8L);
+        SubwayLoader loader = new SubwayLoader();
+        Subway subway = loader.loadFromFile(file);
+        LoadStats stats = loader.getLastLoadStats();
+        return first.toString().equals(second.toString()) && segments == 40 * 29 && stats.getSegmentCount() == segments &&
+            stats.getStationCount() == 500 && stats.getLineCount() == 40 &&
+            !subway.getDirections(NetworkGenerator.hubStation(0), NetworkGenerator.hubStation(7)).isEmpty();
+    }
+
+    // Sizes that would give an empty network, or rings of self-loops at
+    // Central, are refused.
+    private static boolean rejectsDegenerateSizes() throws IOException {
+        int[][] radial = { { 0, 5, 1 }, { -1, 5, 1 }, { 4, 3, 3 }, { 4, 2, 3 } };
+        for (int[] size : radial) {
+            try {
+                NetworkGenerator.writeRadial(new StringWriter(), size[0], size[1], size[2], 1L);
+                return false;
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            NetworkGenerator.buildGrid(0, 3, 1L);
+            return false;
+        } catch (IllegalArgumentException expected) {
+        }
+        return NetworkGenerator.buildRadial(4, 4, 3, 1L).getGraph().getStationCount() == 33;
+    }
+
+    // The fixture has a parent station with two platforms, a quoted name with
+    // a comma, an unordered trip, a stop without times and a trip past
+    // midnight; connections take the fastest trip's time.
+    private static boolean gtfsLoads(File feed, boolean parallel) throws IOException {
+        GtfsLoader loader = new GtfsLoader();
+        loader.setParallel(parallel);
+        Subway subway = loader.loadFromFeed(feed);
+        LoadStats stats = loader.getLastLoadStats();
+        return stats.getStationCount() == 6 && stats.getLineCount() == 2 && stats.getSegmentCount() == 8 &&
+            subway.hasStation("Market, North") && subway.hasStation("The \"Old\" Museum") &&
+            !subway.hasStation("Central Platform 1") &&
+            subway.getConnection("Harbor", "Central", "Harbor Line").getTravelTime() == 4 &&
+            subway.getConnection("Central", "Market, North", "Harbor Line").getTravelTime() == 3 &&
+            subway.getConnection("University", "Park Street", "Harbor Line").getTravelTime() == 7 &&
+            subway.getConnection("University", "Park Street", "Circle Line").getTravelTime() == 5 &&
+            subway.getConnection("Park Street", "Central", "Circle Line").getTravelTime() == 7 &&
+            subway.getDirections("Harbor", "The \"Old\" Museum").size() == 2;
+    }
+
+    // Stops of one trip split across stop_times.txt are rejected.
+    private static boolean gtfsFails(File feed) {
+        try {
+            new GtfsLoader().loadFromFeed(feed);
+            return false;
+        } catch (IOException e) {
+            return e.getMessage().contains("H1");
+        }
+    }
+
+    private static void zip(File directory, File target) throws IOException {
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target))) {
+            for (File file : directory.listFiles()) {
+                out.putNextEntry(new ZipEntry(file.getName()));
+                Files.copy(file.toPath(), out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void copyFeed(File directory, File target) throws IOException {
+        for (File file : directory.listFiles()) {
+            Files.copy(file.toPath(), new File(target, file.getName()).toPath());
+        }
+    }
+
+    private static String loadError(SubwayLoader loader, File file) {
+        try {
+            loader.loadFromFile(file);
+            return null;
+        } catch (Exception e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
 }
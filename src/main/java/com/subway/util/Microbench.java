@@ -0,0 +1,153 @@
+package com.subway.util;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+// A small harness in the manner of JMH, for the benchmarks that live here.
+// Each benchmark is warmed up for a few timed iterations, then measured over
+// more; an iteration calls the operation back to back until its time is up.
+// Results go to a volatile field so the JIT cannot drop the work. Besides
+// time per operation it reports the bytes the measuring thread allocated per
+// operation (HotSpot's per-thread allocation counter) and the GC cycles that
+// ran meanwhile.
+final class Microbench
+{
+    interface Operation
+    {
+        // i counts calls from 0, for picking inputs from a prepared array.
+        Object run(int i) throws Exception;
+    }
+
+    static volatile Object sink;
+
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean allocationSupported;
+
+    Microbench(int warmupIterations, int measurementIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationNanos = iterationMillis * 1000000;
+        boolean supported = threads instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+        if (supported) {
+            ((com.sun.management.ThreadMXBean) threads).setThreadAllocatedMemoryEnabled(true);
+        }
+        this.allocationSupported = supported;
+    }
+
+    static void printHeader() {
+        System.out.printf("%-28s %10s %5s %14s %12s %6s %14s %12s %6s%n", "Benchmark", "(stations)", "Cnt", "Score",
+            "Error", "Units", "alloc B/op", "alloc MB/s", "GCs");
+    }
+
+    Result measure(String name, int stations, Operation operation) throws Exception {
+        int calls = 0;
+        for (int i = 0; i < warmupIterations; i++) {
+            calls = iterate(operation, calls, null);
+        }
+        double[] scores = new double[measurementIterations];
+        long operations = 0;
+        long nanos = 0;
+        long bytes = 0;
+        long collections = collectionCount();
+        for (int i = 0; i < measurementIterations; i++) {
+            long[] totals = new long[3];
+            calls = iterate(operation, calls, totals);
+            scores[i] = (double) totals[1] / totals[0];
+            operations += totals[0];
+            nanos += totals[1];
+            bytes += totals[2];
+        }
+        collections = collectionCount() - collections;
+        // Let the last result go before the next benchmark builds its own.
+        sink = null;
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / scores.length;
+        }
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean) / Math.max(1, scores.length - 1);
+        }
+        Result result = new Result(name, stations, scores.length, mean, Math.sqrt(variance),
+            allocationSupported ? (double) bytes / operations : -1, allocationSupported ? bytes * 1e9 / nanos / (1024 * 1024) : -1,
+            collections);
+        result.print();
+        return result;
+    }
+
+    // Runs the operation until the iteration's time is up, at least once.
+    // Adds operations, nanoseconds and allocated bytes to totals when given.
+    private int iterate(Operation operation, int calls, long[] totals) throws Exception {
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = allocationSupported ? allocatedBytes(thread) : 0;
+        long start = System.nanoTime();
+        long elapsed;
+        int operations = 0;
+        do {
+            sink = operation.run(calls++ & Integer.MAX_VALUE);
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        if (totals != null) {
+            totals[0] += operations;
+            totals[1] += elapsed;
+            totals[2] += allocationSupported ? allocatedBytes(thread) - allocatedBefore : 0;
+        }
+        return calls;
+    }
+
+    private long allocatedBytes(long thread) {
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread);
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        for (GarbageCollectorMXBean collector : collectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    static final class Result
+    {
+        final String name;
+        final int stations;
+        final int count;
+        final double nanosPerOperation;
+        final double error;
+        final double bytesPerOperation;
+        final double allocationRate;
+        final long collections;
+
+        Result(String name, int stations, int count, double nanosPerOperation, double error, double bytesPerOperation,
+                double allocationRate, long collections) {
+            this.name = name;
+            this.stations = stations;
+            this.count = count;
+            this.nanosPerOperation = nanosPerOperation;
+            this.error = error;
+            this.bytesPerOperation = bytesPerOperation;
+            this.allocationRate = allocationRate;
+            this.collections = collections;
+        }
+
+        // Scores in the unit that keeps them readable, as JMH would with
+        // a per-benchmark @OutputTimeUnit.
+        void print() {
+            double scale = nanosPerOperation >= 1e6 ? 1e6 : nanosPerOperation >= 1e3 ? 1e3 : 1;
+            String units = scale == 1e6 ? "ms/op" : scale == 1e3 ? "us/op" : "ns/op";
+            System.out.printf("%-28s %10d %5d %14.3f %12s %6s %14s %12s %6d%n", name, stations, count,
+                nanosPerOperation / scale, String.format("+- %.3f", error / scale), units,
+                bytesPerOperation < 0 ? "n/a" : String.format("%.1f", bytesPerOperation),
+                allocationRate < 0 ? "n/a" : String.format("%.1f", allocationRate), collections);
+        }
+    }
+}
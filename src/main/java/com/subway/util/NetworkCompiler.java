@@ -0,0 +1,35 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.IOException;
+import com.subway.core.MappedNetwork;
+import com.subway.core.Subway;
+import com.subway.core.SubwayLoader;
+
+// Compiles a text network file into the binary format MappedNetwork maps,
+// then compares text loading with opening the compiled file.
+// Usage: NetworkCompiler [networkFile] [compiledFile]
+public class NetworkCompiler
+{
+    public static void main(String[] args) {
+        File source = new File(args.length > 0 ? args[0] : "data/ObjectvilleSubway.txt");
+        File target = new File(args.length > 1 ? args[1] : source.getPath().replaceFirst("\\.txt$", "") + ".bin");
+        try {
+            SubwayLoader loader = new SubwayLoader();
+            Subway subway = loader.loadFromFile(source);
+            System.out.println("Loaded " + source + ": " + loader.getLastLoadStats());
+
+            long start = System.nanoTime();
+            MappedNetwork.compile(subway.getGraph(), target);
+            System.out.printf("Compiled to %s: %d bytes in %.1f ms%n", target, target.length(), (System.nanoTime() - start) / 1e6);
+
+            start = System.nanoTime();
+            MappedNetwork network = MappedNetwork.open(target);
+            System.out.printf("Mapped %d stations, %d connections, %d lines in %.2f ms%n", network.getStationCount(),
+                network.getEdgeCount(), network.getLineCount(), (System.nanoTime() - start) / 1e6);
+        } catch (IOException e) {
+            System.out.println("Could not compile " + source + ": " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
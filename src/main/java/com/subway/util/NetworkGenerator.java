@@ -0,0 +1,316 @@
+package com.subway.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import com.subway.core.NetworkDelta;
+import com.subway.core.Subway;
+
+// Writes seeded synthetic networks in the text format SubwayLoader reads,
+// streaming every station and line block straight to the writer, so even
+// multi-million-segment files take constant memory to produce. The same
+// arguments and seed always give the same bytes.
+//
+// The routing checks and benchmarks build the same shapes in memory with
+// buildGrid and buildRadial, which add them to a Subway in the order
+// SubwayLoader would, so loading a generated file gives exactly that network.
+// Usage: NetworkGenerator grid <rows> <columns> <file> [seed]
+//        NetworkGenerator radial <lines> <branchLength> <rings> <file> [seed]
+//        NetworkGenerator hub <stations> <lines> <stopsPerLine> <file> [seed]
+public class NetworkGenerator
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HUBS = 8;
+    private static final int HUB_AREA = 10000;
+
+    private NetworkGenerator() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            String shape = args.length > 0 ? args[0] : "";
+            int sizes = shape.equals("grid") ? 2 : 3;
+            if (!shape.matches("grid|radial|hub") || args.length < sizes + 2) {
+                System.out.println("Usage: NetworkGenerator grid <rows> <columns> <file> [seed]");
+                System.out.println("       NetworkGenerator radial <lines> <branchLength> <rings> <file> [seed]");
+                System.out.println("       NetworkGenerator hub <stations> <lines> <stopsPerLine> <file> [seed]");
+                System.exit(-1);
+            }
+            int[] size = new int[sizes];
+            for (int i = 0; i < sizes; i++) {
+                size[i] = Integer.parseInt(args[i + 1]);
+            }
+            File file = new File(args[sizes + 1]);
+            long seed = args.length > sizes + 2 ? Long.parseLong(args[sizes + 2]) : 1L;
+
+            long start = System.nanoTime();
+            long segments;
+            if (shape.equals("grid")) {
+                segments = writeGrid(file, size[0], size[1], seed);
+            } else if (shape.equals("radial")) {
+                segments = writeRadial(file, size[0], size[1], size[2], seed);
+            } else {
+                segments = writeHub(file, size[0], size[1], size[2], seed);
+            }
+            System.out.printf("Wrote %s: %d segments, %d bytes in %.1f ms%n", file, segments, file.length(),
+                (System.nanoTime() - start) / 1e6);
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Could not generate network: " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    static long writeGrid(File file, int rows, int columns, long seed) throws IOException {
+        try (Writer writer = open(file)) {
+            return writeGrid(writer, rows, columns, seed);
+        }
+    }
+
+    static long writeRadial(File file, int lines, int branchLength, int rings, long seed) throws IOException {
+        try (Writer writer = open(file)) {
+            return writeRadial(writer, lines, branchLength, rings, seed);
+        }
+    }
+
+    static long writeHub(File file, int stations, int lines, int stopsPerLine, long seed) throws IOException {
+        try (Writer writer = open(file)) {
+            return writeHub(writer, stations, lines, stopsPerLine, seed);
+        }
+    }
+
+    static long writeGrid(Writer writer, int rows, int columns, long seed) throws IOException {
+        TextSink out = new TextSink(writer);
+        grid(out, rows, columns, seed);
+        return out.segments;
+    }
+
+    static long writeRadial(Writer writer, int lines, int branchLength, int rings, long seed) throws IOException {
+        TextSink out = new TextSink(writer);
+        radial(out, lines, branchLength, rings, seed);
+        return out.segments;
+    }
+
+    static long writeHub(Writer writer, int stations, int lines, int stopsPerLine, long seed) throws IOException {
+        TextSink out = new TextSink(writer);
+        hub(out, stations, lines, stopsPerLine, seed);
+        return out.segments;
+    }
+
+    // The grid network as an unloaded Subway whose graph is not built yet.
+    static Subway buildGrid(int rows, int columns, long seed) {
+        DeltaSink out = new DeltaSink();
+        try {
+            grid(out, rows, columns, seed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.build();
+    }
+
+    static Subway buildRadial(int lines, int branchLength, int rings, long seed) {
+        DeltaSink out = new DeltaSink();
+        try {
+            radial(out, lines, branchLength, rings, seed);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.build();
+    }
+
+    static String gridStation(int row, int column) {
+        return "R" + row + "C" + column;
+    }
+
+    static String radialStation(int line, int index) {
+        return index == 0 ? "Central" : "L" + line + (index < 0 ? "W" : "E") + Math.abs(index);
+    }
+
+    static String hubStation(int index) {
+        return index < HUBS ? "Hub " + index : "Stop " + index;
+    }
+
+    // rows x columns stations on unit spacing. Every row and every column is
+    // its own line; travel times are the distance stretched by a random factor
+    // between 1 and 2, so routes with fewer stops are not always the fastest.
+    private static void grid(Sink out, int rows, int columns, long seed) throws IOException {
+        if (rows <= 0 || columns <= 0) {
+            throw new IllegalArgumentException("A grid network needs at least one row and one column");
+        }
+        Random random = new Random(seed);
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                out.station(gridStation(r, c), c, r);
+            }
+        }
+        for (int r = 0; r < rows; r++) {
+            out.line("Row " + r, gridStation(r, 0));
+            for (int c = 1; c < columns; c++) {
+                out.stop(gridStation(r, c), 1 + random.nextDouble());
+            }
+        }
+        for (int c = 0; c < columns; c++) {
+            out.line("Column " + c, gridStation(0, c));
+            for (int r = 1; r < rows; r++) {
+                out.stop(gridStation(r, c), 1 + random.nextDouble());
+            }
+        }
+    }
+
+    // A metro-like network: radial lines crossing at "Central", each running
+    // branchLength stations out in both directions on unit spacing, plus ring
+    // lines that link the radials at evenly spaced distances from the centre
+    // and close back on their first station. Travel times are the distance
+    // stretched by up to 30%.
+    private static void radial(Sink out, int lines, int branchLength, int rings, long seed) throws IOException {
+        // Ring radii are whole stations out from the centre, so a ring needs
+        // a station of its own on every branch.
+        if (lines <= 0 || rings < 0 || branchLength <= rings) {
+            throw new IllegalArgumentException("A radial network needs a line and a branch longer than its number of rings");
+        }
+        Random random = new Random(seed);
+        out.station(radialStation(0, 0), 0, 0);
+        for (int line = 0; line < lines; line++) {
+            double angle = Math.PI * line / lines;
+            for (int index = -branchLength; index <= branchLength; index++) {
+                if (index != 0) {
+                    out.station(radialStation(line, index), index * Math.cos(angle), index * Math.sin(angle));
+                }
+            }
+        }
+        for (int line = 0; line < lines; line++) {
+            out.line("Line " + line, radialStation(line, -branchLength));
+            for (int index = -branchLength + 1; index <= branchLength; index++) {
+                out.stop(radialStation(line, index), 1 + 0.3 * random.nextDouble());
+            }
+        }
+        for (int ring = 1; ring <= rings; ring++) {
+            int radius = ring * branchLength / (rings + 1);
+            double chord = 2 * radius * Math.sin(Math.PI / (2 * lines));
+            out.line("Ring " + ring, radialStation(0, radius));
+            for (int step = 1; step <= 2 * lines; step++) {
+                int line = step % lines;
+                out.stop(radialStation(line, (step / lines) % 2 == 0 ? radius : -radius),
+                    chord * (1 + 0.3 * random.nextDouble()));
+            }
+        }
+    }
+
+    // Many lines through a few interchanges: stations are scattered over a
+    // square, the first HUBS of them near its centre, and every line visits
+    // stopsPerLine random stations with one of the hubs halfway, so every
+    // hub is an interchange of lines / HUBS lines. Travel times are the
+    // distance between stops at unit speed, at least 1.
+    private static void hub(Sink out, int stations, int lines, int stopsPerLine, long seed) throws IOException {
+        if (stations <= HUBS || stopsPerLine < 2) {
+            throw new IllegalArgumentException("A hub network needs more than " + HUBS + " stations and two stops per line");
+        }
+        // Positions are drawn again from the station's own seed when a line
+        // visits it, so nothing per station is kept.
+        for (int i = 0; i < stations; i++) {
+            double[] position = hubPosition(i, seed);
+            out.station(hubStation(i), position[0], position[1]);
+        }
+        Random random = new Random(seed);
+        for (int line = 0; line < lines; line++) {
+            int previous = random.nextInt(stations);
+            out.line("Line " + line, hubStation(previous));
+            for (int stop = 1; stop < stopsPerLine; stop++) {
+                int next = stop == stopsPerLine / 2 ? line % HUBS : random.nextInt(stations);
+                if (next == previous) {
+                    next = (next + 1) % stations;
+                }
+                double[] from = hubPosition(previous, seed);
+                double[] to = hubPosition(next, seed);
+                out.stop(hubStation(next), Math.max(1, Math.rint(Math.hypot(to[0] - from[0], to[1] - from[1]))));
+                previous = next;
+            }
+        }
+    }
+
+    private static double[] hubPosition(int station, long seed) {
+        Random random = new Random(seed * 31 + station);
+        double spread = station < HUBS ? HUB_AREA / 20.0 : HUB_AREA;
+        double offset = (HUB_AREA - spread) / 2;
+        return new double[] { Math.rint(offset + random.nextDouble() * spread), Math.rint(offset + random.nextDouble() * spread) };
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    // Where a shape goes: every station first, then each line as its first
+    // station followed by its stops.
+    private interface Sink
+    {
+        void station(String name, double x, double y) throws IOException;
+
+        void line(String lineName, String firstStation) throws IOException;
+
+        void stop(String stationName, double travelTime) throws IOException;
+    }
+
+    private static final class TextSink implements Sink
+    {
+        private final Writer writer;
+        long segments;
+
+        TextSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        public void station(String name, double x, double y) throws IOException {
+            writer.write(name);
+            writer.write('\t');
+            writer.write(Double.toString(x));
+            writer.write('\t');
+            writer.write(Double.toString(y));
+            writer.write('\n');
+        }
+
+        // Ends the station list, or the line block before, with a blank line.
+        public void line(String lineName, String firstStation) throws IOException {
+            writer.write('\n');
+            writer.write(lineName);
+            writer.write('\n');
+            writer.write(firstStation);
+            writer.write('\n');
+        }
+
+        public void stop(String stationName, double travelTime) throws IOException {
+            segments++;
+            writer.write(stationName);
+            writer.write('\t');
+            writer.write(Double.toString(travelTime));
+            writer.write('\n');
+        }
+    }
+
+    // Collects the shape as one delta, so the Subway drops its cached routes
+    // once rather than once per connection.
+    private static final class DeltaSink implements Sink
+    {
+        private final NetworkDelta delta = new NetworkDelta();
+        private String lineName;
+        private String previousStop;
+
+        public void station(String name, double x, double y) {
+            delta.addStation(name, x, y);
+        }
+
+        public void line(String lineName, String firstStation) {
+            this.lineName = lineName;
+            this.previousStop = firstStation;
+        }
+
+        public void stop(String stationName, double travelTime) {
+            delta.addConnection(previousStop, stationName, lineName, travelTime);
+            previousStop = stationName;
+        }
+
+        Subway build() {
+            Subway subway = new Subway();
+            subway.applyDelta(delta);
+            return subway;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import com.subway.core.LongHistogram;
+
+// Summarizes the com.subway.LoadPhase and com.subway.RoutePhase events of a
+// flight recording into latency percentiles per phase. Events are streamed
+// from the file, so recordings of any length fit in memory. Record with
+//   java -XX:StartFlightRecording=filename=subway.jfr ...
+// Usage: RecordingAnalyzer <recording.jfr>
+public class RecordingAnalyzer
+{
+    private static final String LOAD_EVENT = "com.subway.LoadPhase";
+    private static final String ROUTE_EVENT = "com.subway.RoutePhase";
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: RecordingAnalyzer <recording.jfr>");
+            System.exit(-1);
+        }
+        try {
+            Map<String, Phase> phases = summarize(new File(args[0]));
+            if (phases.isEmpty()) {
+                System.out.println("No Subway events in " + args[0]);
+                return;
+            }
+            System.out.printf("%-24s %8s %10s %10s %10s %10s %10s %12s%n", "phase", "events", "p50 us", "p90 us",
+                "p99 us", "max us", "stations", "edges/exp.");
+            for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+                Phase phase = entry.getValue();
+                LongHistogram.Snapshot durations = phase.durations.snapshot();
+                System.out.printf("%-24s %8d %10.1f %10.1f %10.1f %10.1f %10.0f %12.0f%n", entry.getKey(),
+                    durations.getCount(), durations.getValueAtPercentile(50) / 1000.0,
+                    durations.getValueAtPercentile(90) / 1000.0, durations.getValueAtPercentile(99) / 1000.0,
+                    durations.getMax() / 1000.0, phase.getMeanStations(), phase.getMeanWork());
+            }
+        } catch (IOException e) {
+            System.out.println("Could not read " + args[0] + ": " + e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+    // Phases keyed "load: <phase>" and "route: <phase>", in the order they
+    // first occur.
+    static Map<String, Phase> summarize(File recording) throws IOException {
+        Map<String, Phase> phases = new LinkedHashMap<>();
+        try (RecordingFile file = new RecordingFile(recording.toPath())) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                boolean load = name.equals(LOAD_EVENT);
+                if (!load && !name.equals(ROUTE_EVENT)) {
+                    continue;
+                }
+                String key = (load ? "load: " : "route: ") + event.getString("phase");
+                Phase phase = phases.computeIfAbsent(key, k -> new Phase());
+                phase.durations.record(event.getDuration().toNanos());
+                phase.stations += event.getInt("stationCount");
+                phase.work += load ? event.getInt("edgeCount") : event.getInt("expandedCount");
+            }
+        }
+        return phases;
+    }
+
+    static final class Phase
+    {
+        // In nanoseconds.
+        final LongHistogram durations = new LongHistogram(1);
+        private long stations;
+        private long work;
+
+        double getMeanStations() {
+            long count = durations.snapshot().getCount();
+            return count == 0 ? 0 : (double) stations / count;
+        }
+
+        // Edges for load phases, expanded stations for route phases.
+        double getMeanWork() {
+            long count = durations.snapshot().getCount();
+            return count == 0 ? 0 : (double) work / count;
+        }
+    }
+}
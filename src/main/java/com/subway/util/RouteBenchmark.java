@@ -0,0 +1,609 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.subway.core.BatchRouter;
+import com.subway.core.BatchStats;
+import com.subway.core.Connection;
+import com.subway.core.ContractionHierarchy;
+import com.subway.core.GtfsLoader;
+import com.subway.core.Route;
+import com.subway.core.RoutingMetrics;
+import com.subway.core.RoutingMode;
+import com.subway.core.Subway;
+import com.subway.core.SubwayGraph;
+import com.subway.core.Timetable;
+
+public class RouteBenchmark
+{
+    private static final int ROUTE_HOPS = 30;
+    private static final int ITERATIONS = 200000;
+    private static final int RADIAL_LINES = 24;
+    private static final int BRANCH_LENGTH = 400;
+    private static final int RINGS = 8;
+    private static final int QUERIES = 200;
+    private static final int ROUNDS = 5;
+    private static final int TABLE_SIZE = 50;
+    private static final int CACHED_ROUTES = 64;
+    private static final int TIMETABLE_STOPS = 2000;
+    private static final int TIMETABLE_ROUTES = 100;
+    private static final int TIMETABLE_QUERIES = 2000;
+    private static final int BATCH_PAIRS = 200000;
+    private static final int BATCH_ORIGINS = 500;
+
+    public static void main(String[] args) throws IOException {
+        int maxConnections = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        benchmarkReconstruction(maxConnections);
+        System.out.println();
+        benchmarkSearchModes();
+        System.out.println();
+        benchmarkRouteTable();
+        System.out.println();
+        benchmarkRouteCache();
+        System.out.println();
+        benchmarkDepartureBoard();
+        System.out.println();
+        benchmarkAlternativeRoutes();
+        System.out.println();
+        benchmarkBatchRouting();
+        System.out.println();
+        benchmarkIsochrones();
+        System.out.println();
+        benchmarkMetrics();
+        System.out.println();
+        benchmarkTimetable();
+    }
+
+    private static void benchmarkAlternativeRoutes() {
+        Subway subway = NetworkGenerator.buildRadial(RADIAL_LINES, BRANCH_LENGTH / 4, RINGS, 11L);
+        subway.setTransferPenalty(3);
+        Random random = new Random(8L);
+        String[] starts = new String[QUERIES];
+        String[] ends = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int line = random.nextInt(RADIAL_LINES);
+            starts[i] = NetworkGenerator.radialStation(line, random.nextInt(BRANCH_LENGTH / 4) + 1);
+            ends[i] = NetworkGenerator.radialStation((line + 1 + random.nextInt(RADIAL_LINES - 1)) % RADIAL_LINES,
+                -random.nextInt(BRANCH_LENGTH / 4) - 1);
+        }
+
+        System.out.println("=== Alternative routes: " + subway.getGraph().getStationCount() + " stations, "
+            + QUERIES + " queries ===");
+        System.out.printf("%24s %16s %14s %10s%n", "k, budget", "settled/query", "us/query", "routes");
+        long[][] settings = { { 1, Long.MAX_VALUE }, { 5, Long.MAX_VALUE }, { 10, Long.MAX_VALUE }, { 10, 1 } };
+        for (long[] setting : settings) {
+            int k = (int) setting[0];
+            long budget = setting[1];
+            for (int i = 0; i < QUERIES; i++) {
+                subway.getAlternativeRoutes(starts[i], ends[i], k, budget, TimeUnit.MILLISECONDS);
+            }
+            long settled = 0;
+            long routes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                List<Route> alternatives = subway.getAlternativeRoutes(starts[i], ends[i], k, budget, TimeUnit.MILLISECONDS);
+                settled += alternatives.get(alternatives.size() - 1).getSettledCount();
+                routes += alternatives.size();
+            }
+            long elapsed = System.nanoTime() - start;
+            String label = k + ", " + (budget == Long.MAX_VALUE ? "none" : budget + " ms");
+            System.out.printf("%24s %16.0f %14.1f %10.1f%n", label, (double) settled / QUERIES, elapsed / 1000.0 / QUERIES,
+                (double) routes / QUERIES);
+        }
+    }
+
+    // An origin-destination matrix with BATCH_ORIGINS origins on the grid,
+    // answered pair by pair through getDirections and as one batch.
+    private static void benchmarkBatchRouting() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        subway.setRouteCacheSize(0);
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        Random random = new Random(13L);
+        String[][] pairs = new String[BATCH_PAIRS][];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new String[] { graph.getStation(random.nextInt(BATCH_ORIGINS)).getName(),
+                graph.getStation(random.nextInt(n)).getName() };
+        }
+
+        System.out.println("=== Batch routing: " + n + " stations, " + BATCH_PAIRS + " pairs from " + BATCH_ORIGINS
+            + " origins ===");
+        System.out.printf("%24s %14s %14s%n", "answered by", "routes/s", "trees");
+        int singles = BATCH_PAIRS / 10;
+        long[] hops = new long[1];
+        long start = System.nanoTime();
+        for (int i = 0; i < singles; i++) {
+            hops[0] += subway.getDirections(pairs[i][0], pairs[i][1]).size();
+        }
+        System.out.printf("%24s %14.0f %14d%n", "getDirections", singles * 1e9 / (System.nanoTime() - start), singles);
+
+        BatchRouter router = new BatchRouter(subway.snapshot());
+        BatchRouter.Sink sink = (from, to, route) -> hops[0] += route.size();
+        router.setParallel(false);
+        router.route(Arrays.copyOf(pairs, singles), sink);
+        BatchStats stats = router.route(pairs, sink);
+        System.out.printf("%24s %14.0f %14d%n", "batch, sequential", stats.getRoutesPerSecond(), stats.getTreeCount());
+        router.setParallel(true);
+        router.route(Arrays.copyOf(pairs, singles), sink);
+        stats = router.route(pairs, sink);
+        System.out.printf("%24s %14.0f %14d%n", "batch, " + ForkJoinPool.commonPool().getParallelism() + " workers",
+            stats.getRoutesPerSecond(), stats.getTreeCount());
+        router.setWindowSize(BATCH_ORIGINS);
+        stats = router.route(pairs, sink);
+        System.out.printf("%24s %14.0f %14d%n", "batch, window " + BATCH_ORIGINS, stats.getRoutesPerSecond(),
+            stats.getTreeCount());
+    }
+
+    // "What is within reach" from random origins on the grid: one
+    // getDirections call per station against one bounded search.
+    private static void benchmarkIsochrones() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        subway.setRouteCacheSize(0);
+        subway.setTransferPenalty(3);
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        Random random = new Random(17L);
+        String[] origins = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            origins[i] = graph.getStation(random.nextInt(n)).getName();
+        }
+
+        System.out.println("=== Reachability: " + n + " stations, " + QUERIES + " origins ===");
+        System.out.printf("%24s %14s %14s%n", "stations within", "us/query", "stations");
+        long found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES / 10; i++) {
+            for (int t = 0; t < n; t++) {
+                String end = graph.getStation(t).getName();
+                if (!end.equals(origins[i]) && subway.getDirections(origins[i], end).size() <= 3) {
+                    found++;
+                }
+            }
+        }
+        System.out.printf("%24s %14.1f %14.1f%n", "3 hops, per station", (System.nanoTime() - start) / 1000.0 / (QUERIES / 10),
+            (double) found / (QUERIES / 10));
+
+        BitSet reachable = new BitSet(n);
+        for (int round = 0; round < 2; round++) {
+            long hopStations = 0;
+            long minuteStations = 0;
+            long bitStations = 0;
+            long hopNanos = System.nanoTime();
+            for (String origin : origins) {
+                hopStations += subway.getStationsWithinHops(origin, 3).size();
+            }
+            long minuteNanos = System.nanoTime();
+            hopNanos = minuteNanos - hopNanos;
+            for (String origin : origins) {
+                minuteStations += subway.getStationsWithinMinutes(origin, 20).size();
+            }
+            long bitNanos = System.nanoTime();
+            minuteNanos = bitNanos - minuteNanos;
+            for (String origin : origins) {
+                bitStations += subway.getReachableWithinMinutes(origin, 20, reachable).cardinality();
+            }
+            bitNanos = System.nanoTime() - bitNanos;
+            if (round == 1) {
+                System.out.printf("%24s %14.1f %14.1f%n", "3 hops", hopNanos / 1000.0 / QUERIES, (double) hopStations / QUERIES);
+                System.out.printf("%24s %14.1f %14.1f%n", "20 minutes", minuteNanos / 1000.0 / QUERIES,
+                    (double) minuteStations / QUERIES);
+                System.out.printf("%24s %14.1f %14.1f%n", "20 minutes, bit set", bitNanos / 1000.0 / QUERIES,
+                    (double) bitStations / QUERIES);
+            }
+        }
+    }
+
+    // getDirections with and without RoutingMetrics installed, on searches
+    // and on cache hits, where the recording cost shows most.
+    private static void benchmarkMetrics() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        Random random = new Random(19L);
+        String[] starts = new String[QUERIES * 10];
+        String[] ends = new String[QUERIES * 10];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = graph.getStation(random.nextInt(n)).getName();
+            ends[i] = graph.getStation(random.nextInt(n)).getName();
+        }
+
+        System.out.println("=== Query metrics: " + n + " stations ===");
+        System.out.printf("%24s %14s %14s%n", "getDirections", "off us/query", "on us/query");
+        RoutingMetrics metrics = new RoutingMetrics();
+        // Both paths are compiled before either is timed.
+        subway.setRouteCacheSize(0);
+        subway.setMetrics(metrics);
+        timeDirections(subway, starts, ends);
+        metrics.reset();
+        for (int cacheSize : new int[] { 0, starts.length }) {
+            subway.setRouteCacheSize(cacheSize);
+            subway.setMetrics(null);
+            double off = timeDirections(subway, starts, ends);
+            subway.setMetrics(metrics);
+            double on = timeDirections(subway, starts, ends);
+            System.out.printf("%24s %14.2f %14.2f%n", cacheSize == 0 ? "searched" : "cached", off, on);
+        }
+        System.out.println(metrics);
+    }
+
+    // A city-sized schedule: routes of 30 stops, each run by 200 trips five
+    // minutes apart from 05:00.
+    private static void benchmarkTimetable() throws IOException {
+        File feed = Files.createTempDirectory("gtfs").toFile();
+        Timetable timetable;
+        try {
+            LoadBenchmark.writeFeed(feed, TIMETABLE_STOPS, TIMETABLE_ROUTES, 200, 30, 5L);
+            GtfsLoader loader = new GtfsLoader();
+            loader.setTimetableEnabled(true);
+            timetable = loader.loadFromFeed(feed).getTimetable();
+        } finally {
+            for (File file : feed.listFiles()) {
+                file.delete();
+            }
+            feed.delete();
+        }
+        Random random = new Random(6L);
+        String[] starts = new String[TIMETABLE_QUERIES];
+        String[] ends = new String[TIMETABLE_QUERIES];
+        int[] departures = new int[TIMETABLE_QUERIES];
+        for (int i = 0; i < TIMETABLE_QUERIES; i++) {
+            starts[i] = "Stop " + random.nextInt(TIMETABLE_STOPS);
+            ends[i] = "Stop " + random.nextInt(TIMETABLE_STOPS);
+            departures[i] = 6 * 3600 + random.nextInt(14 * 3600);
+        }
+
+        System.out.println("=== Timetable routing: " + timetable.getStationCount() + " stations, " + timetable.getTripCount()
+            + " trips, " + timetable.getConnectionCount() + " runs ===");
+        long arrivalNanos = 0;
+        long journeyNanos = 0;
+        int reached = 0;
+        long legs = 0;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TIMETABLE_QUERIES; i++) {
+                if (timetable.getEarliestArrival(starts[i], ends[i], departures[i]) >= 0 && round == 0) {
+                    reached++;
+                }
+            }
+            long middle = System.nanoTime();
+            for (int i = 0; i < TIMETABLE_QUERIES; i++) {
+                legs += timetable.getJourney(starts[i], ends[i], departures[i]).size();
+            }
+            if (round >= ROUNDS) {
+                arrivalNanos += middle - start;
+                journeyNanos += System.nanoTime() - middle;
+            }
+        }
+        if (legs == 0) {
+            throw new IllegalStateException("Journeys not found");
+        }
+        System.out.printf("%24s %14s%n", "query", "us/query");
+        System.out.printf("%24s %14.1f%n", "getEarliestArrival", arrivalNanos / 1e3 / (ROUNDS * TIMETABLE_QUERIES));
+        System.out.printf("%24s %14.1f%n", "getJourney", journeyNanos / 1e3 / (ROUNDS * TIMETABLE_QUERIES));
+        System.out.printf("%d of %d queries reach their destination%n", reached, TIMETABLE_QUERIES);
+    }
+
+    private static void benchmarkReconstruction(int maxConnections) {
+        System.out.println("=== Route reconstruction vs. network size ===");
+        System.out.println("Route length: " + ROUTE_HOPS + " hops, " + ITERATIONS + " iterations per size");
+        System.out.printf("%12s %18s %18s%n", "connections", "lookup ns/hop", "rebuild ns/route");
+
+        for (int connections = 1000; connections <= maxConnections; connections *= 10) {
+            Subway subway = buildNetwork(connections);
+            SubwayGraph graph = subway.getGraph();
+            int[] path = graph.findPath(graph.getStationId("Route 0"), graph.getStationId("Route " + ROUTE_HOPS));
+
+            long lookupNanos = timeLookups(subway);
+            long rebuildNanos = timeReconstruction(graph, path);
+            System.out.printf("%12d %18.1f %18.1f%n", graph.getEdgeCount(),
+                (double) lookupNanos / ITERATIONS / ROUTE_HOPS,
+                (double) rebuildNanos / ITERATIONS);
+        }
+    }
+
+    // Far-apart pairs on a radial network: both ends in the outer quarter of
+    // two different branches. Reports states (or stations, for FEWEST_STOPS)
+    // settled per query and the mean query time.
+    private static void benchmarkSearchModes() {
+        Subway subway = NetworkGenerator.buildRadial(RADIAL_LINES, BRANCH_LENGTH, RINGS, 11L);
+        subway.setTransferPenalty(3);
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(5L);
+        String[] starts = new String[QUERIES];
+        String[] ends = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int line = random.nextInt(RADIAL_LINES);
+            starts[i] = NetworkGenerator.radialStation(line, outerIndex(random));
+            ends[i] = NetworkGenerator.radialStation((line + 1 + random.nextInt(RADIAL_LINES - 1)) % RADIAL_LINES,
+                outerIndex(random));
+        }
+
+        long buildStart = System.nanoTime();
+        ContractionHierarchy hierarchy = ContractionHierarchy.build(graph, subway.getTransferPenalty());
+        long buildMillis = (System.nanoTime() - buildStart) / 1000000;
+        subway.setContractionHierarchy(hierarchy);
+
+        System.out.println("=== Search modes on a radial network: " + RADIAL_LINES + " lines, " + RINGS + " rings ===");
+        System.out.println(graph.getStationCount() + " stations, " + graph.getStateCount() + " station/line states, "
+            + QUERIES + " cross-network queries");
+        System.out.println("Contraction hierarchy: " + hierarchy.getShortcutCount() + " shortcuts, built in "
+            + buildMillis + " ms");
+        System.out.printf("%24s %16s %14s%n", "mode", "settled/query", "us/query");
+        for (RoutingMode mode : RoutingMode.values()) {
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < QUERIES; i++) {
+                    subway.getRoute(starts[i], ends[i], mode);
+                }
+            }
+            long settled = 0;
+            long start = System.nanoTime();
+            for (int round = 0; round < ROUNDS; round++) {
+                for (int i = 0; i < QUERIES; i++) {
+                    Route route = subway.getRoute(starts[i], ends[i], mode);
+                    settled += route.getSettledCount();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            int queries = ROUNDS * QUERIES;
+            System.out.printf("%24s %16.0f %14.1f%n", mode, (double) settled / queries, elapsed / 1000.0 / queries);
+        }
+
+        // The Pareto search settles states once per round of line changes;
+        // its last route is the one DIJKSTRA finds without a penalty.
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < QUERIES; i++) {
+                subway.getParetoRoutes(starts[i], ends[i]);
+            }
+        }
+        long settled = 0;
+        long routes = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < QUERIES; i++) {
+                List<Route> pareto = subway.getParetoRoutes(starts[i], ends[i]);
+                settled += pareto.get(pareto.size() - 1).getSettledCount();
+                routes += pareto.size();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        int queries = ROUNDS * QUERIES;
+        System.out.printf("%24s %16.0f %14.1f%n", "PARETO", (double) settled / queries, elapsed / 1000.0 / queries);
+        System.out.printf("Pareto sets hold %.2f routes on average%n", (double) routes / queries);
+    }
+
+    // Fewest-stops queries answered by BFS and by the all-pairs table on a grid
+    // of TABLE_SIZE x TABLE_SIZE stations.
+    private static void benchmarkRouteTable() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        subway.setRouteCacheSize(0);
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        Random random = new Random(5L);
+        String[] starts = new String[QUERIES];
+        String[] ends = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            starts[i] = graph.getStation(random.nextInt(n)).getName();
+            ends[i] = graph.getStation(random.nextInt(n)).getName();
+        }
+
+        System.out.println("=== All-pairs route table: " + n + " stations ===");
+        double searchMicros = timeDirections(subway, starts, ends);
+        long buildStart = System.nanoTime();
+        subway.setAllPairsEnabled(true);
+        long buildMillis = (System.nanoTime() - buildStart) / 1000000;
+        double tableMicros = timeDirections(subway, starts, ends);
+        System.out.println("Table: " + subway.getRouteTable().getMemoryBytes() / 1024 + " KB, built in " + buildMillis
+            + " ms on " + Runtime.getRuntime().availableProcessors() + " processors");
+        System.out.printf("%24s %14s%n", "getDirections via", "us/query");
+        System.out.printf("%24s %14.2f%n", "BFS", searchMicros);
+        System.out.printf("%24s %14.2f%n", "table walk", tableMicros);
+    }
+
+    // Skewed traffic: query i of the stream asks for pair k with probability
+    // proportional to 1/(k+1), over QUERIES distinct pairs on the same grid.
+    private static void benchmarkRouteCache() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        Random random = new Random(7L);
+        String[] pairStarts = new String[QUERIES];
+        String[] pairEnds = new String[QUERIES];
+        double[] cumulative = new double[QUERIES];
+        double total = 0;
+        for (int k = 0; k < QUERIES; k++) {
+            pairStarts[k] = graph.getStation(random.nextInt(n)).getName();
+            pairEnds[k] = graph.getStation(random.nextInt(n)).getName();
+            total += 1.0 / (k + 1);
+            cumulative[k] = total;
+        }
+        String[] starts = new String[QUERIES * 10];
+        String[] ends = new String[QUERIES * 10];
+        for (int i = 0; i < starts.length; i++) {
+            int k = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            k = k < 0 ? Math.min(-k - 1, QUERIES - 1) : k;
+            starts[i] = pairStarts[k];
+            ends[i] = pairEnds[k];
+        }
+
+        System.out.println("=== Route cache under skewed traffic: " + QUERIES + " pairs, "
+            + CACHED_ROUTES + " cached routes ===");
+        subway.setRouteCacheSize(0);
+        double uncachedMicros = timeDirections(subway, starts, ends);
+        subway.setRouteCacheSize(CACHED_ROUTES);
+        double cachedMicros = timeDirections(subway, starts, ends);
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        double sharedMicros = timeDirections(subway, starts, ends, threads);
+        System.out.println(subway.getRouteCache());
+        System.out.printf("%24s %14s%n", "getDirections", "us/query");
+        System.out.printf("%24s %14.2f%n", "uncached", uncachedMicros);
+        System.out.printf("%24s %14.2f%n", "cached", cachedMicros);
+        System.out.printf("%24s %14.2f%n", "cached, " + threads + " threads", sharedMicros);
+    }
+
+    // Routes from one origin to every station: one getDirections call per
+    // destination against a single batch call answered from one tree.
+    private static void benchmarkDepartureBoard() {
+        Subway subway = NetworkGenerator.buildGrid(TABLE_SIZE, TABLE_SIZE, 3L);
+        subway.setRouteCacheSize(0);
+        SubwayGraph graph = subway.getGraph();
+        List<String> names = new ArrayList<>();
+        for (int t = 0; t < graph.getStationCount(); t++) {
+            names.add(graph.getStation(t).getName());
+        }
+        String origin = names.get(names.size() / 2);
+
+        System.out.println("=== Departure board: one origin, " + names.size() + " destinations ===");
+        long hops = 0;
+        long single = 0;
+        long batch = 0;
+        for (int round = 0; round < 2 * ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String name : names) {
+                hops += subway.getDirections(origin, name).size();
+            }
+            long middle = System.nanoTime();
+            for (List<Connection> route : subway.getDirections(origin, names).values()) {
+                hops += route.size();
+            }
+            if (round >= ROUNDS) {
+                single += middle - start;
+                batch += System.nanoTime() - middle;
+            }
+        }
+        if (hops == 0) {
+            throw new IllegalStateException("Routes not found");
+        }
+        System.out.printf("%24s %14s%n", "getDirections", "ms/board");
+        System.out.printf("%24s %14.2f%n", "per destination", single / 1e6 / ROUNDS);
+        System.out.printf("%24s %14.2f%n", "batch", batch / 1e6 / ROUNDS);
+    }
+
+    private static double timeDirections(Subway subway, String[] starts, String[] ends) {
+        int hops = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < starts.length; i++) {
+                hops += subway.getDirections(starts[i], ends[i]).size();
+            }
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < starts.length; i++) {
+                hops += subway.getDirections(starts[i], ends[i]).size();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hops == 0) {
+            throw new IllegalStateException("Routes not found");
+        }
+        return elapsed / 1000.0 / (ROUNDS * starts.length);
+    }
+
+    // Every thread runs the whole query stream; returns wall-clock time per
+    // query over all threads.
+    private static double timeDirections(Subway subway, String[] starts, String[] ends, int threads) {
+        AtomicLong hops = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                int count = 0;
+                for (int round = 0; round < ROUNDS; round++) {
+                    for (int i = 0; i < starts.length; i++) {
+                        count += subway.getDirections(starts[i], ends[i]).size();
+                    }
+                }
+                hops.addAndGet(count);
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hops.get() == 0) {
+            throw new IllegalStateException("Routes not found");
+        }
+        return elapsed / 1000.0 / ((long) threads * ROUNDS * starts.length);
+    }
+
+    private static int outerIndex(Random random) {
+        int index = BRANCH_LENGTH - random.nextInt(BRANCH_LENGTH / 4);
+        return random.nextBoolean() ? index : -index;
+    }
+
+    // A ROUTE_HOPS long "Route Line" plus an unrelated filler line that makes up
+    // the requested number of (directed) connections.
+    private static Subway buildNetwork(int connections) {
+        Subway subway = new Subway();
+        for (int i = 0; i <= ROUTE_HOPS; i++) {
+            subway.addStation("Route " + i);
+        }
+        for (int i = 0; i < ROUTE_HOPS; i++) {
+            subway.addConnection("Route " + i, "Route " + (i + 1), "Route Line");
+        }
+        int fillerSegments = Math.max(0, connections / 2 - ROUTE_HOPS);
+        subway.addStation("Filler 0");
+        for (int i = 1; i <= fillerSegments; i++) {
+            subway.addStation("Filler " + i);
+            subway.addConnection("Filler " + (i - 1), "Filler " + i, "Filler Line " + (i % 16));
+        }
+        return subway;
+    }
+
+    private static long timeLookups(Subway subway) {
+        String[] names = new String[ROUTE_HOPS + 1];
+        for (int i = 0; i <= ROUTE_HOPS; i++) {
+            names[i] = "Route " + i;
+        }
+        int found = 0;
+        for (int warmup = 0; warmup < ITERATIONS / 10; warmup++) {
+            found += lookupRoute(subway, names);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            found += lookupRoute(subway, names);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found == 0) {
+            throw new IllegalStateException("Route connections missing");
+        }
+        return elapsed;
+    }
+
+    private static int lookupRoute(Subway subway, String[] names) {
+        int found = 0;
+        for (int i = 0; i < ROUTE_HOPS; i++) {
+            if (subway.getConnection(names[i], names[i + 1], "Route Line") != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private static long timeReconstruction(SubwayGraph graph, int[] path) {
+        int hops = 0;
+        for (int warmup = 0; warmup < ITERATIONS / 10; warmup++) {
+            hops += graph.toConnections(path).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            List<Connection> route = graph.toConnections(path);
+            hops += route.size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (hops == 0) {
+            throw new IllegalStateException("Route not found");
+        }
+        return elapsed;
+    }
+}
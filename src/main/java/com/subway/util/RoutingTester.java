@@ -0,0 +1,1403 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import com.subway.core.BatchRouter;
+import com.subway.core.BatchStats;
+import com.subway.core.Connection;
+import com.subway.core.ContractionHierarchy;
+import com.subway.core.GtfsLoader;
+import com.subway.core.Isochrone;
+import com.subway.core.LoadStats;
+import com.subway.core.LongHistogram;
+import com.subway.core.MappedNetwork;
+import com.subway.core.NetworkDelta;
+import com.subway.core.Route;
+import com.subway.core.RouteCache;
+import com.subway.core.RouteTable;
+import com.subway.core.RoutingMetrics;
+import com.subway.core.RoutingMode;
+import com.subway.core.ShortestPathTree;
+import com.subway.core.SnapshotHolder;
+import com.subway.core.Station;
+import com.subway.core.Subway;
+import com.subway.core.SubwayGraph;
+import com.subway.core.SubwayLoader;
+import com.subway.core.SubwaySnapshot;
+import com.subway.core.TimedConnection;
+import com.subway.core.Timetable;
+import com.subway.server.RouteServer;
+
+public class RoutingTester
+{
+    public static void main(String[] args) {
+        try {
+            SubwayLoader loader = new SubwayLoader();
+            Subway objectville = loader.loadFromFile(new File("data/ObjectvilleSubway.txt"));
+            objectville.setContractionHierarchy(ContractionHierarchy.build(objectville.getGraph(), 0));
+
+            System.out.println("Testing routing modes against getDirections...");
+            if (matchesHopCounts(objectville)) {
+                System.out.println("... hop-count test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... hop-count test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting weighted routing modes on synthetic grids...");
+            if (weightedModesAgree(NetworkGenerator.buildGrid(12, 15, 1L), 2.5) &&
+                weightedModesAgree(NetworkGenerator.buildGrid(20, 20, 7L), 0) &&
+                weightedModesAgree(NetworkGenerator.buildGrid(8, 30, 42L), 10)) {
+                System.out.println("... weighted routing test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... weighted routing test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting Pareto routes over time and line changes...");
+            if (paretoRoutesMatch(NetworkGenerator.buildGrid(10, 12, 5L), 11L) &&
+                paretoRoutesMatch(NetworkGenerator.buildRadial(6, 12, 3, 8L), 12L) &&
+                paretoRoutesMatch(objectville, 13L)) {
+                System.out.println("... Pareto routing test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... Pareto routing test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting k shortest alternative routes...");
+            if (alternativeRoutesMatch(NetworkGenerator.buildGrid(4, 5, 21L), 0, 22L) &&
+                alternativeRoutesMatch(NetworkGenerator.buildGrid(5, 4, 23L), 2, 24L) &&
+                alternativeRoutesRespectBudget(objectville)) {
+                System.out.println("... alternative routes test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... alternative routes test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting contraction hierarchy persistence...");
+            if (reloadedHierarchyAgrees(NetworkGenerator.buildGrid(10, 10, 9L), 4)) {
+                System.out.println("... persistence test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... persistence test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting all-pairs route table...");
+            if (routeTableMatches(loader.loadFromFile(new File("data/ObjectvilleSubway.txt"))) &&
+                routeTableMatches(NetworkGenerator.buildGrid(15, 15, 5L)) &&
+                routeTableRespectsLimit(NetworkGenerator.buildGrid(10, 10, 5L))) {
+                System.out.println("... route table test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... route table test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting route cache...");
+            if (routeCacheBehaves(loader.loadFromFile(new File("data/ObjectvilleSubway.txt")))) {
+                System.out.println("... route cache test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... route cache test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting shortest-path trees...");
+            if (shortestPathTreesMatch(loader.loadFromFile(new File("data/ObjectvilleSubway.txt")))) {
+                System.out.println("... shortest-path tree test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... shortest-path tree test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting batch routing...");
+            if (batchRoutesMatch(loader.loadFromFile(new File("data/ObjectvilleSubway.txt")), 31L) &&
+                batchRoutesMatch(NetworkGenerator.buildGrid(15, 15, 5L), 32L)) {
+                System.out.println("... batch routing test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... batch routing test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting reachability within hops and minutes...");
+            if (isochronesMatch(loader.loadFromFile(new File("data/ObjectvilleSubway.txt")), 0, 41L) &&
+                isochronesMatch(NetworkGenerator.buildGrid(12, 12, 6L), 2.5, 42L)) {
+                System.out.println("... reachability test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... reachability test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting query metrics...");
+            if (histogramIsAccurate() && metricsRecordQueries(new SubwayLoader().loadFromFile(new File("data/ObjectvilleSubway.txt")))) {
+                System.out.println("... metrics test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... metrics test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting flight recorder events...");
+            if (flightRecordingSummarizes(new File("data/ObjectvilleSubway.txt"))) {
+                System.out.println("... flight recorder test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... flight recorder test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting the HTTP routing service...");
+            if (routeServerAnswers(new SubwayLoader().loadSnapshot(new File("data/ObjectvilleSubway.txt")), 51L)) {
+                System.out.println("... routing service test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... routing service test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting snapshots under concurrent reloads...");
+            if (snapshotsServeConcurrently(new File("data/ObjectvilleSubway.txt"))) {
+                System.out.println("... snapshot test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... snapshot test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting compiled, memory-mapped networks...");
+            if (mappedNetworkMatches(objectville) && mappedNetworkMatches(NetworkGenerator.buildGrid(12, 12, 4L))
+                    && corruptNetworkRejected() && compiledNetworkIgnoresLocale(new File("data/ObjectvilleSubway.txt"))) {
+                System.out.println("... mapped network test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... mapped network test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting network deltas...");
+            if (deltaKeepsNetworkConsistent(new File("data/ObjectvilleSubway.txt")) &&
+                deltaEvictsOnlyAffectedRoutes(new File("data/ObjectvilleSubway.txt")) && lineNamesIgnoreLocale() &&
+                patchedGraphMatchesFullBuild(16, 53L) && patchedGraphMatchesFullBuild(24, 54L)) {
+                System.out.println("... delta test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... delta test FAILED.");
+                System.exit(-1);
+            }
+
+            System.out.println("\nTesting timetable routing...");
+            if (timetableFollowsSchedule() && timetableMatchesRelaxation(9L) && timetableMatchesRelaxation(10L)) {
+                System.out.println("... timetable test passed successfully.");
+            }
+            else
+            {
+                System.out.println("... timetable test FAILED.");
+                System.exit(-1);
+            }
+        } catch (Exception e) {
+            e.printStackTrace(System.out);
+            System.exit(-1);
+        }
+    }
+
+    // With unit travel times and no transfer penalty every mode must find a
+    // route exactly as long as the one getDirections returns.
+    private static boolean matchesHopCounts(Subway subway) {
+        SubwayGraph graph = subway.getGraph();
+        for (int s = 0; s < graph.getStationCount(); s++) {
+            for (int t = 0; t < graph.getStationCount(); t++) {
+                if (s == t) {
+                    continue;
+                }
+                String start = graph.getStation(s).getName();
+                String end = graph.getStation(t).getName();
+                int hops = subway.getDirections(start, end).size();
+                for (RoutingMode mode : RoutingMode.values()) {
+                    Route route = subway.getRoute(start, end, mode);
+                    if (route.getConnections().size() != hops || route.getTotalCost() != hops
+                            || !isValid(route, start, end, 0)) {
+                        System.out.println("  " + mode + " " + start + " -> " + end + ": " + route);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean weightedModesAgree(Subway subway, double transferPenalty) {
+        subway.setTransferPenalty(transferPenalty);
+        SubwayGraph graph = subway.getGraph();
+        subway.setContractionHierarchy(ContractionHierarchy.build(graph, transferPenalty));
+        Random random = new Random(transferPenalty == 0 ? 3 : (long) transferPenalty);
+        for (int i = 0; i < 200; i++) {
+            String start = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            String end = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            double expected = subway.getRoute(start, end, RoutingMode.DIJKSTRA).getTotalCost();
+            for (RoutingMode mode : RoutingMode.values()) {
+                if (mode == RoutingMode.FEWEST_STOPS) {
+                    continue;
+                }
+                Route route = subway.getRoute(start, end, mode);
+                if (Math.abs(route.getTotalCost() - expected) > 1e-9 || !isValid(route, start, end, transferPenalty)) {
+                    System.out.println("  " + mode + " " + start + " -> " + end + ": " + route + ", expected cost " + expected);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Each Pareto set must list valid routes, one per number of line changes
+    // at which the fastest time drops, with exactly the times an exhaustive
+    // search over (station, line, changes) finds.
+    private static boolean paretoRoutesMatch(Subway subway, long seed) {
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(seed);
+        for (int i = 0; i < 100; i++) {
+            String start = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            String end = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            List<Route> routes = subway.getParetoRoutes(start, end);
+            double[] fastest = fastestByChanges(graph, graph.getStationId(start), graph.getStationId(end));
+            int expected = 0;
+            for (int changes = 0; changes < fastest.length; changes++) {
+                if (fastest[changes] < (changes == 0 ? Double.POSITIVE_INFINITY : fastest[changes - 1])) {
+                    if (expected >= routes.size()) {
+                        return false;
+                    }
+                    Route route = routes.get(expected++);
+                    if (route.getLineChanges() != changes || Math.abs(route.getTotalCost() - fastest[changes]) > 1e-9 ||
+                            !isValid(route, start, end, 0)) {
+                        System.out.println("  " + start + " -> " + end + ": " + route + ", expected " + fastest[changes]
+                            + " with " + changes + " changes");
+                        return false;
+                    }
+                }
+            }
+            if (expected != routes.size() || subway.getParetoRoutes(start, end, 1).size() != Math.min(routes.size(),
+                    (int) routes.stream().filter(route -> route.getLineChanges() <= 1).count())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Fastest time to end with at most k line changes, for every k up to the
+    // number of lines, by Dijkstra over (station, line, changes).
+    private static double[] fastestByChanges(SubwayGraph graph, int start, int end) {
+        int lines = graph.getLineCount();
+        int limit = Math.max(1, lines);
+        double[] fastest = new double[limit + 1];
+        Arrays.fill(fastest, Double.POSITIVE_INFINITY);
+        if (start == end) {
+            Arrays.fill(fastest, 0);
+            return fastest;
+        }
+        Map<Long, Double> times = new HashMap<>();
+        PriorityQueue<double[]> queue = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+        for (int e = graph.getFirstEdge(start); e < graph.getEndEdge(start); e++) {
+            queue.add(new double[] { graph.getTravelTime(e), e, 0 });
+        }
+        while (!queue.isEmpty()) {
+            double[] label = queue.poll();
+            int edge = (int) label[1];
+            int changes = (int) label[2];
+            long key = ((long) edge * (limit + 1)) + changes;
+            if (times.containsKey(key)) {
+                continue;
+            }
+            times.put(key, label[0]);
+            int station = graph.getTarget(edge);
+            if (station == end) {
+                for (int k = changes; k <= limit; k++) {
+                    fastest[k] = Math.min(fastest[k], label[0]);
+                }
+                continue;
+            }
+            for (int e = graph.getFirstEdge(station); e < graph.getEndEdge(station); e++) {
+                int next = changes + (graph.getLine(e) == graph.getLine(edge) ? 0 : 1);
+                if (next <= limit) {
+                    queue.add(new double[] { label[0] + graph.getTravelTime(e), e, next });
+                }
+            }
+        }
+        return fastest;
+    }
+
+    // On networks small enough to list every loopless route, the k routes
+    // returned must be valid, distinct, and as cheap as the k cheapest.
+    private static boolean alternativeRoutesMatch(Subway subway, double transferPenalty, long seed) {
+        subway.setTransferPenalty(transferPenalty);
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(seed);
+        for (int i = 0; i < 30; i++) {
+            int start = random.nextInt(graph.getStationCount());
+            int end = random.nextInt(graph.getStationCount());
+            String startName = graph.getStation(start).getName();
+            String endName = graph.getStation(end).getName();
+            List<Double> costs = new ArrayList<>();
+            boolean[] visited = new boolean[graph.getStationCount()];
+            visited[start] = true;
+            listRouteCosts(graph, start, end, new ArrayList<>(), visited, transferPenalty, costs);
+            Collections.sort(costs);
+            int k = 1 + random.nextInt(12);
+            List<Route> routes = subway.getAlternativeRoutes(startName, endName, k);
+            Set<List<Connection>> distinct = new HashSet<>();
+            if (start != end && routes.size() != Math.min(k, costs.size())) {
+                return false;
+            }
+            for (int r = 0; r < routes.size(); r++) {
+                Route route = routes.get(r);
+                Set<String> stations = new HashSet<>();
+                stations.add(startName);
+                for (Connection connection : route.getConnections()) {
+                    stations.add(connection.getStation2().getName());
+                }
+                if (!isValid(route, startName, endName, transferPenalty) || !distinct.add(route.getConnections()) ||
+                        stations.size() != route.getConnections().size() + 1 ||
+                        (start != end && Math.abs(route.getTotalCost() - costs.get(r)) > 1e-9)) {
+                    System.out.println("  " + startName + " -> " + endName + " route " + r + ": " + route);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void listRouteCosts(SubwayGraph graph, int station, int end, List<Integer> edges, boolean[] visited,
+            double transferPenalty, List<Double> costs) {
+        if (station == end) {
+            int[] path = new int[edges.size()];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = edges.get(i);
+            }
+            costs.add(graph.pathCost(path, transferPenalty));
+            return;
+        }
+        for (int e = graph.getFirstEdge(station); e < graph.getEndEdge(station); e++) {
+            int next = graph.getTarget(e);
+            if (!visited[next]) {
+                visited[next] = true;
+                edges.add(e);
+                listRouteCosts(graph, next, end, edges, visited, transferPenalty, costs);
+                edges.remove(edges.size() - 1);
+                visited[next] = false;
+            }
+        }
+    }
+
+    // With no budget only the cheapest route comes back.
+    private static boolean alternativeRoutesRespectBudget(Subway subway) {
+        List<Route> all = subway.getAlternativeRoutes("DRY Drive", "Weather-O-Rama, Inc.", 5);
+        List<Route> capped = subway.getAlternativeRoutes("DRY Drive", "Weather-O-Rama, Inc.", 5, 0, TimeUnit.MILLISECONDS);
+        return all.size() == 5 && capped.size() == 1 &&
+            capped.get(0).getConnections().equals(all.get(0).getConnections());
+    }
+
+    private static boolean reloadedHierarchyAgrees(Subway subway, double transferPenalty) throws Exception {
+        subway.setTransferPenalty(transferPenalty);
+        SubwayGraph graph = subway.getGraph();
+        File file = File.createTempFile("subway", ".ch");
+        try {
+            ContractionHierarchy.build(graph, transferPenalty).save(file);
+            ContractionHierarchy hierarchy = ContractionHierarchy.load(file, graph);
+            for (int s = 0; s < graph.getStationCount(); s++) {
+                for (int t = 0; t < graph.getStationCount(); t++) {
+                    Route route = hierarchy.query(s, t);
+                    double expected = subway.getRoute(graph.getStation(s).getName(), graph.getStation(t).getName(),
+                        RoutingMode.DIJKSTRA).getTotalCost();
+                    if (Math.abs(route.getTotalCost() - expected) > 1e-9
+                            || !isValid(route, graph.getStation(s).getName(), graph.getStation(t).getName(), transferPenalty)) {
+                        System.out.println("  " + graph.getStation(s).getName() + " -> " + graph.getStation(t).getName()
+                            + ": " + route + ", expected cost " + expected);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Table walks must return the very same connections a search would.
+    private static boolean routeTableMatches(Subway subway) {
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        List<List<Connection>> expected = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            for (int t = 0; t < n; t++) {
+                expected.add(subway.getDirections(graph.getStation(s).getName(), graph.getStation(t).getName()));
+            }
+        }
+        subway.setAllPairsEnabled(true);
+        for (int s = 0; s < n; s++) {
+            for (int t = 0; t < n; t++) {
+                List<Connection> route = subway.getDirections(graph.getStation(s).getName(), graph.getStation(t).getName());
+                if (!route.equals(expected.get(s * n + t))
+                        || (s != t && subway.getRouteTable().getHopCount(s, t) != route.size())) {
+                    System.out.println("  " + graph.getStation(s).getName() + " -> " + graph.getStation(t).getName()
+                        + ": " + route + ", expected " + expected.get(s * n + t));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // A refused table leaves all-pairs mode off, and a network that outgrows
+    // the limit is searched instead of failing every query.
+    private static boolean routeTableRespectsLimit(Subway subway) {
+        int n = subway.getGraph().getStationCount();
+        subway.setAllPairsEnabled(false);
+        subway.setAllPairsLimit(n - 1);
+        try {
+            subway.setAllPairsEnabled(true);
+            return false;
+        } catch (IllegalStateException expected) {
+            if (subway.isAllPairsEnabled() || subway.getRouteTable() != null) {
+                return false;
+            }
+        }
+        subway.setAllPairsLimit(n);
+        subway.setAllPairsEnabled(true);
+        if (subway.getRouteTable().getMemoryBytes() != RouteTable.estimateBytes(n)) {
+            return false;
+        }
+        String first = subway.getGraph().getStation(0).getName();
+        String last = subway.getGraph().getStation(n - 1).getName();
+        List<Connection> expected = subway.getDirections(first, last);
+        subway.addStation("All-Pairs Limit Test Station");
+        subway.setRouteCacheSize(0);
+        boolean searched = subway.getRouteTable() == null
+            && subway.getDirections(first, last).equals(expected)
+            && subway.getRoute(first, last, RoutingMode.FEWEST_STOPS).getConnections().equals(expected);
+        subway.removeStation("All-Pairs Limit Test Station");
+        subway.setRouteCacheSize(Subway.DEFAULT_ROUTE_CACHE_SIZE);
+        // The removed station keeps its id but takes no room in the table.
+        RouteTable table = subway.getRouteTable();
+        return searched && table != null && table.getMemoryBytes() == RouteTable.estimateBytes(n)
+            && table.findPath(0, n - 1).length == expected.size();
+    }
+
+    private static boolean routeCacheBehaves(Subway subway) {
+        subway.setRouteCacheSize(2);
+        RouteCache cache = subway.getRouteCache();
+        List<Connection> first = subway.getDirections("DRY Drive", "Head First Theater");
+        List<Connection> again = subway.getDirections("dry drive", "HEAD FIRST THEATER");
+        if (first != again || cache.getHitCount() != 1 || cache.getMissCount() != 1) {
+            System.out.println("  case-insensitive hit: " + cache);
+            return false;
+        }
+
+        // Hits share the cached route, so no caller may change it.
+        try {
+            again.clear();
+            System.out.println("  cached route can be modified through a returned list");
+            return false;
+        } catch (UnsupportedOperationException expected) {
+        }
+        if (!subway.getDirections("DRY Drive", "Head First Theater").equals(first) || first.isEmpty()) {
+            System.out.println("  cached route changed");
+            return false;
+        }
+
+        subway.getDirections("DRY Drive", "Infinite Circle");
+        subway.getDirections("Boards 'R' Us", "Fibonacci");
+        if (cache.size() != 2 || cache.getEvictionCount() != 1) {
+            System.out.println("  eviction: " + cache);
+            return false;
+        }
+
+        // A new shortcut must be visible at once.
+        subway.addConnection("DRY Drive", "Infinite Circle", "Cache Test Line");
+        List<Connection> direct = subway.getDirections("DRY Drive", "Infinite Circle");
+        if (cache.size() != 1 || direct.size() != 1 || !direct.get(0).getLineName().equals("Cache Test Line")) {
+            System.out.println("  invalidation: " + cache + ", route " + direct);
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean shortestPathTreesMatch(Subway subway) {
+        SubwayGraph graph = subway.getGraph();
+        List<String> names = new ArrayList<>();
+        for (int t = 0; t < graph.getStationCount(); t++) {
+            names.add(graph.getStation(t).getName().toUpperCase());
+        }
+        for (String start : names) {
+            Map<String, List<Connection>> routes = subway.getDirections(start, names);
+            for (String end : names) {
+                if (!routes.get(end).equals(subway.getDirections(start, end))) {
+                    System.out.println("  " + start + " -> " + end + ": " + routes.get(end));
+                    return false;
+                }
+            }
+        }
+
+        ShortestPathTree tree = subway.getShortestPathTree("DRY Drive");
+        if (subway.getShortestPathTree("dry drive") != tree) {
+            System.out.println("  tree for DRY Drive was not reused");
+            return false;
+        }
+        subway.addConnection("DRY Drive", "Infinite Circle", "Tree Test Line");
+        ShortestPathTree rebuilt = subway.getShortestPathTree("DRY Drive");
+        int end = rebuilt.getGraph().getStationId("Infinite Circle");
+        if (rebuilt == tree || rebuilt.getHopCount(end) != 1) {
+            System.out.println("  tree for DRY Drive was not rebuilt after a change");
+            return false;
+        }
+        return true;
+    }
+
+    // Random pairs, with round trips, an unreachable station and an unknown
+    // name among them, routed in small windows sequentially and on a pool.
+    private static boolean batchRoutesMatch(Subway subway, long seed) {
+        subway.addStation("Batch Test Island");
+        SubwaySnapshot snapshot = subway.snapshot();
+        SubwayGraph graph = snapshot.getGraph();
+        Random random = new Random(seed);
+        String[][] pairs = new String[500][];
+        for (int i = 0; i < pairs.length; i++) {
+            String start = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            String end = i % 50 == 0 ? start : graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            pairs[i] = new String[] { random.nextInt(4) == 0 ? start.toUpperCase() : start, end };
+        }
+        pairs[7][1] = "No Such Station";
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BatchRouter router = new BatchRouter(snapshot);
+            router.setWindowSize(64);
+            for (int run = 0; run < 2; run++) {
+                router.setParallel(run == 0 ? null : pool);
+                Map<String, Integer> counts = new HashMap<>();
+                AtomicBoolean wrong = new AtomicBoolean();
+                BatchStats stats = router.route(Arrays.stream(pairs), (start, end, route) -> {
+                    counts.merge(start + " -> " + end, 1, Integer::sum);
+                    List<Connection> expected = snapshot.hasStation(start) && snapshot.hasStation(end)
+                        ? snapshot.getDirections(start, end) : null;
+                    if (!Objects.equals(route, expected)) {
+                        System.out.println("  " + start + " -> " + end + ": " + route + ", expected " + expected);
+                        wrong.set(true);
+                    }
+                });
+                Map<String, Integer> asked = new HashMap<>();
+                for (String[] pair : pairs) {
+                    asked.merge(pair[0] + " -> " + pair[1], 1, Integer::sum);
+                }
+                if (wrong.get() || !counts.equals(asked) || stats.getRouteCount() != pairs.length
+                        || stats.getUnknownCount() != 1) {
+                    System.out.println("  " + (router.isParallel() ? "parallel" : "sequential") + " batch: " + stats);
+                    return false;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return true;
+    }
+
+    // Every station within a limit must be listed, at the distance a single
+    // route to it has, and nothing beyond the limit.
+    private static boolean isochronesMatch(Subway subway, double transferPenalty, long seed) {
+        subway.setTransferPenalty(transferPenalty);
+        subway.addStation("Isochrone Test Island");
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(seed);
+        BitSet reachable = new BitSet();
+        for (int i = 0; i < 20; i++) {
+            String origin = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+            int maxHops = random.nextInt(6);
+            double maxMinutes = random.nextDouble() * 30;
+            Map<String, Double> hops = new HashMap<>();
+            Map<String, Double> minutes = new HashMap<>();
+            hops.put(origin, 0.0);
+            minutes.put(origin, 0.0);
+            for (int t = 0; t < graph.getStationCount(); t++) {
+                String end = graph.getStation(t).getName();
+                if (end.equals(origin)) {
+                    continue;
+                }
+                List<Connection> route = subway.getDirections(origin, end);
+                if (!route.isEmpty() && route.size() <= maxHops) {
+                    hops.put(end, (double) route.size());
+                }
+                Route fastest = subway.getRoute(origin, end, RoutingMode.DIJKSTRA);
+                if (!fastest.isEmpty() && fastest.getTotalCost() <= maxMinutes) {
+                    minutes.put(end, fastest.getTotalCost());
+                }
+            }
+
+            Isochrone byHops = subway.getStationsWithinHops(origin, maxHops);
+            Isochrone byMinutes = subway.getStationsWithinMinutes(origin, maxMinutes);
+            if (!byHops.toMap().equals(hops) || !sameDistances(byMinutes.toMap(), minutes)
+                    || !byHops.getOrigin().getName().equals(origin) || !isNearestFirst(byMinutes)) {
+                System.out.println("  " + origin + " within " + maxHops + " hops: " + byHops.toMap() + ", expected " + hops);
+                System.out.println("  " + origin + " within " + maxMinutes + " minutes: " + byMinutes.toMap()
+                    + ", expected " + minutes);
+                return false;
+            }
+            if (subway.getReachableWithinHops(origin, maxHops, reachable) != reachable
+                    || !reachable.equals(byHops.toBitSet())
+                    || !subway.getReachableWithinMinutes(origin, maxMinutes, reachable).equals(byMinutes.toBitSet())) {
+                System.out.println("  " + origin + ": bit sets differ from the listed stations");
+                return false;
+            }
+        }
+        return subway.getStationsWithinMinutes("Isochrone Test Island", 60).size() == 1;
+    }
+
+    private static boolean sameDistances(Map<String, Double> actual, Map<String, Double> expected) {
+        if (!actual.keySet().equals(expected.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            if (Math.abs(actual.get(entry.getKey()) - entry.getValue()) > 1e-9) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNearestFirst(Isochrone isochrone) {
+        for (int i = 1; i < isochrone.size(); i++) {
+            if (isochrone.getDistance(i) < isochrone.getDistance(i - 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Four threads record 1..100000 each; every percentile must come out
+    // within the histogram's 1/32 precision.
+    private static boolean histogramIsAccurate() throws Exception {
+        LongHistogram histogram = new LongHistogram(4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int v = 1; v <= 100000; v++) {
+                    histogram.record(v);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LongHistogram.Snapshot snapshot = histogram.snapshot();
+        if (snapshot.getCount() != 400000 || snapshot.getSum() != 4 * 5000050000L || snapshot.getMax() != 100000) {
+            System.out.println("  histogram: " + snapshot);
+            return false;
+        }
+        for (double percentile : new double[] { 1, 50, 90, 99, 99.9, 100 }) {
+            long expected = (long) Math.ceil(percentile * 1000);
+            long value = snapshot.getValueAtPercentile(percentile);
+            if (value < expected || value > expected * 33 / 32) {
+                System.out.println("  p" + percentile + " = " + value + ", expected about " + expected);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean metricsRecordQueries(Subway subway) throws Exception {
+        subway.setRouteCacheSize(0);
+        RoutingMetrics metrics = new RoutingMetrics();
+        subway.setMetrics(metrics);
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(51L);
+        long connections = 0;
+        for (int i = 0; i < 50; i++) {
+            connections += subway.getDirections(graph.getStation(random.nextInt(graph.getStationCount())).getName(),
+                graph.getStation(random.nextInt(graph.getStationCount())).getName()).size();
+        }
+        for (int i = 0; i < 3; i++) {
+            try {
+                subway.getDirections("DRY Drive", "No Such Station " + i);
+                return false;
+            } catch (RuntimeException e) {
+                // counted as a failure
+            }
+        }
+        subway.setMetrics(null);
+        subway.getDirections("DRY Drive", "Infinite Circle");
+
+        ObjectName name = metrics.register("RoutingTester");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (metrics.getQueryCount() != 50 || metrics.getFailureCount() != 3
+                    || metrics.getRouteLengths().getSum() != connections || metrics.getMeanExpandedStations() <= 0
+                    || metrics.getLatency().getCount() != 50
+                    || !Long.valueOf(50).equals(server.getAttribute(name, "QueryCount"))
+                    || !metrics.toString().equals(server.getAttribute(name, "Snapshot"))) {
+                System.out.println("  " + metrics);
+                return false;
+            }
+            server.invoke(name, "reset", null, null);
+            return metrics.getQueryCount() == 0 && metrics.getLatency().getCount() == 0;
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    // A load and 20 uncached queries, recorded and summarized: every phase
+    // must show up with the right number of events and counts.
+    private static boolean flightRecordingSummarizes(File file) throws Exception {
+        File dump = File.createTempFile("subway", ".jfr");
+        try {
+            Subway subway;
+            try (Recording recording = new Recording()) {
+                recording.enable("com.subway.LoadPhase");
+                recording.enable("com.subway.RoutePhase");
+                recording.start();
+                subway = new SubwayLoader().loadFromFile(file);
+                subway.setRouteCacheSize(0);
+                for (int i = 0; i < 20; i++) {
+                    subway.getDirections("DRY Drive", "Infinite Circle");
+                }
+                recording.stop();
+                recording.dump(dump.toPath());
+            }
+            Map<String, RecordingAnalyzer.Phase> phases = RecordingAnalyzer.summarize(dump);
+            int stations = subway.getGraph().getStationCount();
+            if (!phases.keySet().equals(new LinkedHashSet<>(Arrays.asList("load: parse stations", "load: parse lines",
+                    "load: build graph", "route: search", "route: reconstruct")))) {
+                System.out.println("  phases: " + phases.keySet());
+                return false;
+            }
+            return count(phases, "load: parse stations") == 1 && count(phases, "load: parse lines") == 1
+                && count(phases, "load: build graph") == 1 && count(phases, "route: search") == 20
+                && count(phases, "route: reconstruct") == 20
+                && phases.get("load: build graph").getMeanStations() == stations
+                && phases.get("load: build graph").getMeanWork() == subway.getGraph().getEdgeCount()
+                && phases.get("route: search").getMeanWork() > 0;
+        } finally {
+            dump.delete();
+        }
+    }
+
+    private static long count(Map<String, RecordingAnalyzer.Phase> phases, String phase) {
+        return phases.get(phase).durations.snapshot().getCount();
+    }
+
+    // Every /route answer must match getDirections on the same snapshot, and
+    // bad requests must get the status that names what is wrong with them.
+    private static boolean routeServerAnswers(SubwaySnapshot snapshot, long seed) throws Exception {
+        RouteServer server = new RouteServer(new SnapshotHolder(snapshot), new InetSocketAddress("localhost", 0), 5,
+            TimeUnit.SECONDS);
+        server.start();
+        try {
+            int port = server.getPort();
+            SubwayGraph graph = snapshot.getGraph();
+            Random random = new Random(seed);
+            for (int i = 0; i < 50; i++) {
+                String start = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+                String end = graph.getStation(random.nextInt(graph.getStationCount())).getName();
+                String[] response = get(port, "/route?from=" + encode(start) + "&to=" + encode(end));
+                List<Connection> expected = snapshot.getDirections(start, end);
+                if (!response[0].equals("200") || jsonNumber(response[1], "stops") != expected.size()
+                        || !response[1].contains("\"" + start + "\"") || !response[1].contains("\"" + end + "\"")) {
+                    System.out.println("  " + start + " -> " + end + ": " + response[0] + " " + response[1]);
+                    return false;
+                }
+            }
+            String[] weighted = get(port, "/route?from=DRY+Drive&to=Infinite%20Circle&mode=dijkstra");
+            String[] unknown = get(port, "/route?from=DRY+Drive&to=Nowhere");
+            String[] missing = get(port, "/route?from=DRY+Drive");
+            String[] badMode = get(port, "/route?from=DRY+Drive&to=Infinite+Circle&mode=teleport");
+            String[] search = get(port, "/stations?q=drive&limit=3");
+            String[] badLimit = get(port, "/stations?q=drive&limit=many");
+            String[] health = get(port, "/health");
+            HttpURLConnection post = (HttpURLConnection) new URL("http://localhost:" + port + "/route").openConnection();
+            post.setRequestMethod("POST");
+            int postStatus = post.getResponseCode();
+            post.disconnect();
+
+            Route route = snapshot.getRoute("DRY Drive", "Infinite Circle", RoutingMode.DIJKSTRA);
+            Matcher names = Pattern.compile("\"[^\"]*\"").matcher(search[1]);
+            int found = 0;
+            while (names.find()) {
+                if (!names.group().equals("\"stations\"")) {
+                    found++;
+                    if (!names.group().toLowerCase(Locale.ROOT).contains("drive")) {
+                        return false;
+                    }
+                }
+            }
+            return weighted[0].equals("200") && jsonNumber(weighted[1], "stops") == route.getConnections().size()
+                && unknown[0].equals("404") && unknown[1].contains("Nowhere")
+                && missing[0].equals("400") && missing[1].contains("to")
+                && badMode[0].equals("400") && search[0].equals("200") && found > 0 && found <= 3
+                && badLimit[0].equals("400") && postStatus == 405
+                && health[0].equals("200") && jsonNumber(health[1], "stations") == graph.getStationCount();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    // Status code and body.
+    private static String[] get(int port, String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+        try {
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                return new String[] { String.valueOf(status), new String(in.readAllBytes(), StandardCharsets.UTF_8) };
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+
+    private static long jsonNumber(String json, String field) {
+        Matcher matcher = Pattern.compile("\"" + field + "\":(\\d+)").matcher(json);
+        return matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    // Readers keep querying while the network is reloaded over and over; every
+    // answer must come out of one complete snapshot.
+    private static boolean snapshotsServeConcurrently(File file) throws Exception {
+        Subway subway = new SubwayLoader().loadFromFile(file);
+        SubwaySnapshot snapshot = subway.snapshot();
+        List<Connection> expected = snapshot.getDirections("DRY Drive", "Infinite Circle");
+        if (!expected.equals(subway.getDirections("DRY Drive", "Infinite Circle"))) {
+            System.out.println("  snapshot disagrees with its subway");
+            return false;
+        }
+        if (snapshot.getDirections("dry drive", "INFINITE CIRCLE") != expected || snapshot.getRouteCache().getHitCount() != 1) {
+            System.out.println("  snapshot route cache missed: " + snapshot.getRouteCache());
+            return false;
+        }
+        subway.addConnection("DRY Drive", "Infinite Circle", "Snapshot Test Line");
+        if (!snapshot.getDirections("DRY Drive", "Infinite Circle").equals(expected)
+                || snapshot.hasConnection("DRY Drive", "Infinite Circle", "Snapshot Test Line")) {
+            System.out.println("  snapshot saw a later change to its subway");
+            return false;
+        }
+
+        SubwayLoader loader = new SubwayLoader();
+        loader.setParallel(true);
+        SnapshotHolder holder = new SnapshotHolder(loader.loadSnapshot(file), loader);
+        int hops = holder.get().getDirections("DRY Drive", "Infinite Circle").size();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        AtomicBoolean reloading = new AtomicBoolean(true);
+        List<Future<Boolean>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) {
+                results.add(readers.submit(() -> {
+                    while (reloading.get()) {
+                        SubwaySnapshot current = holder.get();
+                        if (current.getDirections("DRY Drive", "Infinite Circle").size() != hops
+                                || !isValid(current.getRoute("Boards 'R' Us", "Fibonacci", RoutingMode.DIJKSTRA),
+                                    "Boards 'R' Us", "Fibonacci", 0)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            SubwaySnapshot previous = holder.get();
+            LoadStats stats = loader.getLastLoadStats();
+            for (int i = 0; i < 50; i++) {
+                SubwaySnapshot loaded = holder.reloadAsync(file, Runnable::run).get();
+                if (loaded == previous || holder.get() != loaded || loader.getLastLoadStats() == stats) {
+                    System.out.println("  reload did not publish a new snapshot");
+                    return false;
+                }
+                previous = loaded;
+                stats = loader.getLastLoadStats();
+            }
+            reloading.set(false);
+            for (Future<Boolean> result : results) {
+                if (!result.get()) {
+                    System.out.println("  a reader saw an inconsistent snapshot");
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            reloading.set(false);
+            readers.shutdown();
+        }
+    }
+
+    private static boolean mappedNetworkMatches(Subway subway) throws Exception {
+        SubwayGraph graph = subway.getGraph();
+        File file = File.createTempFile("subway", ".bin");
+        try {
+            MappedNetwork.compile(graph, file);
+            MappedNetwork network = MappedNetwork.open(file);
+            if (network.getFingerprint() != graph.getFingerprint() || network.hasStation("No Such Station")) {
+                System.out.println("  header or lookup mismatch");
+                return false;
+            }
+            for (int s = 0; s < graph.getStationCount(); s++) {
+                String start = graph.getStation(s).getName();
+                for (Connection connection : subway.getGraph().toConnections(graph.findPath(s, s))) {
+                    if (!network.hasConnection(connection.getStation1().getName().toUpperCase(),
+                            connection.getStation2().getName(), connection.getLineName())) {
+                        System.out.println("  missing connection " + connection);
+                        return false;
+                    }
+                }
+                for (int t = 0; t < graph.getStationCount(); t++) {
+                    String end = graph.getStation(t).getName();
+                    List<Connection> expected = subway.getDirections(start, end);
+                    List<Connection> route = network.getDirections(start.toLowerCase(), end);
+                    if (!route.toString().equals(expected.toString())) {
+                        System.out.println("  " + start + " -> " + end + ": " + route + ", expected " + expected);
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } finally {
+            file.delete();
+        }
+    }
+
+    // A file compiled where "I" lowercases to a dotless i must still be found
+    // by name, and match the fingerprint, under any other locale.
+    private static boolean compiledNetworkIgnoresLocale(File source) throws Exception {
+        File file = File.createTempFile("subway", ".bin");
+        Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr", "TR"));
+            MappedNetwork.compile(new SubwayLoader().loadFromFile(source).getGraph(), file);
+            Locale.setDefault(Locale.ROOT);
+            MappedNetwork network = MappedNetwork.open(file);
+            return network.getFingerprint() == new SubwayLoader().loadFromFile(source).getGraph().getFingerprint()
+                && network.hasStation("INFINITE CIRCLE") && network.hasStation("infinite circle");
+        } finally {
+            Locale.setDefault(locale);
+            file.delete();
+        }
+    }
+
+    private static boolean corruptNetworkRejected() throws Exception {
+        File file = File.createTempFile("subway", ".bin");
+        try {
+            MappedNetwork.compile(NetworkGenerator.buildGrid(3, 3, 1L).getGraph(), file);
+            try (RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+                raw.setLength(raw.length() - 1);
+            }
+            MappedNetwork.open(file);
+            return false;
+        } catch (IOException expected) {
+            return true;
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static boolean deltaKeepsNetworkConsistent(File file) throws Exception {
+        Subway subway = new SubwayLoader().loadFromFile(file);
+        File deltaFile = File.createTempFile("subway", ".delta");
+        try {
+            try (Writer writer = new FileWriter(deltaFile)) {
+                writer.write("# Closures and a new segment\n-station\tHead First Theater\n"
+                    + "-connection\tLSP Lane\tJavaBeans Boulevard\tBooch Line\n\n"
+                    + "+station\tDelta Square\t5\t5\n+connection\tDelta Square\tDRY Drive\tDelta Line\t2.5\n"
+                    + "-station\tNo Such Station\n");
+            }
+            int applied = subway.applyDelta(NetworkDelta.load(deltaFile));
+            if (applied != 4 || subway.hasStation("Head First Theater") || !subway.hasStation("Delta Square")
+                    || subway.hasConnection("LSP Lane", "JavaBeans Boulevard", "Booch Line")
+                    || subway.getConnection("Delta Square", "DRY Drive", "delta line").getTravelTime() != 2.5) {
+                System.out.println("  delta not applied as written (" + applied + " changes)");
+                return false;
+            }
+        } finally {
+            deltaFile.delete();
+        }
+
+        // Every edge of the rebuilt graph must be indexed and every route
+        // must be a fewest-stops route over exactly those edges.
+        SubwayGraph graph = subway.getGraph();
+        int n = graph.getStationCount();
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            Connection connection = graph.getConnection(e);
+            if (subway.getConnection(connection.getStation1().getName(), connection.getStation2().getName(),
+                    connection.getLineName()) == null || graph.getTarget(graph.getReverseEdge(e)) != graph.getSource(e)) {
+                System.out.println("  edge " + connection + " is not indexed");
+                return false;
+            }
+        }
+        int closed = 0;
+        while (closed < n && !graph.isRemoved(closed)) {
+            closed++;
+        }
+        if (graph.getRemovedCount() != 1 || !graph.getStation(closed).getName().equals("Head First Theater")) {
+            System.out.println("  closed station did not keep its id");
+            return false;
+        }
+        for (int s = 0; s < n; s++) {
+            if (graph.isRemoved(s)) {
+                continue;
+            }
+            int[] hops = new int[n];
+            Arrays.fill(hops, -1);
+            hops[s] = 0;
+            Deque<Integer> queue = new ArrayDeque<>();
+            queue.add(s);
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+                for (int e = graph.getFirstEdge(u); e < graph.getEndEdge(u); e++) {
+                    if (hops[graph.getTarget(e)] < 0) {
+                        hops[graph.getTarget(e)] = hops[u] + 1;
+                        queue.add(graph.getTarget(e));
+                    }
+                }
+            }
+            for (int t = 0; t < n; t++) {
+                if (graph.isRemoved(t)) {
+                    continue;
+                }
+                String start = graph.getStation(s).getName();
+                String end = graph.getStation(t).getName();
+                Route route = subway.getRoute(start, end, RoutingMode.FEWEST_STOPS);
+                if (s != t && (route.getConnections().size() != Math.max(hops[t], 0) || !isValid(route, start, end, 0))) {
+                    System.out.println("  " + start + " -> " + end + ": " + route + ", expected " + hops[t] + " hops");
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Two identical grids take the same random deltas. One keeps its graph,
+    // all-pairs table, trees and hierarchy warm throughout, so its graph is
+    // patched and what survives each change carried over; the other builds
+    // its graph once at the end. Both must agree edge for edge and route for
+    // route, and the carried-over trees and table with a fresh search.
+    private static boolean patchedGraphMatchesFullBuild(int size, long seed) {
+        Subway patched = NetworkGenerator.buildGrid(size, size, seed);
+        Subway rebuilt = NetworkGenerator.buildGrid(size, size, seed);
+        patched.setTransferPenalty(2);
+        rebuilt.setTransferPenalty(2);
+        patched.setAllPairsEnabled(true);
+        patched.setContractionHierarchy(ContractionHierarchy.build(patched.getGraph(), 2));
+        Random random = new Random(seed);
+        String[] origins = new String[8];
+        for (int i = 0; i < origins.length; i++) {
+            origins[i] = NetworkGenerator.gridStation(random.nextInt(size), random.nextInt(size));
+        }
+        int added = 0;
+        for (int round = 0; round < 40; round++) {
+            for (String origin : origins) {
+                if (patched.hasStation(origin)) {
+                    patched.getShortestPathTree(origin);
+                }
+            }
+            patched.getRouteTable();
+            NetworkDelta delta = new NetworkDelta();
+            String station = "Added " + added++;
+            delta.addStation(station, random.nextInt(size), random.nextInt(size));
+            boolean stationsOnly = round % 5 == 0;
+            if (stationsOnly) {
+                delta.removeStation(station);
+            } else {
+                String a = NetworkGenerator.gridStation(random.nextInt(size), random.nextInt(size));
+                String b = NetworkGenerator.gridStation(random.nextInt(size), random.nextInt(size));
+                if (patched.hasStation(a) && patched.hasStation(b)) {
+                    delta.addConnection(a, b, round % 3 == 0 ? "Delta " + round : "Row " + random.nextInt(size),
+                        1 + random.nextInt(4));
+                    delta.addConnection(station, a, "Delta " + round, 1);
+                }
+                int r = random.nextInt(size);
+                int c = random.nextInt(size - 1);
+                delta.removeConnection(NetworkGenerator.gridStation(r, c), NetworkGenerator.gridStation(r, c + 1), "Row " + r);
+                if (round % 4 == 1) {
+                    delta.removeStation(NetworkGenerator.gridStation(random.nextInt(size), random.nextInt(size)));
+                }
+            }
+            patched.applyDelta(delta);
+            rebuilt.applyDelta(delta);
+            if (stationsOnly && patched.getContractionHierarchy() == null) {
+                System.out.println("  hierarchy dropped for a change without connections");
+                return false;
+            }
+            if (patched.getContractionHierarchy() == null) {
+                patched.setContractionHierarchy(ContractionHierarchy.build(patched.getGraph(), 2));
+            }
+            if (round % 10 == 9 && !samePatchedNetwork(patched, rebuilt, origins, random)) {
+                return false;
+            }
+        }
+        // Closing a third of the stations renumbers the rest in both.
+        for (int r = 0; r < size; r += 3) {
+            for (int c = 0; c < size; c++) {
+                patched.removeStation(NetworkGenerator.gridStation(r, c));
+                rebuilt.removeStation(NetworkGenerator.gridStation(r, c));
+            }
+        }
+        if (patched.getGraph().getStationCount() >= size * size) {
+            System.out.println("  closed stations were never renumbered");
+            return false;
+        }
+        patched.setContractionHierarchy(ContractionHierarchy.build(patched.getGraph(), 2));
+        return samePatchedNetwork(patched, rebuilt, origins, random);
+    }
+
+    // In Turkish, "I" lower-cases to a dotless i; line names must still match
+    // the way Connection matches them.
+    private static boolean lineNamesIgnoreLocale() {
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Subway subway = new Subway();
+            subway.addStation("North");
+            subway.addStation("South");
+            subway.addConnection("North", "South", "LINE I");
+            if (!subway.hasConnection("North", "South", "line i") || !subway.hasConnection("South", "North", "Line I")) {
+                System.out.println("  line name lookup depends on the default locale");
+                return false;
+            }
+            return subway.removeConnection("North", "South", "line i") && !subway.hasConnection("North", "South", "LINE I");
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private static boolean samePatchedNetwork(Subway patched, Subway rebuilt, String[] origins, Random random) {
+        SubwayGraph graph = patched.getGraph();
+        SubwayGraph expected = rebuilt.getGraph();
+        int n = graph.getStationCount();
+        if (n != expected.getStationCount() || graph.getEdgeCount() != expected.getEdgeCount()
+                || graph.getStateCount() != expected.getStateCount() || graph.getRemovedCount() != expected.getRemovedCount()) {
+            System.out.println("  patched graph has " + n + " stations, " + graph.getEdgeCount() + " edges, "
+                + graph.getStateCount() + " states; expected " + expected.getStationCount() + ", "
+                + expected.getEdgeCount() + ", " + expected.getStateCount());
+            return false;
+        }
+        for (int u = 0; u < n; u++) {
+            if (graph.isRemoved(u) != expected.isRemoved(u) || graph.getFirstEdge(u) != expected.getFirstEdge(u)
+                    || (!graph.isRemoved(u) && graph.getStationId(graph.getStation(u).getName()) != u)) {
+                System.out.println("  station " + graph.getStation(u).getName() + " differs from a full build");
+                return false;
+            }
+        }
+        for (int e = 0; e < graph.getEdgeCount(); e++) {
+            if (graph.getSource(e) != expected.getSource(e) || graph.getTarget(e) != expected.getTarget(e)
+                    || graph.getReverseEdge(e) != expected.getReverseEdge(e) || graph.getTravelTime(e) != expected.getTravelTime(e)
+                    || !graph.getLineName(graph.getLine(e)).equals(expected.getLineName(expected.getLine(e)))) {
+                System.out.println("  edge " + graph.getConnection(e) + " differs from a full build");
+                return false;
+            }
+        }
+
+        RouteTable table = patched.getRouteTable();
+        for (String origin : origins) {
+            if (!patched.hasStation(origin)) {
+                continue;
+            }
+            ShortestPathTree tree = patched.getShortestPathTree(origin);
+            for (int t = 0; t < n; t++) {
+                if (!Arrays.equals(tree.findPath(t), graph.findPath(tree.getOrigin(), t))
+                        || !Arrays.equals(table.findPath(tree.getOrigin(), t), graph.findPath(tree.getOrigin(), t))) {
+                    System.out.println("  carried-over tree or table row from " + origin + " differs from a search");
+                    return false;
+                }
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            int s = random.nextInt(n);
+            int t = random.nextInt(n);
+            if (graph.isRemoved(s) || graph.isRemoved(t)) {
+                continue;
+            }
+            String start = graph.getStation(s).getName();
+            String end = graph.getStation(t).getName();
+            if (!patched.getDirections(start, end).toString().equals(rebuilt.getDirections(start, end).toString())) {
+                System.out.println("  " + start + " -> " + end + " differs from a full build");
+                return false;
+            }
+            for (RoutingMode mode : new RoutingMode[] { RoutingMode.DIJKSTRA, RoutingMode.BIDIRECTIONAL_DIJKSTRA,
+                    RoutingMode.A_STAR, RoutingMode.CONTRACTION_HIERARCHY }) {
+                Route route = patched.getRoute(start, end, mode);
+                Route other = rebuilt.getRoute(start, end, mode == RoutingMode.CONTRACTION_HIERARCHY ? RoutingMode.DIJKSTRA : mode);
+                if (mode == RoutingMode.CONTRACTION_HIERARCHY ? Math.abs(route.getTotalCost() - other.getTotalCost()) > 1e-9
+                        : !route.toString().equals(other.toString())) {
+                    System.out.println("  " + mode + " " + start + " -> " + end + ": " + route + ", full build " + other);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    // Removing a connection must drop the cached routes through it and keep
+    // the rest.
+    private static boolean deltaEvictsOnlyAffectedRoutes(File file) throws Exception {
+        Subway subway = new SubwayLoader().loadFromFile(file);
+        RouteCache cache = subway.getRouteCache();
+        List<Connection> through = subway.getDirections("DRY Drive", "Head First Theater");
+        List<Connection> elsewhere = subway.getDirections("OOA&D Oval", "Head First Labs");
+        subway.applyDelta(new NetworkDelta().removeConnection("DRY Drive", "Head First Theater", "Meyer Line"));
+        long hits = cache.getHitCount();
+        List<Connection> detour = subway.getDirections("DRY Drive", "Head First Theater");
+        if (cache.getHitCount() != hits || detour.isEmpty() || detour.contains(through.get(0))) {
+            System.out.println("  route through a removed connection was served from the cache: " + detour);
+            return false;
+        }
+        if (!subway.getDirections("OOA&D Oval", "Head First Labs").equals(elsewhere) || cache.getHitCount() != hits + 1) {
+            System.out.println("  unaffected route was evicted: " + cache);
+            return false;
+        }
+        return true;
+    }
+
+    // A route must chain from start to end and cost what its legs add up to.
+    // Journeys on the GTFS fixture: a direct trip, the next trip when the
+    // first is missed (through a stop timed by interpolation), a change of
+    // line, a trip past midnight and a station no trip reaches in time.
+    private static boolean timetableFollowsSchedule() throws IOException {
+        GtfsLoader loader = new GtfsLoader();
+        loader.setTimetableEnabled(true);
+        Timetable timetable = loader.loadFromFeed(new File("data/gtfs")).getTimetable();
+        List<TimedConnection> direct = timetable.getJourney("Harbor", "Park Street", time(8, 0));
+        List<TimedConnection> missed = timetable.getJourney("Harbor", "Park Street", time(8, 1));
+        List<TimedConnection> change = timetable.getJourney("Harbor", "The \"Old\" Museum", time(8, 0));
+        return direct.size() == 3 && direct.get(2).getArrivalTime() == time(8, 12) && direct.get(0).getTripId().equals("H1") &&
+            missed.size() == 3 && missed.get(2).getArrivalTime() == time(9, 16) && missed.get(0).getDepartureTime() == time(9, 0) &&
+            change.size() == 2 && change.get(0).getTripId().equals("H1") && change.get(1).getTripId().equals("C1") &&
+            change.get(1).getLineName().equals("Circle Line") && change.get(1).getArrivalTime() == time(23, 58) &&
+            timetable.getEarliestArrival("University", "Park Street", time(24, 0)) == time(24, 7) &&
+            timetable.getEarliestArrival("University", "Harbor", time(18, 0)) == -1 &&
+            timetable.getJourney("University", "Harbor", time(18, 0)).isEmpty();
+    }
+
+    private static int time(int hours, int minutes) {
+        return hours * 3600 + minutes * 60;
+    }
+
+    // On a random timetable, every earliest arrival must match repeatedly
+    // relaxing all runs until nothing improves (changes take no time, so
+    // staying on a train is the same as getting off and back on), and every
+    // journey must be a chain of runs that ends at that arrival.
+    private static boolean timetableMatchesRelaxation(long seed) {
+        Random random = new Random(seed);
+        int stations = 40;
+        Timetable.Builder builder = new Timetable.Builder();
+        for (int i = 0; i < stations; i++) {
+            builder.addStation(new Station("S" + i));
+        }
+        List<int[]> runs = new ArrayList<>();
+        for (int t = 0; t < 60; t++) {
+            int trip = builder.addTrip("T" + t, "Line " + (t % 5));
+            int station = random.nextInt(stations);
+            int clock = random.nextInt(4 * 3600);
+            for (int i = 0; i < 8; i++) {
+                int next = random.nextInt(stations);
+                int departure = clock + random.nextInt(3) * 60;
+                int arrival = departure + random.nextInt(10) * 60;
+                if (next != station) {
+                    builder.addConnection(trip, station, next, departure, arrival);
+                    runs.add(new int[] { station, next, departure, arrival });
+                }
+                station = next;
+                clock = arrival;
+            }
+        }
+        Timetable timetable = builder.build();
+        for (int query = 0; query < 300; query++) {
+            int start = random.nextInt(stations);
+            int end = random.nextInt(stations);
+            int departure = random.nextInt(4 * 3600);
+            int[] arrival = new int[stations];
+            Arrays.fill(arrival, Integer.MAX_VALUE);
+            arrival[start] = departure;
+            for (boolean changed = true; changed; ) {
+                changed = false;
+                for (int[] run : runs) {
+                    if (arrival[run[0]] <= run[2] && run[3] < arrival[run[1]]) {
+                        arrival[run[1]] = run[3];
+                        changed = true;
+                    }
+                }
+            }
+            int expected = arrival[end] == Integer.MAX_VALUE ? -1 : arrival[end];
+            if (timetable.getEarliestArrival("S" + start, "S" + end, departure) != expected) {
+                return false;
+            }
+            List<TimedConnection> journey = timetable.getJourney("S" + start, "S" + end, departure);
+            String at = "S" + start;
+            int clock = departure;
+            for (TimedConnection leg : journey) {
+                if (!leg.getStation1().getName().equals(at) || leg.getDepartureTime() < clock) {
+                    return false;
+                }
+                at = leg.getStation2().getName();
+                clock = leg.getArrivalTime();
+            }
+            if (start != end && (expected < 0 ? !journey.isEmpty() : !at.equals("S" + end) || clock != expected)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValid(Route route, String start, String end, double transferPenalty) {
+        List<Connection> connections = route.getConnections();
+        if (connections.isEmpty()) {
+            return start.equalsIgnoreCase(end);
+        }
+        String at = start;
+        double cost = 0;
+        for (Connection connection : connections) {
+            if (!connection.getStation1().getName().equalsIgnoreCase(at)) {
+                return false;
+            }
+            at = connection.getStation2().getName();
+            cost += connection.getTravelTime();
+        }
+        cost += transferPenalty * route.getLineChanges();
+        return at.equalsIgnoreCase(end) && Math.abs(cost - route.getTotalCost()) < 1e-9;
+    }
+}
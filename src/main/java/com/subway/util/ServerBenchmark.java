@@ -0,0 +1,109 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import com.subway.core.LongHistogram;
+import com.subway.core.SnapshotHolder;
+import com.subway.core.SubwayGraph;
+import com.subway.core.SubwayLoader;
+import com.subway.core.SubwaySnapshot;
+import com.subway.server.RouteServer;
+
+// Load generator for RouteServer: starts the server on a free localhost port
+// and has a number of client threads ask it for routes between random
+// stations, back to back over keep-alive connections, for a fixed time per
+// round. Reports requests per second and client-side latency percentiles for
+// each round, the first of which is warmup.
+// Usage: ServerBenchmark [networkFile] [clients] [seconds] [rounds]
+public class ServerBenchmark
+{
+    private static final int PAIRS = 4096;
+
+    public static void main(String[] args) throws Exception {
+        File file = new File(args.length > 0 ? args[0] : "data/ObjectvilleSubway.txt");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        // As in RouteServer.main; without it every keep-alive response waits
+        // for the client's delayed ACK.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+
+        SubwaySnapshot snapshot = new SubwayLoader().loadSnapshot(file);
+        String[] paths = routePaths(snapshot.getGraph(), 23L);
+        RouteServer server = new RouteServer(new SnapshotHolder(snapshot), new InetSocketAddress("localhost", 0),
+            RouteServer.DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        server.start();
+        System.out.println("=== " + clients + " clients against " + file + " (" + snapshot.getStationCount()
+            + " stations), server on " + (server.isVirtualThreads() ? "virtual threads" : "a thread pool") + " ===");
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                LongHistogram latencies = new LongHistogram(clients);
+                LongAdder failures = new LongAdder();
+                long deadline = System.nanoTime() + seconds * 1000000000L;
+                List<Future<?>> running = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int first = c * (PAIRS / clients);
+                    running.add(pool.submit(() -> {
+                        run(server.getPort(), paths, first, deadline, latencies, failures);
+                        return null;
+                    }));
+                }
+                for (Future<?> client : running) {
+                    client.get();
+                }
+                LongHistogram.Snapshot result = latencies.snapshot();
+                System.out.printf("%s %d: %.0f requests/s, %d failed, latency us %s%n", round == 0 ? "warmup" : "round",
+                    round, result.getCount() / (double) seconds, failures.sum(), result.toString(1000));
+            }
+        } finally {
+            pool.shutdownNow();
+            server.stop(0);
+        }
+    }
+
+    private static String[] routePaths(SubwayGraph graph, long seed) {
+        Random random = new Random(seed);
+        String[] paths = new String[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            paths[i] = "/route?from=" + encode(graph.getStation(random.nextInt(graph.getStationCount())).getName())
+                + "&to=" + encode(graph.getStation(random.nextInt(graph.getStationCount())).getName());
+        }
+        return paths;
+    }
+
+    // Reads every body to the end so HttpURLConnection can reuse the socket.
+    private static void run(int port, String[] paths, int first, long deadline, LongHistogram latencies,
+            LongAdder failures) throws IOException {
+        byte[] buffer = new byte[8192];
+        for (int i = first; System.nanoTime() < deadline; i++) {
+            long start = System.nanoTime();
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + paths[i % PAIRS])
+                .openConnection();
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                while (in.read(buffer) >= 0) {
+                }
+            }
+            latencies.record(System.nanoTime() - start);
+            if (status != 200) {
+                failures.increment();
+            }
+        }
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+package com.subway.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.regex.Pattern;
+import com.subway.core.Connection;
+import com.subway.core.Subway;
+import com.subway.core.SubwayGraph;
+import com.subway.core.SubwayLoader;
+import com.subway.gui.SubwayPrinter;
+
+// Regression benchmarks for loading and routing on synthetic networks of 10^2
+// up to 10^6 stations, with time and allocation per operation (see
+// Microbench). Networks are NetworkGenerator hub networks with one line per
+// hundred stations and two segments per station.
+// Usage: SubwayBenchmarks [maxStations] [benchmark name regex]
+public class SubwayBenchmarks
+{
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASUREMENT_ITERATIONS = 5;
+    private static final long ITERATION_MILLIS = 500;
+    private static final int INPUTS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        int maxStations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        Pattern filter = Pattern.compile(args.length > 1 ? args[1] : ".*");
+        Microbench bench = new Microbench(WARMUP_ITERATIONS, MEASUREMENT_ITERATIONS, ITERATION_MILLIS);
+        Microbench.printHeader();
+        for (int stations = 100; stations <= maxStations; stations *= 10) {
+            File file = File.createTempFile("subway", ".txt");
+            try {
+                NetworkGenerator.writeHub(file, stations, Math.max(1, stations / 100), 201, stations);
+                run(bench, filter, file, stations);
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private static void run(Microbench bench, Pattern filter, File file, int stations) throws Exception {
+        if (filter.matcher("loadFromFile").find()) {
+            bench.measure("loadFromFile", stations, i -> new SubwayLoader().loadFromFile(file));
+        }
+
+        Subway subway = new SubwayLoader().loadFromFile(file);
+        subway.setRouteCacheSize(0);
+        SubwayGraph graph = subway.getGraph();
+        Random random = new Random(stations);
+        String[] starts = new String[INPUTS];
+        String[] ends = new String[INPUTS];
+        String[] names = new String[INPUTS];
+        Connection[] connections = new Connection[INPUTS];
+        for (int i = 0; i < INPUTS; i++) {
+            starts[i] = graph.getStation(random.nextInt(stations)).getName();
+            ends[i] = graph.getStation(random.nextInt(stations)).getName();
+            // Every other name misses, so both outcomes are measured.
+            names[i] = i % 2 == 0 ? graph.getStation(random.nextInt(stations)).getName() : "Missing " + i;
+            connections[i] = graph.getConnection(random.nextInt(graph.getEdgeCount()));
+        }
+
+        if (filter.matcher("getDirections").find()) {
+            bench.measure("getDirections", stations, i -> subway.getDirections(starts[i % INPUTS], ends[i % INPUTS]));
+        }
+        if (filter.matcher("hasStation").find()) {
+            bench.measure("hasStation", stations, i -> subway.hasStation(names[i % INPUTS]));
+        }
+        if (filter.matcher("hasConnection").find()) {
+            bench.measure("hasConnection", stations, i -> {
+                Connection connection = connections[i % INPUTS];
+                return subway.hasConnection(connection.getStation1().getName(), connection.getStation2().getName(),
+                    connection.getLineName());
+            });
+        }
+        if (filter.matcher("printDirections").find()) {
+            List<List<Connection>> routes = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                routes.add(subway.getDirections(starts[i], ends[i]));
+            }
+            SubwayPrinter printer = new SubwayPrinter(OutputStream.nullOutputStream());
+            bench.measure("printDirections", stations, i -> {
+                printer.printDirections(routes.get(i % routes.size()));
+                return printer;
+            });
+        }
+    }
+}